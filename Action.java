@@ -17,6 +17,22 @@ public final class Action {
         this.imageStore = imageStore;
         this.repeatCount = repeatCount;
     }
+    public ActionKind getKind() {
+        return kind;
+    }
+
+    public int getRepeatCount() {
+        return repeatCount;
+    }
+
+    WorldModel getWorld() {
+        return world;
+    }
+
+    ImageStore getImageStore() {
+        return imageStore;
+    }
+
     public void executeAction(EventScheduler scheduler) {
         switch (kind) {
             case ACTIVITY:
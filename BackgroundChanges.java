@@ -0,0 +1,33 @@
+import java.util.BitSet;
+
+/**
+ * Which rows of a world's background have changed since the last
+ * checkpoint copied them, so WorldSnapshot.capture copies only those rows
+ * and shares the rest with the snapshot before. WorldModel reports every
+ * change to it, as it does to the summary and the journal.
+ */
+final class BackgroundChanges {
+    private final BitSet rows = new BitSet();
+    // nothing has been copied yet, or the whole background was replaced
+    private boolean all = true;
+
+    void cellChanged(Point pos) {
+        rows.set(pos.y);
+    }
+
+    void allChanged() {
+        all = true;
+    }
+
+    boolean rowChanged(int row) {
+        return all || rows.get(row);
+    }
+
+    /**
+     * Called once a snapshot has copied every changed row.
+     */
+    void clear() {
+        rows.clear();
+        all = false;
+    }
+}
@@ -0,0 +1,238 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A background grid stored as runs of the same background along each row,
+ * for worlds whose backgrounds are mostly long stretches of one id. Each
+ * distinct id is kept once, as a single shared Background, and a run is
+ * just its end column and the id's index. Looking up a cell is a binary
+ * search over its row's runs.
+ */
+public final class BackgroundLayer {
+    private static final int NO_BACKGROUND = 0;
+
+    private final int numRows;
+    private final int numCols;
+    private final List<Background> palette;
+    private final Map<String, Integer> paletteIndex;
+    // per row: exclusive end column of each run, ascending, and the run's palette index
+    private final int[][] runEnds;
+    private final int[][] runValues;
+
+    public BackgroundLayer(int numRows, int numCols) {
+        this.numRows = numRows;
+        this.numCols = numCols;
+        this.palette = new ArrayList<>();
+        this.paletteIndex = new HashMap<>();
+        this.runEnds = new int[numRows][];
+        this.runValues = new int[numRows][];
+        palette.add(null);
+        for (int row = 0; row < numRows; row++) {
+            runEnds[row] = numCols == 0 ? new int[0] : new int[]{numCols};
+            runValues[row] = numCols == 0 ? new int[0] : new int[]{NO_BACKGROUND};
+        }
+    }
+
+    /**
+     * Builds a layer from a full grid. Cells with the same id end up
+     * sharing the first Background seen with that id.
+     */
+    public static BackgroundLayer compress(Background[][] grid, int numRows, int numCols) {
+        BackgroundLayer layer = new BackgroundLayer(numRows, numCols);
+        int[] values = new int[numCols];
+        for (int row = 0; row < numRows; row++) {
+            for (int col = 0; col < numCols; col++) {
+                values[col] = layer.intern(grid[row][col]);
+            }
+            layer.setRow(row, values);
+        }
+        return layer;
+    }
+
+    public Background get(int row, int col) {
+        int[] ends = runEnds[row];
+        // the first run ending after col
+        int run = Arrays.binarySearch(ends, col + 1);
+        if (run < 0) {
+            run = -run - 1;
+        }
+        return palette.get(runValues[row][run]);
+    }
+
+    /**
+     * Changes one cell, splitting its run and merging with the runs on
+     * either side as needed. Costs time in proportion to the row's runs.
+     */
+    public void set(int row, int col, Background background) {
+        int value = intern(background);
+        int[] ends = runEnds[row];
+        int[] values = runValues[row];
+        int run = Arrays.binarySearch(ends, col + 1);
+        if (run < 0) {
+            run = -run - 1;
+        }
+        if (values[run] == value) {
+            return;
+        }
+
+        RunBuilder builder = new RunBuilder(ends.length + 2);
+        for (int i = 0; i < run; i++) {
+            builder.add(ends[i], values[i]);
+        }
+        builder.add(col, values[run]);
+        builder.add(col + 1, value);
+        builder.add(ends[run], values[run]);
+        for (int i = run + 1; i < ends.length; i++) {
+            builder.add(ends[i], values[i]);
+        }
+        runEnds[row] = builder.ends();
+        runValues[row] = builder.values();
+    }
+
+    /**
+     * Expands a row into an array.
+     */
+    public void copyRow(int row, Background[] dest, int offset) {
+        int[] ends = runEnds[row];
+        int[] values = runValues[row];
+        int start = 0;
+        for (int run = 0; run < ends.length; run++) {
+            Arrays.fill(dest, offset + start, offset + ends[run], palette.get(values[run]));
+            start = ends[run];
+        }
+    }
+
+    /**
+     * @return the whole layer expanded back into a grid
+     */
+    public Background[][] toGrid() {
+        Background[][] grid = new Background[numRows][numCols];
+        for (int row = 0; row < numRows; row++) {
+            copyRow(row, grid[row], 0);
+        }
+        return grid;
+    }
+
+    /**
+     * Replaces a row with runs of the given palette indices, one per cell.
+     */
+    void setRow(int row, int[] cells) {
+        RunBuilder builder = new RunBuilder(16);
+        for (int col = 0; col < numCols; col++) {
+            builder.add(col + 1, cells[col]);
+        }
+        runEnds[row] = builder.ends();
+        runValues[row] = builder.values();
+    }
+
+    /**
+     * Replaces a row with already run-length encoded cells.
+     * @param ends - exclusive end column of each run, ascending, the last one numCols
+     * @param values - palette index of each run
+     */
+    void setRuns(int row, int[] ends, int[] values) {
+        RunBuilder builder = new RunBuilder(ends.length);
+        for (int i = 0; i < ends.length; i++) {
+            builder.add(ends[i], values[i]);
+        }
+        runEnds[row] = builder.ends();
+        runValues[row] = builder.values();
+    }
+
+    /**
+     * @return the palette index for a background's id, adding it if new;
+     * NO_BACKGROUND for null
+     */
+    int intern(Background background) {
+        if (background == null) {
+            return NO_BACKGROUND;
+        }
+        Integer index = paletteIndex.get(background.id);
+        if (index == null) {
+            index = palette.size();
+            palette.add(background);
+            paletteIndex.put(background.id, index);
+        }
+        return index;
+    }
+
+    int[] getRunEnds(int row) {
+        return runEnds[row];
+    }
+
+    int[] getRunValues(int row) {
+        return runValues[row];
+    }
+
+    /**
+     * @return every distinct background, indexed as in getRunValues; index
+     * 0 is null
+     */
+    List<Background> getPalette() {
+        return palette;
+    }
+
+    public int getNumRows() {
+        return numRows;
+    }
+
+    public int getNumCols() {
+        return numCols;
+    }
+
+    /**
+     * @return the total number of runs, a measure of how well the layer compresses
+     */
+    public long getRunCount() {
+        long count = 0;
+        for (int[] ends : runEnds) {
+            count += ends.length;
+        }
+        return count;
+    }
+
+    /*
+       Collects runs, dropping empty ones and merging a run into the one
+       before it when they hold the same value.
+     */
+    private static final class RunBuilder {
+        private int[] ends;
+        private int[] values;
+        private int count;
+        private int lastEnd;
+
+        RunBuilder(int capacity) {
+            this.ends = new int[Math.max(1, capacity)];
+            this.values = new int[Math.max(1, capacity)];
+        }
+
+        void add(int end, int value) {
+            if (end <= lastEnd) {
+                return;
+            }
+            if (count > 0 && values[count - 1] == value) {
+                ends[count - 1] = end;
+            } else {
+                if (count == ends.length) {
+                    ends = Arrays.copyOf(ends, count * 2);
+                    values = Arrays.copyOf(values, count * 2);
+                }
+                ends[count] = end;
+                values[count] = value;
+                count++;
+            }
+            lastEnd = end;
+        }
+
+        int[] ends() {
+            return Arrays.copyOf(ends, count);
+        }
+
+        int[] values() {
+            return Arrays.copyOf(values, count);
+        }
+    }
+}
@@ -0,0 +1,33 @@
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Hands out one shared Background per id, so a map full of grass holds a
+ * single grass Background rather than one per cell. Backgrounds are
+ * immutable, so sharing them is safe. Safe to use from several threads,
+ * as MappedWorldLoader does.
+ */
+public final class BackgroundRegistry {
+    private final ImageStore imageStore;
+    private final Map<String, Background> backgrounds;
+
+    public BackgroundRegistry(ImageStore imageStore) {
+        this.imageStore = imageStore;
+        this.backgrounds = new ConcurrentHashMap<>();
+    }
+
+    public Background get(String id) {
+        Background background = backgrounds.get(id);
+        if (background == null) {
+            background = backgrounds.computeIfAbsent(id, key -> new Background(key, imageStore.getImageList(key)));
+        }
+        return background;
+    }
+
+    /**
+     * @return the number of distinct backgrounds handed out so far
+     */
+    public int size() {
+        return backgrounds.size();
+    }
+}
@@ -0,0 +1,282 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * A versioned binary save format, much smaller and faster to load than the
+ * text layout WorldLoader reads. All values are big-endian.
+ *
+ *   magic:int  version:int  rows:int  cols:int
+ *   background dictionary: count:int, then count ids (length:int, UTF-8 bytes);
+ *       index 0 is reserved for cells with no background
+ *   background cells, version 2: for each row, runs:int then (length:int, index:int)[runs]
+ *       runs of cells with the same dictionary index, left to right
+ *   background cells, version 1: bitsPerCell:int  words:int  long[words]
+ *       row-major dictionary indices packed bitsPerCell to a cell
+ *   entity table: count:int, then one column at a time:
+ *       kind:byte[]  id:(length:int, UTF-8 bytes)[]  col:int[]  row:int[]
+ *       imageIndex:int[]  actionPeriod:double[]  animationPeriod:double[]
+ *       health:int[]  healthLimit:int[]  resourceLimit:int[]  resourceCount:int[]
+ */
+public final class BinaryWorldFormat {
+    public static final String FILE_SUFFIX = ".vwb";
+
+    private static final int MAGIC = 0x56574231; // "VWB1"
+    private static final int VERSION = 2;
+    private static final int PACKED_VERSION = 1;
+    private static final int NO_BACKGROUND = 0;
+    /**
+     * Writes the world's background and entities.
+     * @param world - the world to save
+     * @param file - destination, overwritten if it exists
+     */
+    public static void write(WorldModel world, File file) throws IOException {
+        int rows = world.getNumRows();
+        int cols = world.getNumCols();
+
+        BackgroundLayer layer = world.getBackgroundLayer();
+        if (layer == null) {
+            layer = world.getBackground() == null
+                    ? new BackgroundLayer(rows, cols)
+                    : BackgroundLayer.compress(world.getBackground(), rows, cols);
+        }
+        List<Background> palette = layer.getPalette();
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(rows);
+            out.writeInt(cols);
+
+            out.writeInt(palette.size());
+            for (Background background : palette) {
+                writeString(out, background == null ? "" : background.id);
+            }
+
+            for (int row = 0; row < rows; row++) {
+                int[] ends = layer.getRunEnds(row);
+                int[] values = layer.getRunValues(row);
+                out.writeInt(ends.length);
+                int start = 0;
+                for (int run = 0; run < ends.length; run++) {
+                    out.writeInt(ends[run] - start);
+                    out.writeInt(values[run]);
+                    start = ends[run];
+                }
+            }
+
+            writeEntities(out, world.getEntities() == null ? List.of() : List.copyOf(world.getEntities()));
+        }
+    }
+
+    /**
+     * Replaces the contents of the world with a saved binary world.
+     * @throws IllegalArgumentException if the file is not a supported binary world
+     */
+    public static void load(WorldModel world, File file, ImageStore imageStore, Background defaultBackground) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Binary world is too large to map");
+            }
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            read(world, in, imageStore);
+        }
+        WorldLoader.fillMissingSections(world, defaultBackground);
+    }
+
+    private static void read(WorldModel world, ByteBuffer in, ImageStore imageStore) {
+        if (in.remaining() < 8 || in.getInt() != MAGIC) {
+            throw new IllegalArgumentException("Not a binary world file");
+        }
+        int version = in.getInt();
+        if (version != VERSION && version != PACKED_VERSION) {
+            throw new IllegalArgumentException(String.format("Unsupported binary world version %d", version));
+        }
+        int rows = in.getInt();
+        int cols = in.getInt();
+        world.setNumRows(rows);
+        world.setNumCols(cols);
+
+        int idCount = in.getInt();
+        Background[] dictionary = new Background[idCount];
+        for (int i = 0; i < idCount; i++) {
+            String id = readString(in);
+            dictionary[i] = i == NO_BACKGROUND ? null : imageStore.getBackground(id);
+        }
+
+        world.setBackground(version == PACKED_VERSION
+                ? readPackedCells(in, dictionary, rows, cols)
+                : readRuns(in, dictionary, rows, cols).toGrid());
+
+        world.setOccupancy(new Entity[rows][cols]);
+        world.setEntities(new HashSet<>());
+        readEntities(world, in, imageStore);
+    }
+
+    private static void writeEntities(DataOutputStream out, List<Entity> entities) throws IOException {
+        out.writeInt(entities.size());
+        for (Entity entity : entities) {
+            out.writeByte(entity.getKind().ordinal());
+        }
+        for (Entity entity : entities) {
+            writeString(out, entity.getId());
+        }
+        for (Entity entity : entities) {
+            out.writeInt(entity.getX());
+        }
+        for (Entity entity : entities) {
+            out.writeInt(entity.getY());
+        }
+        for (Entity entity : entities) {
+            out.writeInt(entity.getImageIndex());
+        }
+        for (Entity entity : entities) {
+            out.writeDouble(entity.getActionPeriod());
+        }
+        for (Entity entity : entities) {
+            out.writeDouble(entity.isAnimated() ? entity.getAnimationPeriod() : 0);
+        }
+        for (Entity entity : entities) {
+            out.writeInt(entity.getHealth());
+        }
+        for (Entity entity : entities) {
+            out.writeInt(entity.getHealthLimit());
+        }
+        for (Entity entity : entities) {
+            out.writeInt(entity.getResourceLimit());
+        }
+        for (Entity entity : entities) {
+            out.writeInt(entity.getResourceCount());
+        }
+    }
+
+    private static void readEntities(WorldModel world, ByteBuffer in, ImageStore imageStore) {
+        int count = in.getInt();
+        EntityKind[] kinds = new EntityKind[count];
+        EntityKind[] allKinds = EntityKind.values();
+        for (int i = 0; i < count; i++) {
+            int ordinal = in.get();
+            if (ordinal < 0 || ordinal >= allKinds.length) {
+                throw new IllegalArgumentException("Entity kind is unknown");
+            }
+            kinds[i] = allKinds[ordinal];
+        }
+        String[] ids = new String[count];
+        for (int i = 0; i < count; i++) {
+            ids[i] = readString(in);
+        }
+        int[] cols = readInts(in, count);
+        int[] rows = readInts(in, count);
+        int[] imageIndices = readInts(in, count);
+        double[] actionPeriods = readDoubles(in, count);
+        double[] animationPeriods = readDoubles(in, count);
+        int[] healths = readInts(in, count);
+        int[] healthLimits = readInts(in, count);
+        int[] resourceLimits = readInts(in, count);
+        int[] resourceCounts = readInts(in, count);
+
+        for (int i = 0; i < count; i++) {
+            Entity entity = new Entity(kinds[i], ids[i], new Point(cols[i], rows[i]),
+                    imageStore.getImageList(WorldLoader.imageKey(kinds[i])),
+                    resourceLimits[i], resourceCounts[i], actionPeriods[i], animationPeriods[i],
+                    healths[i], healthLimits[i]);
+            entity.setImageIndex(imageIndices[i]);
+            world.tryAddEntity(entity);
+        }
+    }
+
+    private static BackgroundLayer readRuns(ByteBuffer in, Background[] dictionary, int rows, int cols) {
+        BackgroundLayer layer = new BackgroundLayer(rows, cols);
+        for (Background background : dictionary) {
+            layer.intern(background);
+        }
+        for (int row = 0; row < rows; row++) {
+            int runs = in.getInt();
+            int[] ends = new int[runs];
+            int[] values = new int[runs];
+            int end = 0;
+            for (int run = 0; run < runs; run++) {
+                end += in.getInt();
+                ends[run] = end;
+                values[run] = in.getInt();
+                if (values[run] < 0 || values[run] >= dictionary.length) {
+                    throw new IllegalArgumentException("Background index is out of range");
+                }
+            }
+            if (end != cols) {
+                throw new IllegalArgumentException("Background runs do not add up to the world width");
+            }
+            layer.setRuns(row, ends, values);
+        }
+        return layer;
+    }
+
+    private static Background[][] readPackedCells(ByteBuffer in, Background[] dictionary, int rows, int cols) {
+        int bits = in.getInt();
+        if (bits < 0 || bits > Integer.SIZE) {
+            throw new IllegalArgumentException("Background cell width is out of range");
+        }
+        int count = in.getInt();
+        if (count < 0 || count > in.remaining() / Long.BYTES || (long) count * Long.SIZE < (long) rows * cols * bits) {
+            throw new IllegalArgumentException("Background cells do not cover the world");
+        }
+        long[] words = new long[count];
+        in.asLongBuffer().get(words);
+        in.position(in.position() + words.length * Long.BYTES);
+
+        Background[][] background = new Background[rows][cols];
+        long mask = (1L << bits) - 1;
+        for (int row = 0; row < rows; row++) {
+            for (int col = 0; col < cols; col++) {
+                long bit = ((long) row * cols + col) * bits;
+                int word = (int) (bit >>> 6);
+                int shift = (int) (bit & 63);
+                long value = words[word] >>> shift;
+                if (shift + bits > 64) {
+                    value |= words[word + 1] << (64 - shift);
+                }
+                long index = value & mask;
+                if (index >= dictionary.length) {
+                    throw new IllegalArgumentException("Background index is out of range");
+                }
+                background[row][col] = dictionary[(int) index];
+            }
+        }
+        return background;
+    }
+
+    private static int[] readInts(ByteBuffer in, int count) {
+        int[] values = new int[count];
+        in.asIntBuffer().get(values);
+        in.position(in.position() + count * Integer.BYTES);
+        return values;
+    }
+
+    private static double[] readDoubles(ByteBuffer in, int count) {
+        double[] values = new double[count];
+        in.asDoubleBuffer().get(values);
+        in.position(in.position() + count * Double.BYTES);
+        return values;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,434 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encodes WorldSnapshots as checkpoint files. A full checkpoint holds the
+ * whole world; a delta only holds what changed since the checkpoint before
+ * it. All values are big-endian.
+ *
+ *   magic:int  version:int  type:byte (0 full, 1 delta)
+ *   sequence:long  baseSequence:long (-1 for full)  time:double  rows:int  cols:int
+ *   background dictionary: count:int, ids (length:int, UTF-8 bytes); index 0 means no background
+ *   full:  dictionary index:int for every cell, row-major
+ *   delta: count:int, then (cell:int, dictionary index:int) for each changed cell
+ *   full:  count:int, entity records
+ *   delta: removed:int, handle:int[], then count:int, entity records for added or changed entities
+ *   events: count:int, event records, in the scheduler's queue order
+ *   claims: count:int, claim records (version 2 and later)
+ *   targets: count:int, target records (version 3 and later)
+ *   random: seed:long (version 5 and later; version 4 follows it with draws:long)
+ *
+ *   entity: handle:int kind:byte id:string x:int y:int imageIndex:int resourceLimit:int
+ *           resourceCount:int actionPeriod:double animationPeriod:double health:int
+ *           healthLimit:int flags:byte (1 in world, 2 occupying its cell)
+ *   event:  handle:int kind:byte time:double repeatCount:int pendingIndex:int
+ *   claim:  claimant:int target:int until:double
+ *   target: seeker:int target:int kinds:int (a bit per EntityKind ordinal)
+ *
+ * Older files, written before targets could be claimed (version 1),
+ * were kept between searches (version 2), the world's random stream was
+ * saved (version 3) or was reseeded at each checkpoint (version 4), are
+ * still read.
+ */
+public final class CheckpointFormat {
+    public static final String FULL_SUFFIX = ".full";
+    public static final String DELTA_SUFFIX = ".delta";
+
+    static final int MAGIC = 0x56574350; // "VWCP"
+    static final int VERSION = 5;
+    static final byte FULL = 0;
+    static final byte DELTA = 1;
+    static final int IN_WORLD = 1;
+    static final int OCCUPYING = 2;
+
+    /**
+     * Writes a checkpoint file.
+     * @param directory - where checkpoints are kept
+     * @param snapshot - the state to write
+     * @param base - the previous snapshot to write a delta against, or null
+     *               for a full checkpoint
+     * @return the file written
+     */
+    public static File write(File directory, WorldSnapshot snapshot, WorldSnapshot base) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        File file = new File(directory, fileName(snapshot.getSequence(), base == null));
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeByte(base == null ? FULL : DELTA);
+            out.writeLong(snapshot.getSequence());
+            out.writeLong(base == null ? -1 : base.getSequence());
+            out.writeDouble(snapshot.getTime());
+            out.writeInt(snapshot.getNumRows());
+            out.writeInt(snapshot.getNumCols());
+
+            writeBackground(out, snapshot, base);
+            writeEntities(out, snapshot, base);
+
+            out.writeInt(snapshot.getEvents().size());
+            for (WorldSnapshot.EventState event : snapshot.getEvents()) {
+                out.writeInt(event.handle);
+                out.writeByte(event.kind.ordinal());
+                out.writeDouble(event.time);
+                out.writeInt(event.repeatCount);
+                out.writeInt(event.pendingIndex);
+            }
+
+            out.writeInt(snapshot.getClaims().size());
+            for (WorldSnapshot.ClaimState claim : snapshot.getClaims()) {
+                out.writeInt(claim.claimant);
+                out.writeInt(claim.target);
+                out.writeDouble(claim.until);
+            }
+
+            out.writeInt(snapshot.getTargets().size());
+            for (WorldSnapshot.TrackState target : snapshot.getTargets()) {
+                out.writeInt(target.seeker);
+                out.writeInt(target.target);
+                out.writeInt(target.kinds);
+            }
+
+            out.writeLong(snapshot.getSeed());
+        }
+        return file;
+    }
+
+    /**
+     * Finds the newest checkpoint in a directory.
+     * @return its sequence number, or -1 if there is none
+     */
+    public static long latestSequence(File directory) {
+        long latest = -1;
+        String[] names = directory.list();
+        if (names != null) {
+            for (String name : names) {
+                long sequence = sequenceOf(name);
+                latest = Math.max(latest, sequence);
+            }
+        }
+        return latest;
+    }
+
+    /**
+     * Rebuilds the snapshot with the given sequence number from the nearest
+     * full checkpoint at or before it plus the deltas that follow.
+     * @throws IllegalArgumentException if the chain is broken or a file is malformed
+     */
+    public static WorldSnapshot read(File directory, long sequence, ImageStore imageStore) throws IOException {
+        long fullSequence = sequence;
+        while (fullSequence >= 0 && !new File(directory, fileName(fullSequence, true)).isFile()) {
+            fullSequence--;
+        }
+        if (fullSequence < 0) {
+            throw new IllegalArgumentException("No full checkpoint at or before " + sequence);
+        }
+
+        Reader reader = new Reader(imageStore);
+        reader.apply(new File(directory, fileName(fullSequence, true)), -1);
+        for (long next = fullSequence + 1; next <= sequence; next++) {
+            File delta = new File(directory, fileName(next, false));
+            if (!delta.isFile()) {
+                throw new IllegalArgumentException("Missing checkpoint " + delta.getName());
+            }
+            reader.apply(delta, next - 1);
+        }
+        return reader.toSnapshot();
+    }
+
+    /**
+     * Reads just the simulation time a checkpoint was taken at.
+     * @throws IllegalArgumentException if there is no such checkpoint
+     */
+    public static double readTime(File directory, long sequence) throws IOException {
+        File file = new File(directory, fileName(sequence, true));
+        if (!file.isFile()) {
+            file = new File(directory, fileName(sequence, false));
+        }
+        if (!file.isFile()) {
+            throw new IllegalArgumentException("Missing checkpoint " + sequence);
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64))) {
+            readVersion(in, file);
+            in.readByte();
+            in.readLong();
+            in.readLong();
+            return in.readDouble();
+        }
+    }
+
+    /**
+     * Reads the magic number and version.
+     * @return the version
+     * @throws IllegalArgumentException if the file is not a checkpoint this
+     * code can read
+     */
+    private static int readVersion(DataInputStream in, File file) throws IOException {
+        int version = in.readInt() == MAGIC ? in.readInt() : -1;
+        if (version < 1 || version > VERSION) {
+            throw new IllegalArgumentException("Not a checkpoint: " + file.getName());
+        }
+        return version;
+    }
+
+    private static long sequenceOf(String name) {
+        String prefix = "checkpoint_";
+        String suffix = name.endsWith(FULL_SUFFIX) ? FULL_SUFFIX : name.endsWith(DELTA_SUFFIX) ? DELTA_SUFFIX : null;
+        if (!name.startsWith(prefix) || suffix == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    static String fileName(long sequence, boolean full) {
+        return String.format("checkpoint_%06d%s", sequence, full ? FULL_SUFFIX : DELTA_SUFFIX);
+    }
+
+    private static void writeBackground(DataOutputStream out, WorldSnapshot snapshot, WorldSnapshot base) throws IOException {
+        int cellCount = snapshot.getNumRows() * snapshot.getNumCols();
+        Map<String, Integer> dictionary = new HashMap<>();
+        List<String> ids = new ArrayList<>();
+        ids.add("");
+        List<Integer> changed = new ArrayList<>();
+        int[] indices = new int[cellCount];
+
+        int numCols = snapshot.getNumCols();
+        for (int row = 0; row < snapshot.getNumRows(); row++) {
+            if (base != null && snapshot.sharesRow(base, row)) {
+                continue;
+            }
+            for (int col = 0; col < numCols; col++) {
+                Background background = snapshot.getCell(row, col);
+                if (base != null && sameBackground(background, base.getCell(row, col))) {
+                    continue;
+                }
+                int cell = row * numCols + col;
+                indices[cell] = background == null ? 0 : dictionary.computeIfAbsent(background.id, id -> {
+                    ids.add(id);
+                    return ids.size() - 1;
+                });
+                changed.add(cell);
+            }
+        }
+
+        out.writeInt(ids.size());
+        for (String id : ids) {
+            writeString(out, id);
+        }
+        if (base == null) {
+            for (int index : indices) {
+                out.writeInt(index);
+            }
+        } else {
+            out.writeInt(changed.size());
+            for (int cell : changed) {
+                out.writeInt(cell);
+                out.writeInt(indices[cell]);
+            }
+        }
+    }
+
+    private static boolean sameBackground(Background a, Background b) {
+        return a == b || (a != null && b != null && a.id.equals(b.id));
+    }
+
+    private static void writeEntities(DataOutputStream out, WorldSnapshot snapshot, WorldSnapshot base) throws IOException {
+        if (base == null) {
+            out.writeInt(snapshot.getEntities().size());
+            for (WorldSnapshot.EntityState entity : snapshot.getEntities()) {
+                writeEntity(out, entity);
+            }
+            return;
+        }
+
+        Map<Integer, WorldSnapshot.EntityState> before = new HashMap<>();
+        for (WorldSnapshot.EntityState entity : base.getEntities()) {
+            before.put(entity.handle, entity);
+        }
+        List<WorldSnapshot.EntityState> upserts = new ArrayList<>();
+        for (WorldSnapshot.EntityState entity : snapshot.getEntities()) {
+            WorldSnapshot.EntityState old = before.remove(entity.handle);
+            if (old == null || !old.sameAs(entity)) {
+                upserts.add(entity);
+            }
+        }
+
+        // whatever is left in before has gone
+        out.writeInt(before.size());
+        for (int handle : before.keySet()) {
+            out.writeInt(handle);
+        }
+        out.writeInt(upserts.size());
+        for (WorldSnapshot.EntityState entity : upserts) {
+            writeEntity(out, entity);
+        }
+    }
+
+    private static void writeEntity(DataOutputStream out, WorldSnapshot.EntityState entity) throws IOException {
+        out.writeInt(entity.handle);
+        out.writeByte(entity.kind.ordinal());
+        writeString(out, entity.name.toString());
+        out.writeInt(entity.x);
+        out.writeInt(entity.y);
+        out.writeInt(entity.imageIndex);
+        out.writeInt(entity.resourceLimit);
+        out.writeInt(entity.resourceCount);
+        out.writeDouble(entity.actionPeriod);
+        out.writeDouble(entity.animationPeriod);
+        out.writeInt(entity.health);
+        out.writeInt(entity.healthLimit);
+        out.writeByte((entity.inWorld ? IN_WORLD : 0) | (entity.occupying ? OCCUPYING : 0));
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Accumulates a full checkpoint and the deltas applied on top of it.
+     */
+    private static final class Reader {
+        private final ImageStore imageStore;
+        private final Map<Integer, WorldSnapshot.EntityState> entities;
+        private List<WorldSnapshot.EventState> events;
+        private List<WorldSnapshot.ClaimState> claims;
+        private List<WorldSnapshot.TrackState> targets;
+        private long seed;
+        private long draws = -1;
+        private Background[] cells;
+        private long sequence;
+        private double time;
+        private int numRows;
+        private int numCols;
+
+        Reader(ImageStore imageStore) {
+            this.imageStore = imageStore;
+            this.entities = new LinkedHashMap<>();
+            this.events = new ArrayList<>();
+            this.claims = new ArrayList<>();
+            this.targets = new ArrayList<>();
+        }
+
+        void apply(File file, long expectedBase) throws IOException {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+                int version = readVersion(in, file);
+                boolean full = in.readByte() == FULL;
+                sequence = in.readLong();
+                long base = in.readLong();
+                if (!full && base != expectedBase) {
+                    throw new IllegalArgumentException(String.format("%s is a delta against %d, not %d", file.getName(), base, expectedBase));
+                }
+                time = in.readDouble();
+                numRows = in.readInt();
+                numCols = in.readInt();
+
+                Background[] dictionary = new Background[in.readInt()];
+                for (int i = 0; i < dictionary.length; i++) {
+                    String id = readString(in);
+                    dictionary[i] = i == 0 ? null : imageStore.getBackground(id);
+                }
+                if (full) {
+                    cells = new Background[numRows * numCols];
+                    for (int cell = 0; cell < cells.length; cell++) {
+                        cells[cell] = dictionary[in.readInt()];
+                    }
+                    entities.clear();
+                } else {
+                    int changed = in.readInt();
+                    for (int i = 0; i < changed; i++) {
+                        int cell = in.readInt();
+                        cells[cell] = dictionary[in.readInt()];
+                    }
+                    int removed = in.readInt();
+                    for (int i = 0; i < removed; i++) {
+                        entities.remove(in.readInt());
+                    }
+                }
+
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    WorldSnapshot.EntityState entity = readEntity(in);
+                    entities.put(entity.handle, entity);
+                }
+
+                events = new ArrayList<>();
+                int eventCount = in.readInt();
+                for (int i = 0; i < eventCount; i++) {
+                    events.add(new WorldSnapshot.EventState(in.readInt(), ActionKind.values()[in.readByte()],
+                            in.readDouble(), in.readInt(), in.readInt()));
+                }
+
+                claims = new ArrayList<>();
+                int claimCount = version >= 2 ? in.readInt() : 0;
+                for (int i = 0; i < claimCount; i++) {
+                    claims.add(new WorldSnapshot.ClaimState(in.readInt(), in.readInt(), in.readDouble()));
+                }
+
+                targets = new ArrayList<>();
+                int targetCount = version >= 3 ? in.readInt() : 0;
+                for (int i = 0; i < targetCount; i++) {
+                    targets.add(new WorldSnapshot.TrackState(in.readInt(), in.readInt(), in.readInt()));
+                }
+
+                if (version >= 4) {
+                    seed = in.readLong();
+                    draws = version == 4 ? in.readLong() : 0;
+                }
+            }
+        }
+
+        WorldSnapshot toSnapshot() {
+            Background[][] rows = new Background[numRows][];
+            for (int row = 0; row < numRows; row++) {
+                rows[row] = Arrays.copyOfRange(cells, row * numCols, (row + 1) * numCols);
+            }
+            return new WorldSnapshot(sequence, time, numRows, numCols, rows, new ArrayList<>(entities.values()), events, claims,
+                    targets, seed, draws);
+        }
+
+        private static WorldSnapshot.EntityState readEntity(DataInputStream in) throws IOException {
+            int handle = in.readInt();
+            EntityKind kind = EntityKind.values()[in.readByte()];
+            String id = readString(in);
+            int x = in.readInt();
+            int y = in.readInt();
+            int imageIndex = in.readInt();
+            int resourceLimit = in.readInt();
+            int resourceCount = in.readInt();
+            double actionPeriod = in.readDouble();
+            double animationPeriod = in.readDouble();
+            int health = in.readInt();
+            int healthLimit = in.readInt();
+            int flags = in.readByte();
+            return new WorldSnapshot.EntityState(handle, kind, EntityName.of(id), x, y, imageIndex, resourceLimit, resourceCount,
+                    actionPeriod, animationPeriod, health, healthLimit,
+                    (flags & IN_WORLD) != 0, (flags & OCCUPYING) != 0);
+        }
+
+        private static String readString(DataInputStream in) throws IOException {
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+}
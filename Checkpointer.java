@@ -0,0 +1,215 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Takes periodic checkpoints of a running world without stopping it for
+ * longer than it takes to copy references. The copy is made on the
+ * simulation thread between events (see WorldSnapshot.capture); diffing
+ * against the previous checkpoint and writing to disk happen on a single
+ * background writer thread.
+ *
+ * Every FULL_EVERY-th checkpoint is a full one; the rest are deltas that
+ * only hold the cells and entities that changed since the one before.
+ *
+ * With a SimulationJournal attached, everything that happens between
+ * checkpoints is recorded as well; see JournalReplay.
+ */
+public final class Checkpointer implements AutoCloseable {
+    private static final int FULL_EVERY = 10;
+
+    private final File directory;
+    private final double interval;
+    private final ExecutorService writer;
+    private final Map<Entity, Integer> handles;
+    private final int[] nextHandle;
+    private final BackgroundChanges backgroundChanges;
+    private SimulationJournal journal;
+    private long sequence;
+    private double nextTime;
+    // only touched on the simulation thread; its unchanged rows are shared
+    private WorldSnapshot lastCaptured;
+
+    // only touched on the writer thread
+    private WorldSnapshot previous;
+
+    public Checkpointer(File directory, double interval) {
+        this.directory = directory;
+        this.interval = interval;
+        this.writer = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "checkpoint-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.handles = new IdentityHashMap<>();
+        this.nextHandle = new int[]{0};
+        this.backgroundChanges = new BackgroundChanges();
+    }
+
+    /**
+     * Starts journaling every event and world change, beginning at the next
+     * checkpoint. The journal is written alongside the checkpoints.
+     */
+    public void startJournal(WorldModel world, EventScheduler scheduler) {
+        this.journal = new SimulationJournal(directory, writer, scheduler, handles, nextHandle);
+        world.setJournal(journal);
+        scheduler.setJournal(journal);
+    }
+
+    /**
+     * @return simulation time left until the next checkpoint is due
+     */
+    public double timeUntilNext(EventScheduler scheduler) {
+        return Math.max(0, nextTime - scheduler.getCurrentTime());
+    }
+
+    /**
+     * Takes a checkpoint if one is due. Call between scheduler updates.
+     */
+    public void maybeCheckpoint(WorldModel world, EventScheduler scheduler) {
+        if (scheduler.getCurrentTime() >= nextTime) {
+            checkpoint(world, scheduler);
+            nextTime = scheduler.getCurrentTime() + interval;
+        }
+    }
+
+    /**
+     * Captures the world now and queues it to be written.
+     */
+    public void checkpoint(WorldModel world, EventScheduler scheduler) {
+        if (lastCaptured == null) {
+            world.setBackgroundChanges(backgroundChanges);
+        }
+        WorldSnapshot snapshot = WorldSnapshot.capture(sequence++, world, scheduler, handles, nextHandle,
+                lastCaptured, backgroundChanges);
+        lastCaptured = snapshot;
+        writer.execute(() -> write(snapshot));
+        if (journal != null) {
+            journal.startSegment(snapshot.getSequence());
+        }
+    }
+
+    private void write(WorldSnapshot snapshot) {
+        boolean full = previous == null
+                || snapshot.getSequence() % FULL_EVERY == 0
+                || previous.getNumRows() != snapshot.getNumRows()
+                || previous.getNumCols() != snapshot.getNumCols();
+        try {
+            CheckpointFormat.write(directory, snapshot, full ? null : previous);
+            previous = snapshot;
+        } catch (IOException e) {
+            // the next checkpoint will be a full one
+            previous = null;
+            System.err.println(e.getMessage());
+        }
+    }
+
+    /**
+     * Replaces the contents of a world and scheduler with a snapshot read
+     * back from disk, including every pending event with its remaining time
+     * and repeat count, so the simulation carries on exactly where it was
+     * checkpointed. Do not call scheduleActions afterwards.
+     */
+    public static void restore(WorldSnapshot snapshot, WorldModel world, EventScheduler scheduler, ImageStore imageStore) {
+        Map<Integer, Entity> entities = restoreWorld(snapshot, world, imageStore);
+
+        List<Event> queued = new ArrayList<>();
+        Map<Entity, List<WorldSnapshot.EventState>> pendingStates = new IdentityHashMap<>();
+        Map<WorldSnapshot.EventState, Event> restored = new IdentityHashMap<>();
+        for (WorldSnapshot.EventState state : snapshot.getEvents()) {
+            Entity entity = entities.get(state.handle);
+            Action action = state.kind == ActionKind.ACTIVITY
+                    ? Factory.createActivityAction(entity, world, imageStore)
+                    : Factory.createAnimationAction(entity, state.repeatCount);
+            Event event = new Event(action, state.time, entity);
+            queued.add(event);
+            restored.put(state, event);
+            pendingStates.computeIfAbsent(entity, e -> new ArrayList<>()).add(state);
+        }
+
+        Map<Entity, List<Event>> pending = new IdentityHashMap<>();
+        for (Map.Entry<Entity, List<WorldSnapshot.EventState>> entry : pendingStates.entrySet()) {
+            List<WorldSnapshot.EventState> states = entry.getValue();
+            states.sort(Comparator.comparingInt(state -> state.pendingIndex));
+            List<Event> events = new ArrayList<>();
+            for (WorldSnapshot.EventState state : states) {
+                events.add(restored.get(state));
+            }
+            pending.put(entry.getKey(), events);
+        }
+
+        if (!scheduler.restore(snapshot.getTime(), queued, pending)) {
+            System.err.println("Restored event queue differs from the checkpoint; events due at nearly the same time may run in a different order");
+        }
+    }
+
+    /**
+     * Replaces the contents of a world with a snapshot, leaving out the
+     * events.
+     * @return the restored entities by their snapshot handle, including
+     * those that were no longer in the world
+     */
+    static Map<Integer, Entity> restoreWorld(WorldSnapshot snapshot, WorldModel world, ImageStore imageStore) {
+        int numRows = snapshot.getNumRows();
+        int numCols = snapshot.getNumCols();
+        world.setNumRows(numRows);
+        world.setNumCols(numCols);
+        Background[][] background = new Background[numRows][numCols];
+        for (int row = 0; row < numRows; row++) {
+            for (int col = 0; col < numCols; col++) {
+                background[row][col] = snapshot.getCell(row, col);
+            }
+        }
+        world.setBackground(background);
+        world.setOccupancy(new Entity[numRows][numCols]);
+        world.setEntities(new HashSet<>());
+
+        Map<Integer, Entity> entities = new HashMap<>();
+        for (WorldSnapshot.EntityState state : snapshot.getEntities()) {
+            Entity entity = new Entity(state.kind, state.name, new Point(state.x, state.y),
+                    imageStore.getImageList(WorldLoader.imageKey(state.kind)),
+                    state.resourceLimit, state.resourceCount, state.actionPeriod, state.animationPeriod,
+                    state.health, state.healthLimit);
+            entity.setImageIndex(state.imageIndex);
+            entities.put(state.handle, entity);
+            if (state.inWorld) {
+                world.restoreEntity(entity, state.occupying);
+            }
+        }
+        for (WorldSnapshot.ClaimState claim : snapshot.getClaims()) {
+            world.getClaims().claim(entities.get(claim.target), entities.get(claim.claimant), claim.until);
+        }
+        WorldRandom random = snapshot.getRandom();
+        if (random != null) {
+            world.setRandom(random);
+        }
+        for (WorldSnapshot.TrackState target : snapshot.getTargets()) {
+            world.getTracker().track(entities.get(target.seeker), target.kinds, entities.get(target.target));
+        }
+        return entities;
+    }
+
+    /**
+     * Waits for all queued checkpoints to be written.
+     */
+    public void close() {
+        if (journal != null) {
+            journal.flush();
+        }
+        writer.shutdown();
+        try {
+            writer.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,286 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A world kept on disk as square chunks of cells, one file per chunk, so
+ * that WorldStreamer can page chunks in and out instead of holding the
+ * whole grid in memory. All values are big-endian.
+ *
+ *   world.meta:  magic:int  version:int  rows:int  cols:int  chunkSize:int
+ *   chunk_<chunkRow>_<chunkCol>.bin:
+ *       magic:int  version:int
+ *       background dictionary: count:int, ids (length:int, UTF-8 bytes); index 0 means no background
+ *       dictionary index:int for every cell of the chunk, row-major, chunkSize x chunkSize
+ *       entities: count:int, then kind:byte id:string x:int y:int imageIndex:int
+ *           resourceLimit:int resourceCount:int actionPeriod:double animationPeriod:double
+ *           health:int healthLimit:int
+ *
+ * A chunk with no file is empty. Cells of an edge chunk that fall outside
+ * the world are stored but never read.
+ */
+public final class ChunkStore {
+    public static final int DEFAULT_CHUNK_SIZE = 64;
+
+    private static final String META_FILE = "world.meta";
+    private static final int META_MAGIC = 0x5657434d; // "VWCM"
+    private static final int CHUNK_MAGIC = 0x5657434b; // "VWCK"
+    private static final int VERSION = 1;
+    private static final int NO_BACKGROUND = 0;
+
+    private final File directory;
+    private final int numRows;
+    private final int numCols;
+    private final int chunkSize;
+
+    private ChunkStore(File directory, int numRows, int numCols, int chunkSize) {
+        this.directory = directory;
+        this.numRows = numRows;
+        this.numCols = numCols;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * @return true if the directory holds a chunk store
+     */
+    public static boolean exists(File directory) {
+        return new File(directory, META_FILE).isFile();
+    }
+
+    public static ChunkStore open(File directory) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(new File(directory, META_FILE))))) {
+            if (in.readInt() != META_MAGIC) {
+                throw new IllegalArgumentException("Not a chunk store: " + directory);
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IllegalArgumentException(String.format("Unsupported chunk store version %d", version));
+            }
+            return new ChunkStore(directory, in.readInt(), in.readInt(), in.readInt());
+        }
+    }
+
+    /**
+     * Writes an in-memory world out as a new chunk store, replacing any
+     * chunks already in the directory.
+     */
+    public static ChunkStore create(File directory, WorldModel world, int chunkSize) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        ChunkStore store = new ChunkStore(directory, world.getNumRows(), world.getNumCols(), chunkSize);
+
+        Map<Integer, List<Entity>> entities = new HashMap<>();
+        for (Entity entity : world.getEntities()) {
+            entities.computeIfAbsent(store.chunkIndex(entity.getPosition()), index -> new ArrayList<>()).add(entity);
+        }
+        Background[] cells = new Background[chunkSize * chunkSize];
+        for (int chunkRow = 0; chunkRow < store.getChunkRows(); chunkRow++) {
+            for (int chunkCol = 0; chunkCol < store.getChunkCols(); chunkCol++) {
+                for (int i = 0; i < cells.length; i++) {
+                    int row = chunkRow * chunkSize + i / chunkSize;
+                    int col = chunkCol * chunkSize + i % chunkSize;
+                    cells[i] = row < store.numRows && col < store.numCols ? world.getBackgroundCell(new Point(col, row)) : null;
+                }
+                List<Entity> inChunk = entities.getOrDefault(chunkRow * store.getChunkCols() + chunkCol, List.of());
+                store.write(chunkRow, chunkCol, store.encode(cells, inChunk));
+            }
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(new File(directory, META_FILE))))) {
+            out.writeInt(META_MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(store.numRows);
+            out.writeInt(store.numCols);
+            out.writeInt(chunkSize);
+        }
+        return store;
+    }
+
+    /**
+     * Serializes a chunk. Cheap enough to do on the simulation thread, so
+     * the bytes can be handed to another thread to write.
+     * @param cells - chunkSize x chunkSize cells, row-major
+     * @param entities - the entities whose position is in the chunk
+     */
+    public byte[] encode(Background[] cells, Collection<Entity> entities) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            Map<String, Integer> dictionary = new HashMap<>();
+            List<String> ids = new ArrayList<>();
+            ids.add("");
+            int[] indices = new int[cells.length];
+            for (int i = 0; i < cells.length; i++) {
+                Background cell = cells[i];
+                indices[i] = cell == null ? NO_BACKGROUND : dictionary.computeIfAbsent(cell.id, id -> {
+                    ids.add(id);
+                    return ids.size() - 1;
+                });
+            }
+
+            out.writeInt(CHUNK_MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(ids.size());
+            for (String id : ids) {
+                writeString(out, id);
+            }
+            for (int index : indices) {
+                out.writeInt(index);
+            }
+
+            out.writeInt(entities.size());
+            for (Entity entity : entities) {
+                out.writeByte(entity.getKind().ordinal());
+                writeString(out, entity.getId());
+                out.writeInt(entity.getX());
+                out.writeInt(entity.getY());
+                out.writeInt(entity.getImageIndex());
+                out.writeInt(entity.getResourceLimit());
+                out.writeInt(entity.getResourceCount());
+                out.writeDouble(entity.getActionPeriod());
+                out.writeDouble(entity.isAnimated() ? entity.getAnimationPeriod() : 0);
+                out.writeInt(entity.getHealth());
+                out.writeInt(entity.getHealthLimit());
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Turns a chunk read by read back into cells and entities. The entities
+     * are new objects that have not been added to any world.
+     */
+    public Chunk decode(byte[] bytes, ImageStore imageStore) {
+        Chunk chunk = new Chunk(new Background[chunkSize * chunkSize]);
+        if (bytes == null) {
+            return chunk;
+        }
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            if (in.readInt() != CHUNK_MAGIC) {
+                throw new IllegalArgumentException("Not a chunk file");
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IllegalArgumentException(String.format("Unsupported chunk version %d", version));
+            }
+            Background[] dictionary = new Background[in.readInt()];
+            for (int i = 0; i < dictionary.length; i++) {
+                String id = readString(in);
+                dictionary[i] = i == NO_BACKGROUND ? null : imageStore.getBackground(id);
+            }
+            for (int i = 0; i < chunk.cells.length; i++) {
+                chunk.cells[i] = dictionary[in.readInt()];
+            }
+
+            int count = in.readInt();
+            EntityKind[] kinds = EntityKind.values();
+            for (int i = 0; i < count; i++) {
+                EntityKind kind = kinds[in.readByte()];
+                String id = readString(in);
+                Point position = new Point(in.readInt(), in.readInt());
+                int imageIndex = in.readInt();
+                int resourceLimit = in.readInt();
+                int resourceCount = in.readInt();
+                double actionPeriod = in.readDouble();
+                double animationPeriod = in.readDouble();
+                int health = in.readInt();
+                int healthLimit = in.readInt();
+                Entity entity = new Entity(kind, id, position, imageStore.getImageList(WorldLoader.imageKey(kind)),
+                        resourceLimit, resourceCount, actionPeriod, animationPeriod, health, healthLimit);
+                entity.setImageIndex(imageIndex);
+                chunk.entities.add(entity);
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Truncated chunk file", e);
+        }
+        return chunk;
+    }
+
+    /**
+     * @return the chunk's bytes, or null if it has never been written
+     */
+    public byte[] read(int chunkRow, int chunkCol) throws IOException {
+        File file = chunkFile(chunkRow, chunkCol);
+        return file.isFile() ? Files.readAllBytes(file.toPath()) : null;
+    }
+
+    /**
+     * Replaces a chunk's file. Written to a temporary file first so a
+     * crash part way through never leaves a half-written chunk.
+     */
+    public void write(int chunkRow, int chunkCol, byte[] bytes) throws IOException {
+        File file = chunkFile(chunkRow, chunkCol);
+        File temp = new File(directory, file.getName() + ".tmp");
+        Files.write(temp.toPath(), bytes);
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private File chunkFile(int chunkRow, int chunkCol) {
+        return new File(directory, String.format("chunk_%d_%d.bin", chunkRow, chunkCol));
+    }
+
+    private int chunkIndex(Point pos) {
+        return (pos.y / chunkSize) * getChunkCols() + pos.x / chunkSize;
+    }
+
+    public int getNumRows() {
+        return numRows;
+    }
+
+    public int getNumCols() {
+        return numCols;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public int getChunkRows() {
+        return (numRows + chunkSize - 1) / chunkSize;
+    }
+
+    public int getChunkCols() {
+        return (numCols + chunkSize - 1) / chunkSize;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * One decoded chunk: its cells, row-major, and the entities saved in it.
+     */
+    public static final class Chunk {
+        final Background[] cells;
+        final List<Entity> entities = new ArrayList<>();
+
+        private Chunk(Background[] cells) {
+            this.cells = cells;
+        }
+    }
+}
@@ -1,4 +1,5 @@
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.BiPredicate;
 import java.util.function.Predicate;
 
@@ -9,34 +10,100 @@ import processing.core.PImage;
  * different kinds of entities that exist.
  */
 public final class Entity {
-    private final EntityKind kind;
-    private final String id;
-    private Point position;
-    private final List<PImage> images;
-    private int imageIndex;
-    private final int resourceLimit;
-    private int resourceCount;
-    private final double actionPeriod;
-    private final double animationPeriod;
-    private int health;
-    private final int healthLimit;
+    // a claim on a target lasts this many of the seeker's periods past its last look
+    private static final int CLAIM_PERIODS = 3;
+    private static final AtomicLong NEXT_ID = new AtomicLong(1);
+
+    // given at construction and kept through every transition; see equals
+    private final long numericId;
+    // these change only when the entity transitions to another kind
+    private EntityKind kind;
+    private EntityName name;
+    private List<PImage> images;
+    // the rest of the state lives in a row of a table; see EntityStore
+    private EntityStore.Table table;
+    private int row;
 
     public Entity(EntityKind kind, String id, Point position, List<PImage> images, int resourceLimit, int resourceCount, double actionPeriod, double animationPeriod, int health, int healthLimit) {
+        this(kind, EntityName.of(id), position, images, resourceLimit, resourceCount, actionPeriod, animationPeriod, health, healthLimit);
+    }
+
+    Entity(EntityKind kind, EntityName name, Point position, List<PImage> images, int resourceLimit, int resourceCount, double actionPeriod, double animationPeriod, int health, int healthLimit) {
+        this(kind, name, PackedPoint.of(position), images, resourceLimit, resourceCount, actionPeriod, animationPeriod, health, healthLimit);
+    }
+
+    /**
+     * The constructor for a cell given as a PackedPoint, so code that makes
+     * entities for many cells need not make a Point for each.
+     */
+    Entity(EntityKind kind, EntityName name, long cell, List<PImage> images, int resourceLimit, int resourceCount, double actionPeriod, double animationPeriod, int health, int healthLimit) {
+        this.numericId = NEXT_ID.getAndIncrement();
+        this.kind = kind;
+        this.name = name;
+        this.images = images;
+        this.table = EntityStore.detached(kind);
+        this.row = table.add(this);
+        setCell(cell);
+        setColumns(resourceLimit, resourceCount, actionPeriod, animationPeriod, health, healthLimit);
+    }
+
+    private void setColumns(int resourceLimit, int resourceCount, double actionPeriod, double animationPeriod, int health, int healthLimit) {
+        if (table.resourceLimit != null) {
+            table.resourceLimit[row] = resourceLimit;
+            table.resourceCount[row] = resourceCount;
+        }
+        if (table.actionPeriod != null) {
+            table.actionPeriod[row] = actionPeriod;
+        }
+        if (table.animationPeriod != null) {
+            table.animationPeriod[row] = animationPeriod;
+        }
+        if (table.health != null) {
+            table.health[row] = health;
+            table.healthLimit[row] = healthLimit;
+        }
+    }
+
+    /**
+     * Turns this entity into another kind where it stands, rather than
+     * replacing it with a new entity. It keeps its cell, and its pending
+     * animation if the new kind animates at the same period. Its activity
+     * starts over as the new kind's. The other arguments are those of the
+     * constructor.
+     */
+    public void transition(WorldModel world, EventScheduler scheduler, ImageStore imageStore, EntityKind kind, EntityName name, List<PImage> images,
+                           int resourceLimit, int resourceCount, double actionPeriod, double animationPeriod, int health, int healthLimit) {
+        boolean keepAnimation = isAnimated() && isAnimated(kind) && getAnimationPeriod() == animationPeriod;
+        scheduler.unscheduleEvents(this, ActionKind.ACTIVITY);
+        if (!keepAnimation) {
+            scheduler.unscheduleEvents(this, ActionKind.ANIMATION);
+        }
+
+        world.transition(this, kind, name, images, resourceLimit, resourceCount, actionPeriod, animationPeriod, health, healthLimit);
+
+        if (hasActivity(kind)) {
+            scheduler.scheduleEvent(this, Factory.createActivityAction(this, world, imageStore), getActionPeriod());
+        }
+        if (isAnimated() && !keepAnimation) {
+            scheduler.scheduleEvent(this, Factory.createAnimationAction(this, 0), getAnimationPeriod());
+        }
+    }
+
+    /**
+     * Sets the kind and state of an entity in place, starting again from
+     * its first image. Used by WorldModel.transition once the entity's row
+     * has been moved to its new kind's table.
+     */
+    void become(EntityKind kind, EntityName name, List<PImage> images, int resourceLimit, int resourceCount, double actionPeriod, double animationPeriod, int health, int healthLimit) {
         this.kind = kind;
-        this.id = id;
-        this.position = position;
+        this.name = name;
         this.images = images;
-        this.imageIndex = 0;
-        this.resourceLimit = resourceLimit;
-        this.resourceCount = resourceCount;
-        this.actionPeriod = actionPeriod;
-        this.animationPeriod = animationPeriod;
-        this.health = health;
-        this.healthLimit = healthLimit;
+        setImageIndex(0);
+        setColumns(resourceLimit, resourceCount, actionPeriod, animationPeriod, health, healthLimit);
     }
 
     public void nextImage() {
-        imageIndex = imageIndex + 1;
+        setImageIndex(getImageIndex() + 1);
     }
 
     /**
@@ -46,9 +113,9 @@ public final class Entity {
      * @param scheduler
      */
     public void executeSaplingActivity(WorldModel world, ImageStore imageStore, EventScheduler scheduler) {
-        health++;
+        setHealth(getHealth() + 1);
         if (!transformPlant(world, scheduler, imageStore)) {
-            scheduler.scheduleEvent(this, Factory.createActivityAction(this, world, imageStore), actionPeriod);
+            scheduler.scheduleEvent(this, Factory.createActivityAction(this, world, imageStore), getActionPeriod());
         }
     }
 
@@ -58,12 +125,13 @@ public final class Entity {
 
         if (!transformPlant(world, scheduler, imageStore)) {
 
-            scheduler.scheduleEvent(this, Factory.createActivityAction(this, world, imageStore), actionPeriod);
+            scheduler.scheduleEvent(this, Factory.createActivityAction(this, world, imageStore), getActionPeriod());
         }
     }
 
     public void executePinkActivity(WorldModel world, ImageStore imageStore, EventScheduler scheduler) {
-            scheduler.scheduleEvent(this, Factory.createActivityAction(this, world, imageStore), actionPeriod);
+        // a pink has nothing to look for
+        scheduler.waitFor(this, Factory.createActivityAction(this, world, imageStore), getActionPeriod(), List.of());
     }
 
 
@@ -72,38 +140,45 @@ public final class Entity {
         if (transformFairy(world, scheduler, imageStore)) {
             return;
         }
-        Optional<Entity> fairyTarget = world.findNearest(position, new ArrayList<>(List.of(EntityKind.STUMP)));
+        Optional<Entity> fairyTarget = world.trackNearest(this, new ArrayList<>(List.of(EntityKind.STUMP)));
 
-        if (fairyTarget.isPresent()) {
-            Point tgtPos = fairyTarget.get().position;
+        if (fairyTarget.isEmpty()) {
+            scheduler.waitFor(this, Factory.createActivityAction(this, world, imageStore), getActionPeriod(), List.of(EntityKind.STUMP));
+            return;
+        }
 
-            if (moveToFairy(world, fairyTarget.get(), scheduler)) {
+        Point tgtPos = fairyTarget.get().getPosition();
 
-                Entity sapling = Factory.createSapling(WorldLoader.SAPLING_KEY + "_" + fairyTarget.get().id, tgtPos, imageStore.getImageList(WorldLoader.SAPLING_KEY));
+        if (moveToFairy(world, fairyTarget.get(), scheduler)) {
 
-                world.tryAddEntity(sapling);
-                sapling.scheduleActions(scheduler, world, imageStore);
-            }
+            Entity sapling = Factory.createSapling(EntityName.derived(WorldLoader.SAPLING_KEY, fairyTarget.get().name), tgtPos, imageStore.getImageList(WorldLoader.SAPLING_KEY));
+
+            world.tryAddEntity(sapling);
+            sapling.scheduleActions(scheduler, world, imageStore);
         }
 
-        scheduler.scheduleEvent(this, Factory.createActivityAction(this, world, imageStore), actionPeriod);
+        scheduler.scheduleEvent(this, Factory.createActivityAction(this, world, imageStore), getActionPeriod());
     }
 
     public void executePersonSearchingActivity(WorldModel world, ImageStore imageStore, EventScheduler scheduler) {
-        Optional<Entity> target = world.findNearest(position, new ArrayList<>(Arrays.asList(EntityKind.TREE, EntityKind.SAPLING)));
+        Optional<Entity> target = world.trackNearest(this, new ArrayList<>(Arrays.asList(EntityKind.TREE, EntityKind.SAPLING)));
 
-        if (target.isEmpty() || !moveToSearching(world, target.get(), scheduler) || !transformSearching(world, scheduler, imageStore)) {
-            scheduler.scheduleEvent(this, Factory.createActivityAction(this, world, imageStore), actionPeriod);
+        if (target.isEmpty()) {
+            scheduler.waitFor(this, Factory.createActivityAction(this, world, imageStore), getActionPeriod(), List.of(EntityKind.TREE, EntityKind.SAPLING));
+        } else if (!moveToSearching(world, target.get(), scheduler) || !transformSearching(world, scheduler, imageStore)) {
+            scheduler.scheduleEvent(this, Factory.createActivityAction(this, world, imageStore), getActionPeriod());
         }
     }
 
     public void executePersonFullActivity(WorldModel world, ImageStore imageStore, EventScheduler scheduler) {
-        Optional<Entity> fullTarget = world.findNearest(position, new ArrayList<>(List.of(EntityKind.HOUSE)));
+        Optional<Entity> fullTarget = world.trackNearest(this, new ArrayList<>(List.of(EntityKind.HOUSE)));
 
-        if (fullTarget.isPresent() && moveToFull(world, fullTarget.get(), scheduler)) {
+        if (fullTarget.isEmpty()) {
+            scheduler.waitFor(this, Factory.createActivityAction(this, world, imageStore), getActionPeriod(), List.of(EntityKind.HOUSE));
+        } else if (moveToFull(world, fullTarget.get(), scheduler)) {
             transformFull(world, scheduler, imageStore);
         } else {
-            scheduler.scheduleEvent(this, Factory.createActivityAction(this, world, imageStore), actionPeriod);
+            scheduler.scheduleEvent(this, Factory.createActivityAction(this, world, imageStore), getActionPeriod());
         }
     }
 
@@ -113,12 +188,12 @@ public final class Entity {
     public void scheduleActions(EventScheduler scheduler, WorldModel world, ImageStore imageStore) {
         switch (kind) {
             case PERSON_FULL:
-                scheduler.scheduleEvent(this, Factory.createActivityAction(this, world, imageStore), actionPeriod);
+                scheduler.scheduleEvent(this, Factory.createActivityAction(this, world, imageStore), getActionPeriod());
                 scheduler.scheduleEvent(this, Factory.createAnimationAction(this, 0), getAnimationPeriod());
                 break;
 
             case PERSON_SEARCHING:
-                scheduler.scheduleEvent(this, Factory.createActivityAction(this, world, imageStore), actionPeriod);
+                scheduler.scheduleEvent(this, Factory.createActivityAction(this, world, imageStore), getActionPeriod());
                 scheduler.scheduleEvent(this, Factory.createAnimationAction(this, 0), getAnimationPeriod());
                 break;
 
@@ -127,37 +202,37 @@ public final class Entity {
                 break;
 
             case FAIRY:
-                scheduler.scheduleEvent(this, Factory.createActivityAction(this, world, imageStore), actionPeriod);
+                scheduler.scheduleEvent(this, Factory.createActivityAction(this, world, imageStore), getActionPeriod());
                 scheduler.scheduleEvent(this, Factory.createAnimationAction(this, 0), getAnimationPeriod());
                 break;
 
             case SAPLING:
-                scheduler.scheduleEvent(this, Factory.createActivityAction(this, world, imageStore), actionPeriod);
+                scheduler.scheduleEvent(this, Factory.createActivityAction(this, world, imageStore), getActionPeriod());
                 scheduler.scheduleEvent(this, Factory.createAnimationAction(this, 0), getAnimationPeriod());
                 break;
 
             case TREE:
-                scheduler.scheduleEvent(this, Factory.createActivityAction(this, world, imageStore), actionPeriod);
+                scheduler.scheduleEvent(this, Factory.createActivityAction(this, world, imageStore), getActionPeriod());
                 scheduler.scheduleEvent(this, Factory.createAnimationAction(this, 0), getAnimationPeriod());
                 break;
 
             case CAT:
-                scheduler.scheduleEvent(this, Factory.createActivityAction(this, world, imageStore), actionPeriod);
+                scheduler.scheduleEvent(this, Factory.createActivityAction(this, world, imageStore), getActionPeriod());
                 scheduler.scheduleEvent(this, Factory.createAnimationAction(this, 0), getAnimationPeriod());
                 break;
 
             case ORANGE:
-                scheduler.scheduleEvent(this, Factory.createActivityAction(this, world, imageStore), actionPeriod);
+                scheduler.scheduleEvent(this, Factory.createActivityAction(this, world, imageStore), getActionPeriod());
                 scheduler.scheduleEvent(this, Factory.createAnimationAction(this, 0), getAnimationPeriod());
                 break;
 
             case PINK:
-                scheduler.scheduleEvent(this, Factory.createActivityAction(this, world, imageStore), actionPeriod);
+                scheduler.scheduleEvent(this, Factory.createActivityAction(this, world, imageStore), getActionPeriod());
                 scheduler.scheduleEvent(this, Factory.createAnimationAction(this, 0), getAnimationPeriod());
                 break;
 
             case DOG:
-                scheduler.scheduleEvent(this, Factory.createActivityAction(this, world, imageStore), actionPeriod);
+                scheduler.scheduleEvent(this, Factory.createActivityAction(this, world, imageStore), getActionPeriod());
                 scheduler.scheduleEvent(this, Factory.createAnimationAction(this, 0), getAnimationPeriod());
                 break;
             default:
@@ -165,14 +240,8 @@ public final class Entity {
     }
 
     private boolean transformSearching(WorldModel world, EventScheduler scheduler, ImageStore imageStore) {
-        if (resourceCount >= resourceLimit) {
-            Entity dude = Factory.createPersonFull(id, position, actionPeriod, animationPeriod, resourceLimit, images);
-
-            world.removeEntity(scheduler, this);
-            scheduler.unscheduleAllEvents(this);
-
-            world.tryAddEntity(dude);
-            dude.scheduleActions(scheduler, world, imageStore);
+        if (getResourceCount() >= getResourceLimit()) {
+            Factory.transitionToPersonFull(this, name, getActionPeriod(), getAnimationPeriod(), getResourceLimit(), images, world, scheduler, imageStore);
 
             return true;
         }
@@ -183,12 +252,7 @@ public final class Entity {
 
 
     private void transformFull(WorldModel world, EventScheduler scheduler, ImageStore imageStore) {
-        Entity dude = Factory.createPersonSearching(id, position, actionPeriod, animationPeriod, resourceLimit, images);
-
-        world.removeEntity(scheduler, this);
-
-        world.tryAddEntity(dude);
-        dude.scheduleActions(scheduler, world, imageStore);
+        Factory.transitionToPersonSearching(this, name, getActionPeriod(), getAnimationPeriod(), getResourceLimit(), images, world, scheduler, imageStore);
     }
 
     public boolean transformPlant(WorldModel world, EventScheduler scheduler, ImageStore imageStore) {
@@ -202,12 +266,8 @@ public final class Entity {
     }
 
     private boolean transformTree(WorldModel world, EventScheduler scheduler, ImageStore imageStore) {
-        if (health <= 0) {
-            Entity stump = Factory.createStump(WorldLoader.STUMP_KEY + "_" + id, position, imageStore.getImageList(WorldLoader.STUMP_KEY));
-
-            world.removeEntity(scheduler, this);
-
-            world.tryAddEntity(stump);
+        if (getHealth() <= 0) {
+            Factory.transitionToStump(this, EntityName.derived(WorldLoader.STUMP_KEY, name), imageStore.getImageList(WorldLoader.STUMP_KEY), world, scheduler, imageStore);
 
             return true;
         }
@@ -221,13 +281,8 @@ public final class Entity {
         Predicate<Point> canPassThrough = p -> world.withinBounds(p)
                 || (world.getOccupant(p).isPresent() && world.getOccupant(p).get().getKind() != EntityKind.TREE);
 
-        if (world.getBackgroundCell(position).id.equals("garden") && canPassThrough.test(position)) {
-            Entity dog = Factory.createDog("dog" + "_" + id, position, actionPeriod, animationPeriod, imageStore.getImageList("dog"));
-
-            world.removeEntity(scheduler, this);
-
-            world.addEntity(dog);
-            dog.scheduleActions(scheduler, world, imageStore);
+        if (world.getBackgroundCell(getPosition()).id.equals("garden") && canPassThrough.test(getPosition())) {
+            Factory.transitionToDog(this, EntityName.derived("dog", name), getActionPeriod(), getAnimationPeriod(), imageStore.getImageList("dog"), world, scheduler, imageStore);
             return true;
         }
         return false;
@@ -235,12 +290,12 @@ public final class Entity {
 
     //dog methods
     public boolean moveToDog(WorldModel world, Entity target, EventScheduler scheduler) {
-        if (position.adjacent(target.position)) {
+        if (PackedPoint.adjacent(getCell(), target.getCell())) {
             return true;
         } else {
-            Point nextPos = nextPositionDog(world, target.position);
+            Point nextPos = nextPositionDog(world, target.getPosition());
 
-            if (!position.equals(nextPos)) {
+            if (getCell() != PackedPoint.of(nextPos)) {
                 world.moveEntity(scheduler, this, nextPos);
             }
             return false;
@@ -257,54 +312,49 @@ public final class Entity {
 
         BiPredicate<Point, Point> withinReach = Point::adjacent;
 
+        Point start = getPosition();
         List<Point> path = strat.computePath(
-                getPosition(),
+                start,
                 destPos,
                 canPassThrough,
                 withinReach,
                 PathingStrategy.CARDINAL_NEIGHBORS);
         if (path.isEmpty()) {
-            return getPosition();
+            return start;
         }
         return path.get(0);
     }
 
     // dog turns house into treat
     public void executeDogActivity(WorldModel world, ImageStore imageStore, EventScheduler scheduler) {
-        Optional<Entity> dogTarget = world.findNearest(position, new ArrayList<>(List.of(EntityKind.HOUSE)));
+        Optional<Entity> dogTarget = world.trackNearest(this, new ArrayList<>(List.of(EntityKind.HOUSE)));
 
-        if (dogTarget.isPresent()) {
-            Point tgtPos = dogTarget.get().position;
+        if (dogTarget.isEmpty()) {
+            scheduler.waitFor(this, Factory.createActivityAction(this, world, imageStore), getActionPeriod(), List.of(EntityKind.HOUSE));
+            return;
+        }
 
-            if (moveToDog(world, dogTarget.get(), scheduler)) {
+        Point tgtPos = dogTarget.get().getPosition();
 
-                Entity treat = Factory.createTreat("treat" + "_" + dogTarget.get().id, tgtPos, imageStore.getImageList("treat"));
+        if (moveToDog(world, dogTarget.get(), scheduler)) {
 
-                world.addEntity(treat);
+            Entity treat = Factory.createTreat(EntityName.derived("treat", dogTarget.get().name), tgtPos, imageStore.getImageList("treat"));
+
+            world.addEntity(treat);
 //                house.scheduleActions(scheduler, world, imageStore);
-            }
         }
 
-        scheduler.scheduleEvent(this, Factory.createActivityAction(this, world, imageStore), actionPeriod);
+        scheduler.scheduleEvent(this, Factory.createActivityAction(this, world, imageStore), getActionPeriod());
     }
 
 
     private boolean transformSapling(WorldModel world, EventScheduler scheduler, ImageStore imageStore) {
-        if (health <= 0) {
-            Entity stump = Factory.createStump(WorldLoader.STUMP_KEY + "_" + id, position, imageStore.getImageList(WorldLoader.STUMP_KEY));
-
-            world.removeEntity(scheduler, this);
-
-            world.tryAddEntity(stump);
+        if (getHealth() <= 0) {
+            Factory.transitionToStump(this, EntityName.derived(WorldLoader.STUMP_KEY, name), imageStore.getImageList(WorldLoader.STUMP_KEY), world, scheduler, imageStore);
 
             return true;
-        } else if (health >= healthLimit) {
-            Entity tree = Factory.createTreeWithDefaults(WorldLoader.TREE_KEY + "_" + id, position, imageStore.getImageList(WorldLoader.TREE_KEY));
-
-            world.removeEntity(scheduler, this);
-
-            world.tryAddEntity(tree);
-            tree.scheduleActions(scheduler, world, imageStore);
+        } else if (getHealth() >= getHealthLimit()) {
+            Factory.transitionToTreeWithDefaults(this, EntityName.derived(WorldLoader.TREE_KEY, name), imageStore.getImageList(WorldLoader.TREE_KEY), world, scheduler, imageStore);
 
             return true;
         }
@@ -313,13 +363,13 @@ public final class Entity {
     }
 
     public boolean moveToFairy(WorldModel world, Entity target, EventScheduler scheduler) {
-        if (position.adjacent(target.position)) {
+        if (PackedPoint.adjacent(getCell(), target.getCell())) {
             world.removeEntity(scheduler, target);
             return true;
         } else {
-            Point nextPos = nextPositionFairy(world, target.position);
+            Point nextPos = nextPositionFairy(world, target.getPosition());
 
-            if (!position.equals(nextPos)) {
+            if (getCell() != PackedPoint.of(nextPos)) {
                 world.moveEntity(scheduler, this, nextPos);
             }
             return false;
@@ -327,14 +377,15 @@ public final class Entity {
     }
 
     public boolean moveToSearching(WorldModel world, Entity target, EventScheduler scheduler) {
-        if (position.adjacent(target.position)) {
-            resourceCount += 1;
-            target.health--;
+        if (PackedPoint.adjacent(getCell(), target.getCell())) {
+            setResourceCount(getResourceCount() + 1);
+            target.setHealth(target.getHealth() - 1);
+            world.entityChanged(target);
             return true;
         } else {
-            Point nextPos = nextPositionDude(world, target.position);
+            Point nextPos = nextPositionDude(world, target.getPosition());
 
-            if (!position.equals(nextPos)) {
+            if (getCell() != PackedPoint.of(nextPos)) {
                 world.moveEntity(scheduler, this, nextPos);
             }
             return false;
@@ -342,12 +393,12 @@ public final class Entity {
     }
 
     public boolean moveToFull(WorldModel world, Entity target, EventScheduler scheduler) {
-        if (position.adjacent(target.position)) {
+        if (PackedPoint.adjacent(getCell(), target.getCell())) {
             return true;
         } else {
-            Point nextPos = nextPositionDude(world, target.position);
+            Point nextPos = nextPositionDude(world, target.getPosition());
 
-            if (!position.equals(nextPos)) {
+            if (getCell() != PackedPoint.of(nextPos)) {
                 world.moveEntity(scheduler, this, nextPos);
             }
             return false;
@@ -362,14 +413,15 @@ public final class Entity {
 
         BiPredicate<Point, Point> withinReach = Point::adjacent;
 
+        Point start = getPosition();
         List<Point> path = strat.computePath(
-                getPosition(),
+                start,
                 destPos,
                 canPassThrough,
                 withinReach,
                 PathingStrategy.CARDINAL_NEIGHBORS);
         if (path.isEmpty()) {
-            return getPosition();
+            return start;
         }
         return path.get(0);
     }
@@ -385,25 +437,26 @@ public final class Entity {
 
         BiPredicate<Point, Point> withinReach = Point::adjacent;
 
+        Point start = getPosition();
         List<Point> path = strat.computePath(
-                getPosition(),
+                start,
                 destPos,
                 canPassThrough,
                 withinReach,
                 PathingStrategy.CARDINAL_NEIGHBORS);
         if (path.isEmpty()) {
-            return getPosition();
+            return start;
         }
         return path.get(0);
     }
     public boolean moveToCat(WorldModel world, Entity target, EventScheduler scheduler) {
-        if (position.adjacent(target.position)) {
+        if (PackedPoint.adjacent(getCell(), target.getCell())) {
             world.removeEntity(scheduler, target);
             return true;
         } else {
-            Point nextPos = nextPositionCat(world, target.position);
+            Point nextPos = nextPositionCat(world, target.getPosition());
 
-            if (!position.equals(nextPos)) {
+            if (getCell() != PackedPoint.of(nextPos)) {
                 world.moveEntity(scheduler, this, nextPos);
             }
             return false;
@@ -411,21 +464,25 @@ public final class Entity {
     }
 
     public void executeCatActivity(WorldModel world, ImageStore imageStore, EventScheduler scheduler) {
-        Optional<Entity> catTarget = world.findNearest(position, new ArrayList<>(List.of(EntityKind.TREE)));
+        Optional<Entity> catTarget = world.claimNearest(getPosition(), new ArrayList<>(List.of(EntityKind.TREE)), this,
+                scheduler.getCurrentTime(), scheduler.getCurrentTime() + CLAIM_PERIODS * getActionPeriod());
 
-        if (catTarget.isPresent()) {
-            Point tgtPos = catTarget.get().position;
+        if (catTarget.isEmpty()) {
+            scheduler.waitFor(this, Factory.createActivityAction(this, world, imageStore), getActionPeriod(), List.of(EntityKind.TREE));
+            return;
+        }
 
-            if (moveToCat(world, catTarget.get(), scheduler)) {
+        Point tgtPos = catTarget.get().getPosition();
 
-                Entity pink = Factory.createPink("pink" + "_" + catTarget.get().id, tgtPos,  imageStore.getImageList("pink"));
+        if (moveToCat(world, catTarget.get(), scheduler)) {
 
-                world.tryAddEntity(pink);
-                pink.scheduleActions(scheduler, world, imageStore);
-            }
+            Entity pink = Factory.createPink(EntityName.derived("pink", catTarget.get().name), tgtPos,  imageStore.getImageList("pink"));
+
+            world.tryAddEntity(pink);
+            pink.scheduleActions(scheduler, world, imageStore);
         }
 
-        scheduler.scheduleEvent(this, Factory.createActivityAction(this, world, imageStore), actionPeriod);
+        scheduler.scheduleEvent(this, Factory.createActivityAction(this, world, imageStore), getActionPeriod());
     }
 
 // orange cat methods
@@ -439,25 +496,26 @@ public final class Entity {
 
         BiPredicate<Point, Point> withinReach = Point::adjacent;
 
+        Point start = getPosition();
         List<Point> path = strat.computePath(
-                getPosition(),
+                start,
                 destPos,
                 canPassThrough,
                 withinReach,
                 PathingStrategy.CARDINAL_NEIGHBORS);
         if (path.isEmpty()) {
-            return getPosition();
+            return start;
         }
         return path.get(0);
     }
     public boolean moveToOrange(WorldModel world, Entity target, EventScheduler scheduler) {
-        if (position.adjacent(target.position)) {
+        if (PackedPoint.adjacent(getCell(), target.getCell())) {
             world.removeEntity(scheduler, target);
             return true;
         } else {
-            Point nextPos = nextPositionOrange(world, target.position);
+            Point nextPos = nextPositionOrange(world, target.getPosition());
 
-            if (!position.equals(nextPos)) {
+            if (getCell() != PackedPoint.of(nextPos)) {
                 world.moveEntity(scheduler, this, nextPos);
             }
             return false;
@@ -465,21 +523,25 @@ public final class Entity {
     }
 
     public void executeOrangeActivity(WorldModel world, ImageStore imageStore, EventScheduler scheduler) {
-        Optional<Entity> catTarget = world.findNearest(position, new ArrayList<>(List.of(EntityKind.TREE)));
+        Optional<Entity> catTarget = world.claimNearest(getPosition(), new ArrayList<>(List.of(EntityKind.TREE)), this,
+                scheduler.getCurrentTime(), scheduler.getCurrentTime() + CLAIM_PERIODS * getActionPeriod());
 
-        if (catTarget.isPresent()) {
-            Point tgtPos = catTarget.get().position;
+        if (catTarget.isEmpty()) {
+            scheduler.waitFor(this, Factory.createActivityAction(this, world, imageStore), getActionPeriod(), List.of(EntityKind.TREE));
+            return;
+        }
 
-            if (moveToOrange(world, catTarget.get(), scheduler)) {
+        Point tgtPos = catTarget.get().getPosition();
 
-                Entity pink = Factory.createPink("pink" + "_" + catTarget.get().id, tgtPos,imageStore.getImageList("pink"));
+        if (moveToOrange(world, catTarget.get(), scheduler)) {
 
-                world.tryAddEntity(pink);
-                pink.scheduleActions(scheduler, world, imageStore);
-            }
+            Entity pink = Factory.createPink(EntityName.derived("pink", catTarget.get().name), tgtPos,imageStore.getImageList("pink"));
+
+            world.tryAddEntity(pink);
+            pink.scheduleActions(scheduler, world, imageStore);
         }
 
-        scheduler.scheduleEvent(this, Factory.createActivityAction(this, world, imageStore), actionPeriod);
+        scheduler.scheduleEvent(this, Factory.createActivityAction(this, world, imageStore), getActionPeriod());
     }
 
 
@@ -493,24 +555,39 @@ public final class Entity {
 
         BiPredicate<Point, Point> withinReach = Point::adjacent;
 
+        Point start = getPosition();
         List<Point> path = strat.computePath(
-                getPosition(),
+                start,
                 destPos,
                 canPassThrough,
                 withinReach,
                 PathingStrategy.CARDINAL_NEIGHBORS);
         if (path.isEmpty()) {
-            return getPosition();
+            return start;
         }
         return path.get(0);
     }
 
     public PImage getCurrentImage() {
-        return this.images.get(this.imageIndex % this.images.size());
+        return this.images.get(getImageIndex() % this.images.size());
 
     }
 
     public double getAnimationPeriod() {
+        if (isAnimated()) {
+            return table.animationPeriod[row];
+        }
+        throw new UnsupportedOperationException(String.format("getAnimationPeriod not supported for %s", kind));
+    }
+
+    /**
+     * @return true if this kind of entity has an animation period
+     */
+    public boolean isAnimated() {
+        return isAnimated(kind);
+    }
+
+    private static boolean isAnimated(EntityKind kind) {
         switch (kind) {
             case PERSON_FULL:
             case PERSON_SEARCHING:
@@ -522,9 +599,26 @@ public final class Entity {
             case PINK:
             case ORANGE:
             case DOG:
-                return animationPeriod;
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static boolean hasActivity(EntityKind kind) {
+        switch (kind) {
+            case PERSON_FULL:
+            case PERSON_SEARCHING:
+            case FAIRY:
+            case SAPLING:
+            case TREE:
+            case CAT:
+            case PINK:
+            case ORANGE:
+            case DOG:
+                return true;
             default:
-                throw new UnsupportedOperationException(String.format("getAnimationPeriod not supported for %s", kind));
+                return false;
         }
     }
 
@@ -532,8 +626,8 @@ public final class Entity {
      * Helper method for testing. Preserve this functionality while refactoring.
      */
     public String log(){
-        return this.id.isEmpty() ? null :
-                String.format("%s %d %d %d", this.id, this.position.x, this.position.y, this.imageIndex);
+        return this.name.isEmpty() ? null :
+                String.format("%s %d %d %d", this.name, table.x[row], table.y[row], getImageIndex());
     }
 
     public EntityKind getKind() {
@@ -541,13 +635,145 @@ public final class Entity {
     }
 
     public String getId() {
-        return id;
+        return name.toString();
+    }
+
+    /**
+     * @return the entity's name without putting its text together
+     */
+    EntityName getName() {
+        return name;
+    }
+
+    /**
+     * @return a number no other entity in this run has, the same for the
+     * entity's whole life whatever it transitions into
+     */
+    public long getNumericId() {
+        return numericId;
+    }
+
+    /**
+     * Entities are equal only to themselves. Comparing and hashing by the
+     * numeric id costs the same however long the entity's name has grown.
+     */
+    @Override
+    public boolean equals(Object other) {
+        return this == other || (other instanceof Entity && ((Entity) other).numericId == numericId);
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(numericId);
     }
 
     public Point getPosition() {
-        return position;
+        return new Point(table.x[row], table.y[row]);
+    }
+
+    int getX() {
+        return table.x[row];
+    }
+
+    int getY() {
+        return table.y[row];
+    }
+
+    /**
+     * @return the position as a PackedPoint, without making a Point
+     */
+    long getCell() {
+        return PackedPoint.of(table.x[row], table.y[row]);
+    }
+
+    public int getImageIndex() {
+        return table.imageIndex[row];
+    }
+
+    public void setImageIndex(int imageIndex) {
+        table.imageIndex[row] = imageIndex;
     }
+
+    /**
+     * Sets the state that changes as an entity acts, for replaying a journal.
+     */
+    void restoreState(int imageIndex, int health, int resourceCount) {
+        setImageIndex(imageIndex);
+        setHealth(health);
+        setResourceCount(resourceCount);
+    }
+
+    public int getResourceLimit() {
+        return table.resourceLimit == null ? 0 : table.resourceLimit[row];
+    }
+
+    public int getResourceCount() {
+        return table.resourceCount == null ? 0 : table.resourceCount[row];
+    }
+
+    private void setResourceCount(int resourceCount) {
+        if (table.resourceCount != null) {
+            table.resourceCount[row] = resourceCount;
+        }
+    }
+
+    public double getActionPeriod() {
+        return table.actionPeriod == null ? 0 : table.actionPeriod[row];
+    }
+
+    public int getHealth() {
+        return table.health == null ? 0 : table.health[row];
+    }
+
+    private void setHealth(int health) {
+        if (table.health != null) {
+            table.health[row] = health;
+        }
+    }
+
+    public int getHealthLimit() {
+        return table.healthLimit == null ? 0 : table.healthLimit[row];
+    }
+    /**
+     * @return when this plant next acts, NaN if it is not scheduled
+     */
+    double getNextActivity() {
+        return table.nextActivity == null ? Double.NaN : table.nextActivity[row];
+    }
+
+    void setNextActivity(double time) {
+        table.nextActivity[row] = time;
+    }
+
     public void setPosition(Point pos) {
-        this.position = pos;
+        table.x[row] = pos.x;
+        table.y[row] = pos.y;
+    }
+
+    void setCell(long pos) {
+        table.x[row] = PackedPoint.x(pos);
+        table.y[row] = PackedPoint.y(pos);
+    }
+
+    EntityStore.Table getTable() {
+        return table;
+    }
+
+    /**
+     * Copies this entity's state into a new row of another table and
+     * gives up its old row. Used by EntityStore.
+     */
+    void moveTo(EntityStore.Table to) {
+        EntityStore.Table from = table;
+        int fromRow = row;
+        int toRow = to.add(this);
+        from.copyRow(fromRow, to, toRow);
+        this.table = to;
+        this.row = toRow;
+        from.remove(fromRow);
+    }
+
+    void setRow(int row) {
+        this.row = row;
     }
 }
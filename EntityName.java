@@ -0,0 +1,75 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An entity's name, as Entity.log prints it. A name given by a transform,
+ * such as "stump_" followed by the name of the tree that was cut down,
+ * points at the name it was made from instead of copying it, so each
+ * transform costs one small object however long the name has become.
+ * The text is only put together the first time something asks for it;
+ * it is then kept, and the name lets go of the one it was made from.
+ *
+ * A name is only display text. Entities compare by their numeric id, not
+ * by name; see Entity.getNumericId.
+ */
+final class EntityName {
+    static final EntityName EMPTY = new EntityName("", "", null);
+
+    private final String prefix;
+    // the text, once it has been put together
+    private String text;
+    // what the text follows on from until it is put together, then null
+    private EntityName parent;
+
+    private EntityName(String prefix, String text, EntityName parent) {
+        this.prefix = prefix;
+        this.text = text;
+        this.parent = parent;
+    }
+
+    static EntityName of(String text) {
+        return text.isEmpty() ? EMPTY : new EntityName(text, text, null);
+    }
+
+    /**
+     * @return the name prefix + "_" + the parent's name
+     */
+    static EntityName derived(String prefix, EntityName parent) {
+        return new EntityName(prefix, null, parent);
+    }
+
+    boolean isEmpty() {
+        return this == EMPTY;
+    }
+
+    /*
+       Walks up to the nearest name whose text is known rather than
+       recursing, so a chain of any length can be put together, in time
+       and space in proportion to the text.
+     */
+    @Override
+    public synchronized String toString() {
+        if (text == null) {
+            List<String> prefixes = new ArrayList<>();
+            String known = null;
+            for (EntityName name = this; known == null; ) {
+                EntityName next;
+                synchronized (name) {
+                    known = name.text;
+                    next = name.parent;
+                }
+                if (known == null) {
+                    prefixes.add(name.prefix);
+                    name = next;
+                }
+            }
+            StringBuilder built = new StringBuilder();
+            for (String prefix : prefixes) {
+                built.append(prefix).append('_');
+            }
+            text = built.append(known).toString();
+            parent = null;
+        }
+        return text;
+    }
+}
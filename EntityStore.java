@@ -0,0 +1,341 @@
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Holds the state of a world's entities in primitive arrays, one Table
+ * per kind, so that walking every tree or sapling reads a few dense
+ * arrays instead of chasing an object per entity. A Table only has the
+ * columns its kind uses; a house is a position and an image index.
+ *
+ * Entity is a view onto a row of a table. An entity that is not in any
+ * world keeps its state in a detached table of one row that is its own,
+ * so a view stays valid after its entity leaves the world, and entities
+ * made on one thread can be added to a world on another. Rows are kept
+ * dense by moving the last row into the gap, so an entity's row changes
+ * as others leave.
+ */
+final class EntityStore {
+    private final Map<EntityKind, Table> tables;
+    private final EntitySet view;
+    private int size;
+    private int modCount;
+
+    EntityStore() {
+        this.tables = new EnumMap<>(EntityKind.class);
+        for (EntityKind kind : EntityKind.values()) {
+            tables.put(kind, new Table(this, kind, 16));
+        }
+        this.view = new EntitySet();
+    }
+
+    /**
+     * Moves an entity's state into this store. Does nothing if it is
+     * already here.
+     */
+    void add(Entity entity) {
+        if (entity.getTable().store == this) {
+            return;
+        }
+        entity.moveTo(tables.get(entity.getKind()));
+        size++;
+        modCount++;
+    }
+
+    /**
+     * @return a new table of one row, for an entity of a kind that is in
+     * no world
+     */
+    static Table detached(EntityKind kind) {
+        return new Table(null, kind, 1);
+    }
+
+    /**
+     * Moves an entity's state out into a detached table.
+     */
+    void remove(Entity entity) {
+        if (entity.getTable().store != this) {
+            return;
+        }
+        entity.moveTo(detached(entity.getKind()));
+        size--;
+        modCount++;
+    }
+
+    /**
+     * Moves an entity's state into the table for another kind, keeping the
+     * columns both kinds have. The entity's own kind is changed after.
+     */
+    void changeKind(Entity entity, EntityKind kind) {
+        if (entity.getTable().store != this) {
+            entity.moveTo(detached(kind));
+            return;
+        }
+        entity.moveTo(tables.get(kind));
+        modCount++;
+    }
+
+    /**
+     * Moves every entity out; see remove.
+     */
+    void clear() {
+        for (Table table : tables.values()) {
+            while (table.size > 0) {
+                remove(table.entities[table.size - 1]);
+            }
+        }
+    }
+
+    /**
+     * @return the dense table of every entity of a kind in this store
+     */
+    Table table(EntityKind kind) {
+        return tables.get(kind);
+    }
+
+    /**
+     * @return a live, read-only set of the entities in this store, ordered
+     * by kind and then by row
+     */
+    Set<Entity> asSet() {
+        return view;
+    }
+
+    /*
+       Which columns each kind has. Values given to an entity for columns
+       its kind does not have are dropped; every Factory method passes 0
+       for those.
+     */
+    private static boolean hasHealth(EntityKind kind) {
+        return kind == EntityKind.TREE || kind == EntityKind.SAPLING || kind == EntityKind.PINK;
+    }
+
+    private static boolean hasResources(EntityKind kind) {
+        return kind == EntityKind.PERSON_FULL || kind == EntityKind.PERSON_SEARCHING;
+    }
+
+    private static boolean hasActivityTime(EntityKind kind) {
+        return PlantSystem.isPlant(kind);
+    }
+
+    private static boolean hasActionPeriod(EntityKind kind) {
+        return switch (kind) {
+            case HOUSE, STUMP, TREAT, OBSTACLE -> false;
+            default -> true;
+        };
+    }
+
+    private static boolean hasAnimationPeriod(EntityKind kind) {
+        return switch (kind) {
+            case HOUSE, STUMP, TREAT -> false;
+            default -> true;
+        };
+    }
+
+    /**
+     * The columns for one kind of entity. Columns a kind does not use are
+     * null. A detached table has no store, and no entities column since
+     * its one entity already knows its row.
+     */
+    static final class Table {
+        final EntityStore store;
+        final EntityKind kind;
+        int size;
+        Entity[] entities;
+        int[] x;
+        int[] y;
+        int[] imageIndex;
+        int[] health;
+        int[] healthLimit;
+        int[] resourceLimit;
+        int[] resourceCount;
+        double[] actionPeriod;
+        double[] animationPeriod;
+        /** when a plant next acts, NaN if it is not scheduled; see PlantSystem */
+        double[] nextActivity;
+
+        Table(EntityStore store, EntityKind kind, int capacity) {
+            this.store = store;
+            this.kind = kind;
+            if (store != null) {
+                this.entities = new Entity[capacity];
+            }
+            this.x = new int[capacity];
+            this.y = new int[capacity];
+            this.imageIndex = new int[capacity];
+            if (hasHealth(kind)) {
+                this.health = new int[capacity];
+                this.healthLimit = new int[capacity];
+            }
+            if (hasResources(kind)) {
+                this.resourceLimit = new int[capacity];
+                this.resourceCount = new int[capacity];
+            }
+            if (hasActionPeriod(kind)) {
+                this.actionPeriod = new double[capacity];
+            }
+            if (hasAnimationPeriod(kind)) {
+                this.animationPeriod = new double[capacity];
+            }
+            if (hasActivityTime(kind)) {
+                this.nextActivity = new double[capacity];
+            }
+        }
+
+        /**
+         * @return a new, zeroed row for an entity
+         */
+        int add(Entity entity) {
+            if (size == x.length) {
+                grow(x.length * 2);
+            }
+            if (nextActivity != null) {
+                nextActivity[size] = Double.NaN;
+            }
+            if (entities != null) {
+                entities[size] = entity;
+            }
+            return size++;
+        }
+
+        /**
+         * Fills the gap left by a row with the last row.
+         */
+        void remove(int row) {
+            int last = --size;
+            if (row != last) {
+                // only a store's tables have more than one row
+                copyRow(last, this, row);
+                entities[row] = entities[last];
+                entities[row].setRow(row);
+            }
+            if (entities != null) {
+                entities[last] = null;
+            }
+            clearRow(last);
+        }
+
+        /**
+         * Copies the columns both tables have; the tables may be for
+         * different kinds.
+         */
+        void copyRow(int row, Table to, int toRow) {
+            to.x[toRow] = x[row];
+            to.y[toRow] = y[row];
+            to.imageIndex[toRow] = imageIndex[row];
+            if (health != null && to.health != null) {
+                to.health[toRow] = health[row];
+                to.healthLimit[toRow] = healthLimit[row];
+            }
+            if (resourceLimit != null && to.resourceLimit != null) {
+                to.resourceLimit[toRow] = resourceLimit[row];
+                to.resourceCount[toRow] = resourceCount[row];
+            }
+            if (actionPeriod != null && to.actionPeriod != null) {
+                to.actionPeriod[toRow] = actionPeriod[row];
+            }
+            if (animationPeriod != null && to.animationPeriod != null) {
+                to.animationPeriod[toRow] = animationPeriod[row];
+            }
+            if (nextActivity != null && to.nextActivity != null) {
+                to.nextActivity[toRow] = nextActivity[row];
+            }
+        }
+
+        private void clearRow(int row) {
+            x[row] = 0;
+            y[row] = 0;
+            imageIndex[row] = 0;
+            if (health != null) {
+                health[row] = 0;
+                healthLimit[row] = 0;
+            }
+            if (resourceLimit != null) {
+                resourceLimit[row] = 0;
+                resourceCount[row] = 0;
+            }
+            if (actionPeriod != null) {
+                actionPeriod[row] = 0;
+            }
+            if (animationPeriod != null) {
+                animationPeriod[row] = 0;
+            }
+            if (nextActivity != null) {
+                nextActivity[row] = Double.NaN;
+            }
+        }
+
+        private void grow(int capacity) {
+            if (entities != null) {
+                entities = Arrays.copyOf(entities, capacity);
+            }
+            x = Arrays.copyOf(x, capacity);
+            y = Arrays.copyOf(y, capacity);
+            imageIndex = Arrays.copyOf(imageIndex, capacity);
+            if (health != null) {
+                health = Arrays.copyOf(health, capacity);
+                healthLimit = Arrays.copyOf(healthLimit, capacity);
+            }
+            if (resourceLimit != null) {
+                resourceLimit = Arrays.copyOf(resourceLimit, capacity);
+                resourceCount = Arrays.copyOf(resourceCount, capacity);
+            }
+            if (actionPeriod != null) {
+                actionPeriod = Arrays.copyOf(actionPeriod, capacity);
+            }
+            if (animationPeriod != null) {
+                animationPeriod = Arrays.copyOf(animationPeriod, capacity);
+            }
+            if (nextActivity != null) {
+                nextActivity = Arrays.copyOf(nextActivity, capacity);
+            }
+        }
+    }
+
+    private final class EntitySet extends AbstractSet<Entity> {
+        @Override
+        public Iterator<Entity> iterator() {
+            return new Iterator<>() {
+                private final Iterator<Table> remaining = tables.values().iterator();
+                private final int expectedModCount = modCount;
+                private Table table = remaining.next();
+                private int row;
+
+                @Override
+                public boolean hasNext() {
+                    while (row >= table.size && remaining.hasNext()) {
+                        table = remaining.next();
+                        row = 0;
+                    }
+                    return row < table.size;
+                }
+
+                @Override
+                public Entity next() {
+                    if (modCount != expectedModCount) {
+                        throw new ConcurrentModificationException();
+                    }
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    return table.entities[row++];
+                }
+            };
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return o instanceof Entity && ((Entity) o).getTable().store == EntityStore.this;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The binary heap EventScheduler keeps its events in. One event at a time
+ * it behaves exactly as java.util.PriorityQueue does, so events due at the
+ * same time run in the same order they always have, but it can also take
+ * a whole batch of events at once and rebuild the heap in a single pass,
+ * which is cheaper than sifting each one in when the batch is large; see
+ * addAll.
+ *
+ * EventComparator treats events less than a millisecond apart as due
+ * together, and the heap does not keep such events in the order they were
+ * added. So a rebuilt heap may run them in a different order than adding
+ * the batch one event at a time would, though always the same order for
+ * the same queue and batch.
+ */
+final class EventQueue {
+    private final Comparator<Event> comparator;
+    private Event[] heap;
+    private int size;
+
+    EventQueue(Comparator<Event> comparator) {
+        this.comparator = comparator;
+        this.heap = new Event[16];
+    }
+
+    void add(Event event) {
+        grow(size + 1);
+        siftUp(size++, event);
+    }
+
+    /**
+     * Adds every event in the batch. A batch larger than what is already
+     * queued is appended and the whole heap rebuilt bottom up, which takes
+     * time in proportion to the size of the heap rather than of the batch
+     * times its height. Events are still taken in time order, but those
+     * due together may come out in another order than single adds would
+     * give; a smaller batch is added one event at a time.
+     */
+    void addAll(List<Event> events) {
+        if (events.size() <= size) {
+            for (Event event : events) {
+                add(event);
+            }
+            return;
+        }
+        grow(size + events.size());
+        for (Event event : events) {
+            heap[size++] = event;
+        }
+        for (int i = (size >>> 1) - 1; i >= 0; i--) {
+            siftDown(i, heap[i]);
+        }
+    }
+
+    Event peek() {
+        return heap[0];
+    }
+
+    Event poll() {
+        if (size == 0) {
+            return null;
+        }
+        Event first = heap[0];
+        removeAt(0);
+        return first;
+    }
+
+    /**
+     * @return whether the event was queued
+     */
+    boolean remove(Event event) {
+        for (int i = 0; i < size; i++) {
+            if (heap[i] == event) {
+                removeAt(i);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    void clear() {
+        Arrays.fill(heap, 0, size, null);
+        size = 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return every event in heap order; adding them one at a time to an
+     * empty queue in this order builds the same heap again
+     */
+    List<Event> toList() {
+        return new ArrayList<>(Arrays.asList(heap).subList(0, size));
+    }
+
+    private void removeAt(int i) {
+        int last = --size;
+        Event moved = heap[last];
+        heap[last] = null;
+        if (i != last) {
+            siftDown(i, moved);
+            if (heap[i] == moved) {
+                siftUp(i, moved);
+            }
+        }
+    }
+
+    private void siftUp(int k, Event event) {
+        while (k > 0) {
+            int parent = (k - 1) >>> 1;
+            if (comparator.compare(event, heap[parent]) >= 0) {
+                break;
+            }
+            heap[k] = heap[parent];
+            k = parent;
+        }
+        heap[k] = event;
+    }
+
+    private void siftDown(int k, Event event) {
+        int half = size >>> 1;
+        while (k < half) {
+            int child = 2 * k + 1;
+            int right = child + 1;
+            if (right < size && comparator.compare(heap[child], heap[right]) > 0) {
+                child = right;
+            }
+            if (comparator.compare(event, heap[child]) <= 0) {
+                break;
+            }
+            heap[k] = heap[child];
+            k = child;
+        }
+        heap[k] = event;
+    }
+
+    private void grow(int capacity) {
+        if (capacity > heap.length) {
+            heap = Arrays.copyOf(heap, Math.max(capacity, heap.length * 2));
+        }
+    }
+}
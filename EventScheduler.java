@@ -1,16 +1,30 @@
 import java.util.*;
 
 /**
- * Keeps track of events that have been scheduled.
+ * Keeps track of events that have been scheduled. Sapling and tree
+ * activities are handed to a PlantSystem, which runs them in batches,
+ * rather than being queued one by one. Entities with nothing to do can
+ * wait for something to appear instead of being queued at all; see
+ * waitFor.
  */
 public final class EventScheduler {
-    private final PriorityQueue<Event> eventQueue;
+    private final EventQueue eventQueue;
     private final Map<Entity, List<Event>> pendingEvents;
+    private final Map<Entity, Parked> parkedEvents;
+    private final Map<Entity, Waiting> waiting;
+    private final Map<EntityKind, Set<Entity>> waitingFor;
+    private PlantSystem plants;
+    private SimulationJournal journal;
     private double currentTime;
+    // events held back from the queue while scheduling a batch
+    private List<Event> batch;
 
     public EventScheduler() {
-        this.eventQueue = new PriorityQueue<>(new EventComparator());
+        this.eventQueue = new EventQueue(new EventComparator());
         this.pendingEvents = new HashMap<>();
+        this.parkedEvents = new HashMap<>();
+        this.waiting = new LinkedHashMap<>();
+        this.waitingFor = new EnumMap<>(EntityKind.class);
         this.currentTime = 0;
     }
 
@@ -19,6 +33,11 @@ public final class EventScheduler {
      * @param entity - the entity whose events we are removing.
      */
     public void unscheduleAllEvents(Entity entity) {
+        parkedEvents.remove(entity);
+        stopWaiting(entity);
+        if (plants != null && PlantSystem.isPlant(entity.getKind())) {
+            plants.unschedule(entity);
+        }
         List<Event> pending = pendingEvents.remove(entity);
 
         if (pending != null) {
@@ -28,30 +47,87 @@ public final class EventScheduler {
         }
     }
 
+    /**
+     * Unschedules an entity's events of one kind, leaving the rest.
+     */
+    public void unscheduleEvents(Entity entity, ActionKind kind) {
+        if (kind == ActionKind.ACTIVITY) {
+            stopWaiting(entity);
+            if (plants != null && PlantSystem.isPlant(entity.getKind())) {
+                plants.unschedule(entity);
+            }
+        }
+        Parked parked = parkedEvents.get(entity);
+        if (parked != null) {
+            parked.events.removeIf(event -> event.getAction().getKind() == kind);
+        }
+        List<Event> pending = pendingEvents.get(entity);
+        if (pending != null) {
+            for (Iterator<Event> it = pending.iterator(); it.hasNext(); ) {
+                Event event = it.next();
+                if (event.getAction().getKind() == kind) {
+                    eventQueue.remove(event);
+                    it.remove();
+                }
+            }
+        }
+    }
+
     public void updateOnTime(double time) {
         double stopTime = currentTime + time;
-        while (!eventQueue.isEmpty() && eventQueue.peek().getTime() <= stopTime) {
-            Event next = eventQueue.poll();
-            removePendingEvent(next);
+        while (true) {
+            Event next = eventQueue.peek();
+            double nextPass = plants == null ? Double.POSITIVE_INFINITY : plants.getNextPass();
+            if (nextPass <= stopTime && (next == null || nextPass <= next.getTime())) {
+                currentTime = nextPass;
+                plants.run(this, nextPass);
+                continue;
+            }
+            if (next == null || next.getTime() > stopTime) {
+                break;
+            }
+            eventQueue.poll();
+            if (!removePendingEvent(next)) {
+                // left behind in the queue when its entity was parked
+                continue;
+            }
             currentTime = next.getTime();
-            next.getAction().executeAction(this);
+            if (journal != null) {
+                journal.eventStarted(next);
+                next.getAction().executeAction(this);
+                journal.eventFinished(next);
+            } else {
+                next.getAction().executeAction(this);
+            }
         }
         currentTime = stopTime;
     }
 
-    private void removePendingEvent(Event event) {
+    private boolean removePendingEvent(Event event) {
         List<Event> pending = pendingEvents.get(event.getEntity());
 
-        if (pending != null) {
-            pending.remove(event);
-        }
+        return pending != null && pending.remove(event);
     }
     public void scheduleEvent(Entity entity, Action action, double afterPeriod) {
         double time = currentTime + afterPeriod;
 
         Event event = new Event(action, time, entity);
 
-        eventQueue.add(event);
+        Parked parked = parkedEvents.get(entity);
+        if (parked != null) {
+            parked.events.add(event);
+            return;
+        }
+        if (action.getKind() == ActionKind.ACTIVITY && PlantSystem.isPlant(entity.getKind())) {
+            plantsFor(action).schedule(entity, time);
+            return;
+        }
+
+        if (batch != null) {
+            batch.add(event);
+        } else {
+            eventQueue.add(event);
+        }
 
         // update list of pending events for the given entity
         List<Event> pending = pendingEvents.getOrDefault(entity, new LinkedList<>());
@@ -59,7 +135,249 @@ public final class EventScheduler {
         pendingEvents.put(entity, pending);
     }
 
+    /**
+     * Schedules the actions of many entities, such as a crowd just added
+     * with WorldModel.spawn, as Entity.scheduleActions would for each, but
+     * puts their events on the queue in one go. Events due within a
+     * millisecond of each other may then run in another order than if each
+     * entity had been scheduled in turn; see EventQueue.addAll.
+     */
+    public void scheduleActions(Collection<Entity> entities, WorldModel world, ImageStore imageStore) {
+        batch = new ArrayList<>(entities.size() * 2);
+        try {
+            for (Entity entity : entities) {
+                entity.scheduleActions(this, world, imageStore);
+            }
+            eventQueue.addAll(batch);
+        } finally {
+            batch = null;
+        }
+    }
+
+    /**
+     * Instead of running an entity's activity again after the given period,
+     * holds it back until an entity of one of the given kinds appears in
+     * the world or the background under it changes. It then runs when it
+     * would have had it been rescheduled every period all along, so an
+     * entity that found nothing to do acts exactly as if it had kept
+     * looking, without taking up a place in the queue meanwhile.
+     * @param entity - the entity that found nothing to do
+     * @param activity - the activity to run once woken
+     * @param period - how often the entity would otherwise look again
+     * @param kinds - the kinds the entity is looking for
+     */
+    public void waitFor(Entity entity, Action activity, double period, List<EntityKind> kinds) {
+        if (parkedEvents.containsKey(entity)) {
+            scheduleEvent(entity, activity, period);
+            return;
+        }
+        waiting.put(entity, new Waiting(activity, currentTime + period, period, kinds));
+        for (EntityKind kind : kinds) {
+            waitingFor.computeIfAbsent(kind, k -> new LinkedHashSet<>()).add(entity);
+        }
+        activity.getWorld().setWaiters(this);
+    }
+
+    /**
+     * Wakes every entity waiting for the given kind; see waitFor.
+     */
+    void entityAppeared(EntityKind kind) {
+        Set<Entity> waiters = waitingFor.get(kind);
+        if (waiters == null || waiters.isEmpty()) {
+            return;
+        }
+        for (Entity entity : new ArrayList<>(waiters)) {
+            wake(entity);
+        }
+    }
+
+    /**
+     * Wakes an entity if it is waiting, whatever it is waiting for.
+     */
+    void wake(Entity entity) {
+        Waiting woken = stopWaiting(entity);
+        if (woken != null) {
+            scheduleEvent(entity, woken.activity, woken.nextTime(currentTime) - currentTime);
+        }
+    }
+
+    private Waiting stopWaiting(Entity entity) {
+        Waiting stopped = waiting.remove(entity);
+        if (stopped != null) {
+            for (EntityKind kind : stopped.kinds) {
+                waitingFor.get(kind).remove(entity);
+            }
+        }
+        return stopped;
+    }
+
+    /**
+     * @return for each waiting entity, the activity it would run at the
+     * next time it would have looked again
+     */
+    List<Event> getWaitingEvents() {
+        List<Event> events = new ArrayList<>(waiting.size());
+        for (Map.Entry<Entity, Waiting> entry : waiting.entrySet()) {
+            Waiting held = entry.getValue();
+            events.add(new Event(held.activity, held.nextTime(currentTime), entry.getKey()));
+        }
+        return events;
+    }
+
+    /**
+     * Stops an entity's events from running until unpark is called. Any
+     * event scheduled for it in the meantime is held back as well. The
+     * events stay in the queue until they come due and are then skipped,
+     * so parking does not cost a search of the queue.
+     * @param entity - the entity being frozen
+     */
+    public void park(Entity entity) {
+        List<Event> pending = pendingEvents.remove(entity);
+        List<Event> events = pending == null ? new ArrayList<>() : new ArrayList<>(pending);
+        if (plants != null && PlantSystem.isPlant(entity.getKind())) {
+            double time = plants.unschedule(entity);
+            if (!Double.isNaN(time)) {
+                events.add(new Event(Factory.createActivityAction(entity, plants.getWorld(), plants.getImageStore()), time, entity));
+            }
+        }
+        parkedEvents.put(entity, new Parked(currentTime, events));
+    }
+
+    /**
+     * Schedules a parked entity's events again, each delayed by however
+     * long the entity was parked, as if no time had passed for it.
+     * @param entity - the entity being thawed
+     */
+    public void unpark(Entity entity) {
+        Parked parked = parkedEvents.remove(entity);
+        if (parked == null) {
+            return;
+        }
+        double delay = currentTime - parked.time;
+        for (Event event : parked.events) {
+            scheduleEvent(entity, event.getAction(), event.getTime() + delay - currentTime);
+        }
+    }
+
+    private PlantSystem plantsFor(Action action) {
+        if (plants == null) {
+            plants = new PlantSystem(action.getWorld(), action.getImageStore());
+        } else if (plants.getWorld() != action.getWorld()) {
+            throw new IllegalStateException("An EventScheduler can only run the plants of one world");
+        }
+        return plants;
+    }
+
+    private static boolean isPlantActivity(Event event) {
+        return event.getAction().getKind() == ActionKind.ACTIVITY && PlantSystem.isPlant(event.getEntity().getKind());
+    }
+
+    /**
+     * Records every event run from now on; see Checkpointer.startJournal.
+     */
+    void setJournal(SimulationJournal journal) {
+        this.journal = journal;
+    }
+
     public double getCurrentTime() {
         return currentTime;
     }
+
+    /**
+     * Replaces everything scheduled with events restored from a checkpoint.
+     * Adding the events back in the order getQueuedEvents returned them
+     * rebuilds the same heap, so events due at the same time still run in
+     * the same order. Sapling and tree activities go back to the
+     * PlantSystem.
+     * @param currentTime - the time the checkpoint was taken at
+     * @param queued - events in the order getQueuedEvents returned them
+     * @param pending - each entity's events in the order they were scheduled
+     * @return false if the rebuilt queue does not match the saved order
+     */
+    public boolean restore(double currentTime, List<Event> queued, Map<Entity, List<Event>> pending) {
+        eventQueue.clear();
+        pendingEvents.clear();
+        parkedEvents.clear();
+        waiting.clear();
+        waitingFor.clear();
+        plants = null;
+        this.currentTime = currentTime;
+
+        List<Event> kept = new ArrayList<>(queued.size());
+        for (Event event : queued) {
+            if (isPlantActivity(event)) {
+                plantsFor(event.getAction()).schedule(event.getEntity(), event.getTime());
+            } else {
+                eventQueue.add(event);
+                kept.add(event);
+            }
+        }
+        for (Map.Entry<Entity, List<Event>> entry : pending.entrySet()) {
+            List<Event> events = new LinkedList<>(entry.getValue());
+            events.removeIf(EventScheduler::isPlantActivity);
+            if (!events.isEmpty()) {
+                pendingEvents.put(entry.getKey(), events);
+            }
+        }
+        return getQueuedEvents().equals(kept);
+    }
+
+    /**
+     * @return every queued event, in the queue's internal (heap) order;
+     * see getPlants for sapling and tree activities
+     */
+    public List<Event> getQueuedEvents() {
+        return eventQueue.toList();
+    }
+
+    /**
+     * @param entity - the entity whose events we want
+     * @return the entity's pending events in the order they were scheduled
+     */
+    public List<Event> getPendingEvents(Entity entity) {
+        return pendingEvents.getOrDefault(entity, Collections.emptyList());
+    }
+
+    /**
+     * @return the system running sapling and tree activities, or null if
+     * none has been scheduled yet
+     */
+    PlantSystem getPlants() {
+        return plants;
+    }
+
+    private static final class Waiting {
+        private final Action activity;
+        private final double firstTime;
+        private final double period;
+        private final List<EntityKind> kinds;
+
+        private Waiting(Action activity, double firstTime, double period, List<EntityKind> kinds) {
+            this.activity = activity;
+            this.firstTime = firstTime;
+            this.period = period;
+            this.kinds = kinds;
+        }
+
+        /*
+           The first of firstTime, firstTime + period, firstTime + 2 * period
+           and so on that is not before the given time.
+         */
+        private double nextTime(double time) {
+            if (time <= firstTime || period <= 0) {
+                return Math.max(firstTime, time);
+            }
+            return firstTime + Math.ceil((time - firstTime) / period) * period;
+        }
+    }
+
+    private static final class Parked {
+        private final double time;
+        private final List<Event> events;
+
+        private Parked(double time, List<Event> events) {
+            this.time = time;
+            this.events = events;
+        }
+    }
 }
@@ -31,7 +31,11 @@ public final class Factory {
     }
 
     public static Entity createTreat(String id, Point position, List<PImage> images) {
-        return new Entity(EntityKind.TREAT, id, position, images, 0, 0, 0, 0, 0, 0);
+        return createTreat(EntityName.of(id), position, images);
+    }
+
+    static Entity createTreat(EntityName name, Point position, List<PImage> images) {
+        return new Entity(EntityKind.TREAT, name, position, images, 0, 0, 0, 0, 0, 0);
     }
 
     public static Entity createObstacle(String id, Point position, double animationPeriod, List<PImage> images) {
@@ -51,20 +55,26 @@ public final class Factory {
         return new Entity(EntityKind.DOG, id, position, images, 0, 0, actionPeriod, animationPeriod, 0, 0);
     }
 
+    // turns an entity into a dog in place, see Entity.transition
+    public static void transitionToDog(Entity entity, EntityName name, double actionPeriod, double animationPeriod, List<PImage> images, WorldModel world, EventScheduler scheduler, ImageStore imageStore) {
+        entity.transition(world, scheduler, imageStore, EntityKind.DOG, name, images, 0, 0, actionPeriod, animationPeriod, 0, 0);
+    }
+
     public static Entity createOrange(String id, Point position, double actionPeriod, double animationPeriod, List<PImage> images) {
         return new Entity(EntityKind.ORANGE, id, position, images, 0, 0, actionPeriod, animationPeriod, 0, 0);
     }
-    public static Entity createTreeWithDefaults(String id, Point position, List<PImage> images) {
-        return new Entity(EntityKind.TREE, id, position, images, 0, 0, Factory.getNumFromRange(TREE_ACTION_MAX, TREE_ACTION_MIN), Factory.getNumFromRange(TREE_ANIMATION_MAX, TREE_ANIMATION_MIN), Factory.getIntFromRange(TREE_HEALTH_MAX, TREE_HEALTH_MIN), 0);
+    public static Entity createTreeWithDefaults(String id, Point position, List<PImage> images, WorldModel world) {
+        WorldRandom random = world.getRandom();
+        return new Entity(EntityKind.TREE, id, position, images, 0, 0, random.nextDouble(TREE_ACTION_MIN, TREE_ACTION_MAX), random.nextDouble(TREE_ANIMATION_MIN, TREE_ANIMATION_MAX), random.nextInt(TREE_HEALTH_MIN, TREE_HEALTH_MAX), 0);
     }
-    private static int getIntFromRange(int max, int min) {
-        Random rand = new Random();
-        return min + rand.nextInt(max-min);
+    // turns an entity into a tree in place, with the same defaults as above
+    public static void transitionToTreeWithDefaults(Entity entity, EntityName name, List<PImage> images, WorldModel world, EventScheduler scheduler, ImageStore imageStore) {
+        WorldRandom random = world.getRandom();
+        entity.transition(world, scheduler, imageStore, EntityKind.TREE, name, images, 0, 0, random.nextDouble(TREE_ACTION_MIN, TREE_ACTION_MAX), random.nextDouble(TREE_ANIMATION_MIN, TREE_ANIMATION_MAX), random.nextInt(TREE_HEALTH_MIN, TREE_HEALTH_MAX), 0);
     }
-
-    private static double getNumFromRange(double max, double min) {
-        Random rand = new Random();
-        return min + rand.nextDouble() * (max - min);
+    // turns an entity into a stump in place, see Entity.transition
+    public static void transitionToStump(Entity entity, EntityName name, List<PImage> images, WorldModel world, EventScheduler scheduler, ImageStore imageStore) {
+        entity.transition(world, scheduler, imageStore, EntityKind.STUMP, name, images, 0, 0, 0, 0, 0, 0);
     }
 
     public static Entity createStump(String id, Point position, List<PImage> images) {
@@ -73,10 +83,18 @@ public final class Factory {
 
     // health starts at 0 and builds up until ready to convert to Tree
     public static Entity createSapling(String id, Point position, List<PImage> images) {
-        return new Entity(EntityKind.SAPLING, id, position, images, 0, 0, SAPLING_ACTION_ANIMATION_PERIOD, SAPLING_ACTION_ANIMATION_PERIOD, 0, SAPLING_HEALTH_LIMIT);
+        return createSapling(EntityName.of(id), position, images);
+    }
+
+    static Entity createSapling(EntityName name, Point position, List<PImage> images) {
+        return new Entity(EntityKind.SAPLING, name, position, images, 0, 0, SAPLING_ACTION_ANIMATION_PERIOD, SAPLING_ACTION_ANIMATION_PERIOD, 0, SAPLING_HEALTH_LIMIT);
     }
     public static Entity createPink(String id, Point position, List<PImage> images) {
-        return new Entity(EntityKind.PINK, id, position, images, 0, 0, PINK_ACTION_ANIMATION_PERIOD, PINK_ACTION_ANIMATION_PERIOD, 0, PINK_HEALTH_LIMIT);
+        return createPink(EntityName.of(id), position, images);
+    }
+
+    static Entity createPink(EntityName name, Point position, List<PImage> images) {
+        return new Entity(EntityKind.PINK, name, position, images, 0, 0, PINK_ACTION_ANIMATION_PERIOD, PINK_ACTION_ANIMATION_PERIOD, 0, PINK_HEALTH_LIMIT);
     }
 
     public static Entity createFairy(String id, Point position, double actionPeriod, double animationPeriod, List<PImage> images) {
@@ -88,9 +106,17 @@ public final class Factory {
         return new Entity(EntityKind.PERSON_SEARCHING, id, position, images, resourceLimit, 0, actionPeriod, animationPeriod, 0, 0);
     }
 
+    public static void transitionToPersonSearching(Entity entity, EntityName name, double actionPeriod, double animationPeriod, int resourceLimit, List<PImage> images, WorldModel world, EventScheduler scheduler, ImageStore imageStore) {
+        entity.transition(world, scheduler, imageStore, EntityKind.PERSON_SEARCHING, name, images, resourceLimit, 0, actionPeriod, animationPeriod, 0, 0);
+    }
+
     // don't technically need resource count ... full
     public static Entity createPersonFull(String id, Point position, double actionPeriod, double animationPeriod, int resourceLimit, List<PImage> images) {
         return new Entity(EntityKind.PERSON_FULL, id, position, images, resourceLimit, 0, actionPeriod, animationPeriod, 0, 0);
     }
 
+    public static void transitionToPersonFull(Entity entity, EntityName name, double actionPeriod, double animationPeriod, int resourceLimit, List<PImage> images, WorldModel world, EventScheduler scheduler, ImageStore imageStore) {
+        entity.transition(world, scheduler, imageStore, EntityKind.PERSON_FULL, name, images, resourceLimit, 0, actionPeriod, animationPeriod, 0, 0);
+    }
+
 }
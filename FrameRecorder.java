@@ -0,0 +1,188 @@
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Encodes rendered frames on a background thread so recording does not
+ * slow down the simulation. Frames are written either as a numbered PNG
+ * sequence in a directory, or, when the output path ends in ".raw", as a
+ * single raw container:
+ *
+ *   "VWRAW1" width:int height:int
+ *   then per frame: time:double pixels:int[width * height] (ARGB)
+ *
+ * If the encoder falls behind by more than QUEUE_CAPACITY frames, submit
+ * waits for it, so a recording always has every frame. A caller that has
+ * to keep up with real time can ask for frames to be dropped instead; the
+ * number dropped is then reported on close.
+ */
+public final class FrameRecorder implements AutoCloseable {
+    private static final int QUEUE_CAPACITY = 64;
+    private static final String RAW_SUFFIX = ".raw";
+    private static final byte[] RAW_MAGIC = {'V', 'W', 'R', 'A', 'W', '1'};
+
+    private final File output;
+    private final int width;
+    private final int height;
+    private final boolean raw;
+    private final boolean dropWhenBehind;
+    private final BlockingQueue<Frame> queue;
+    private final BlockingQueue<int[]> freeBuffers;
+    private final Thread encoder;
+
+    private DataOutputStream rawStream;
+    // written by the encoder thread, read by the caller
+    private volatile int framesWritten;
+    private int framesDropped;
+    private volatile IOException failure;
+
+    public FrameRecorder(File output, int width, int height) {
+        this(output, width, height, false);
+    }
+
+    /**
+     * @param dropWhenBehind - drop frames instead of waiting when the
+     *                       encoder is QUEUE_CAPACITY frames behind
+     */
+    public FrameRecorder(File output, int width, int height, boolean dropWhenBehind) {
+        this.output = output;
+        this.width = width;
+        this.height = height;
+        this.raw = output.getName().endsWith(RAW_SUFFIX);
+        this.dropWhenBehind = dropWhenBehind;
+        this.queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        this.freeBuffers = new ArrayBlockingQueue<>(QUEUE_CAPACITY + 1);
+        this.encoder = new Thread(this::encodeLoop, "frame-encoder");
+        this.encoder.setDaemon(true);
+        this.encoder.start();
+    }
+
+    /**
+     * Queues a copy of the given pixels for encoding, waiting for room
+     * unless frames may be dropped.
+     * @param pixels - width x height ARGB pixels; not retained
+     * @param time - simulation time the frame was taken at
+     */
+    public void submit(int[] pixels, double time) {
+        int[] copy = freeBuffers.poll();
+        if (copy == null) {
+            copy = new int[width * height];
+        }
+        System.arraycopy(pixels, 0, copy, 0, copy.length);
+        Frame frame = new Frame(copy, time, false);
+        if (dropWhenBehind) {
+            if (!queue.offer(frame)) {
+                framesDropped++;
+                freeBuffers.offer(copy);
+            }
+            return;
+        }
+        try {
+            queue.put(frame);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            framesDropped++;
+        }
+    }
+
+    /**
+     * Waits for every queued frame to be written, then closes the output.
+     * @throws IOException if any frame could not be written
+     */
+    public void close() throws IOException {
+        try {
+            queue.put(new Frame(null, 0, true));
+            encoder.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (framesDropped > 0) {
+            System.err.printf("FrameRecorder dropped %d frames\n", framesDropped);
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    public int getFramesWritten() {
+        return framesWritten;
+    }
+
+    public int getFramesDropped() {
+        return framesDropped;
+    }
+
+    private void encodeLoop() {
+        try {
+            while (true) {
+                Frame frame = queue.take();
+                if (frame.last) {
+                    break;
+                }
+                // after a failure keep taking frames, so a waiting submit is not stuck
+                if (failure == null) {
+                    try {
+                        writeFrame(frame);
+                        framesWritten++;
+                    } catch (IOException e) {
+                        failure = e;
+                    }
+                }
+                freeBuffers.offer(frame.pixels);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (rawStream != null) {
+                try {
+                    rawStream.close();
+                } catch (IOException e) {
+                    if (failure == null) {
+                        failure = e;
+                    }
+                }
+            }
+        }
+    }
+
+    private void writeFrame(Frame frame) throws IOException {
+        if (raw) {
+            if (rawStream == null) {
+                rawStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(output), 1 << 16));
+                rawStream.write(RAW_MAGIC);
+                rawStream.writeInt(width);
+                rawStream.writeInt(height);
+            }
+            rawStream.writeDouble(frame.time);
+            for (int pixel : frame.pixels) {
+                rawStream.writeInt(pixel);
+            }
+        } else {
+            if (!output.isDirectory() && !output.mkdirs()) {
+                throw new IOException("Cannot create " + output);
+            }
+            BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+            image.setRGB(0, 0, width, height, frame.pixels, 0, width);
+            ImageIO.write(image, "png", new File(output, String.format("frame_%06d.png", framesWritten)));
+        }
+    }
+
+    private static final class Frame {
+        private final int[] pixels;
+        private final double time;
+        private final boolean last;
+
+        private Frame(int[] pixels, double time, boolean last) {
+            this.pixels = pixels;
+            this.time = time;
+            this.last = last;
+        }
+    }
+}
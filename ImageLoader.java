@@ -1,51 +1,139 @@
 import processing.core.PApplet;
 import processing.core.PImage;
 
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
 
+import javax.imageio.ImageIO;
+
 public class ImageLoader {
-    private static final int COLOR_MASK = 0xffffff;
     private static final int KEYED_IMAGE_MIN = 5;
     private static final int KEYED_RED_IDX = 2;
     private static final int KEYED_GREEN_IDX = 3;
     private static final int KEYED_BLUE_IDX = 4;
+    private static final String CACHE_DIRECTORY = ".spritecache";
+    // PApplet.loadImage makes no promise about being called from several threads,
+    // so the images readImage cannot decode go through it one at a time
+    private static final Object DECODE_LOCK = new Object();
 
     public static void loadImages(Scanner in, ImageStore imageStore, PApplet screen) {
+        List<ImageLine> lines = new ArrayList<>();
         int lineNumber = 0;
         while (in.hasNextLine()) {
             try {
-                processImageLine(imageStore.getImages(), in.nextLine(), screen);
+                ImageLine line = parseImageLine(in.nextLine(), screen);
+                if (line != null) {
+                    lines.add(line);
+                }
             } catch (NumberFormatException e) {
                 System.out.printf("Image format error on line %d\n", lineNumber);
             }
             lineNumber++;
         }
+
+        SpriteCache cache = new SpriteCache(new File(CACHE_DIRECTORY));
+        Map<String, List<ImageLine>> byKey = new LinkedHashMap<>();
+        for (ImageLine line : lines) {
+            byKey.computeIfAbsent(line.key, k -> new ArrayList<>()).add(line);
+        }
+        for (Map.Entry<String, List<ImageLine>> entry : byKey.entrySet()) {
+            List<ImageLine> frames = entry.getValue();
+            imageStore.addSource(entry.getKey(), () -> decodeImages(frames, screen, cache));
+        }
     }
 
-    private static void processImageLine(Map<String, List<PImage>> images, String line, PApplet screen) {
-        String[] attrs = line.split("\\s");
-        if (attrs.length >= 2) {
-            String key = attrs[0];
-            PImage img = screen.loadImage(attrs[1]);
-            if (img != null && img.width != -1) {
-                List<PImage> imgs = getImages(images, key);
-                imgs.add(img);
+    /*
+       Decodes a key's frames in file order so animation frames stay in
+       sequence. Nothing is decoded until ImageStore first needs the key.
+     */
+    private static List<PImage> decodeImages(List<ImageLine> frames, PApplet screen, SpriteCache cache) {
+        List<PImage> images = new LinkedList<>();
+        for (ImageLine line : frames) {
+            PImage img = decodeImage(line, screen, cache);
+            if (img != null) {
+                images.add(img);
+            }
+        }
+        return images;
+    }
 
-                if (attrs.length >= KEYED_IMAGE_MIN) {
-                    int r = Integer.parseInt(attrs[KEYED_RED_IDX]);
-                    int g = Integer.parseInt(attrs[KEYED_GREEN_IDX]);
-                    int b = Integer.parseInt(attrs[KEYED_BLUE_IDX]);
-                    setAlpha(img, screen.color(r, g, b), 0);
-                }
+    /*
+       Runs on whichever thread first asks for the key, possibly several at
+       once. Image files are decoded with ImageIO, which needs no lock, so
+       keys decode in parallel; only what ImageIO cannot read falls back to
+       PApplet.loadImage, one image at a time.
+     */
+    private static PImage decodeImage(ImageLine line, PApplet screen, SpriteCache cache) {
+        File source = new File(line.fileName);
+        PImage img = cache.read(source, line.keyed, line.maskColor);
+        if (img != null) {
+            return img;
+        }
+
+        if (source.isFile()) {
+            img = readImage(source);
+        }
+        if (img == null) {
+            synchronized (DECODE_LOCK) {
+                img = screen.loadImage(line.fileName);
             }
         }
+        if (img == null || img.width == -1) {
+            return null;
+        }
+        if (line.keyed) {
+            setAlpha(img, line.maskColor, 0);
+        }
+        if (source.isFile()) {
+            cache.write(source, line.keyed, line.maskColor, img);
+        }
+        return img;
     }
 
-    private static List<PImage> getImages(Map<String, List<PImage>> images, String key) {
-        return images.computeIfAbsent(key, k -> new LinkedList<>());
+    /*
+       Decodes an image file into ARGB pixels, as PApplet.loadImage would,
+       without going through the PApplet. Safe to call from several threads.
+       Returns null if ImageIO has no reader for the file or cannot read it.
+     */
+    static PImage readImage(File file) {
+        BufferedImage decoded;
+        try {
+            decoded = ImageIO.read(file);
+        } catch (IOException e) {
+            return null;
+        }
+        if (decoded == null) {
+            return null;
+        }
+        int width = decoded.getWidth();
+        int height = decoded.getHeight();
+        PImage img = new PImage(width, height, decoded.getColorModel().hasAlpha() ? PApplet.ARGB : PApplet.RGB);
+        img.loadPixels();
+        decoded.getRGB(0, 0, width, height, img.pixels, 0, width);
+        img.updatePixels();
+        return img;
+    }
+
+    private static ImageLine parseImageLine(String line, PApplet screen) {
+        String[] attrs = line.split("\\s");
+        if (attrs.length >= 2) {
+            if (attrs.length >= KEYED_IMAGE_MIN) {
+                int r = Integer.parseInt(attrs[KEYED_RED_IDX]);
+                int g = Integer.parseInt(attrs[KEYED_GREEN_IDX]);
+                int b = Integer.parseInt(attrs[KEYED_BLUE_IDX]);
+                // color() is not thread safe, so resolve it here rather than on the pool
+                return new ImageLine(attrs[0], attrs[1], true, screen.color(r, g, b));
+            }
+            return new ImageLine(attrs[0], attrs[1], false, 0);
+        }
+        return null;
     }
 
     /*
@@ -53,15 +141,23 @@ public class ImageLoader {
               setAlpha(img, color(255, 255, 255), 0));
             */
     private static void setAlpha(PImage img, int maskColor, int alpha) {
-        int alphaValue = alpha << 24;
-        int nonAlpha = maskColor & COLOR_MASK;
         img.format = PApplet.ARGB;
         img.loadPixels();
-        for (int i = 0; i < img.pixels.length; i++) {
-            if ((img.pixels[i] & COLOR_MASK) == nonAlpha) {
-                img.pixels[i] = alphaValue | nonAlpha;
-            }
-        }
+        PixelKernel.DEFAULT.colorKey(img.pixels, maskColor, alpha);
         img.updatePixels();
     }
+
+    private static final class ImageLine {
+        private final String key;
+        private final String fileName;
+        private final boolean keyed;
+        private final int maskColor;
+
+        private ImageLine(String key, String fileName, boolean keyed, int maskColor) {
+            this.key = key;
+            this.fileName = fileName;
+            this.keyed = keyed;
+            this.maskColor = maskColor;
+        }
+    }
 }
@@ -1,26 +1,123 @@
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.LinkedList;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 import processing.core.PImage;
 
+/**
+ * Holds every sprite by key. Sprites added with addSource are not decoded
+ * until their key is first asked for, so startup time and memory go only
+ * to the sprites a world actually uses. Safe to use from several threads;
+ * each key is decoded once, by whichever thread asks for it first.
+ */
 public final class ImageStore {
     private final Map<String, List<PImage>> images;
+    private final Map<String, FutureTask<List<PImage>>> sources;
     private final List<PImage> defaultImages;
+    private final BackgroundRegistry backgrounds;
 
     public ImageStore(PImage defaultImage) {
-        this.images = new HashMap<>();
+        this.images = new ConcurrentHashMap<>();
+        this.sources = new ConcurrentHashMap<>();
         defaultImages = new LinkedList<>();
         defaultImages.add(defaultImage);
+        this.backgrounds = new BackgroundRegistry(this);
     }
 
     public List<PImage> getImageList(String key) {
-        return images.getOrDefault(key, defaultImages);
+        List<PImage> loaded = images.get(key);
+        if (loaded != null) {
+            return loaded;
+        }
+        FutureTask<List<PImage>> source = sources.get(key);
+        if (source == null) {
+            return defaultImages;
+        }
+        // a no-op if another thread got there first; get then waits for it
+        source.run();
+        try {
+            List<PImage> decoded = source.get();
+            if (decoded.isEmpty()) {
+                return defaultImages;
+            }
+            images.putIfAbsent(key, decoded);
+            return decoded;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return defaultImages;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Image loading failed for " + key, e.getCause());
+        }
     }
 
+    /**
+     * Registers how to decode a key's frames, without decoding them yet.
+     * @param source - returns the frames in animation order
+     */
+    public void addSource(String key, Callable<List<PImage>> source) {
+        sources.put(key, new FutureTask<>(source));
+    }
+
+    /**
+     * Decodes the given keys now, in parallel, rather than one at a time
+     * as they are first used. Keys with no source are ignored, so a rough
+     * guess at the keys a world needs is fine.
+     */
+    public void preload(Collection<String> keys) {
+        List<String> wanted = new ArrayList<>();
+        for (String key : keys) {
+            if (sources.containsKey(key) && !images.containsKey(key)) {
+                wanted.add(key);
+            }
+        }
+        if (wanted.isEmpty()) {
+            return;
+        }
+
+        int threads = Math.max(1, Math.min(wanted.size(), Runtime.getRuntime().availableProcessors()));
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<List<PImage>>> decoded = new ArrayList<>(wanted.size());
+            for (String key : wanted) {
+                decoded.add(pool.submit(() -> getImageList(key)));
+            }
+            for (Future<List<PImage>> future : decoded) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Image loading failed", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * @return the sprites decoded so far
+     */
     public Map<String, List<PImage>> getImages() {
         return images;
     }
 
+    /**
+     * @return the shared Background for an id, see BackgroundRegistry
+     */
+    public Background getBackground(String id) {
+        return backgrounds.get(id);
+    }
+
+    public BackgroundRegistry getBackgroundRegistry() {
+        return backgrounds;
+    }
+
 }
@@ -0,0 +1,164 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Rebuilds a world at any point in time from the checkpoints and journal
+ * written by a Checkpointer with a SimulationJournal. Starts from the
+ * newest checkpoint at or before that time and applies the recorded
+ * changes that follow it. No actions are run, so nothing is searched for
+ * or pathed, which makes this far cheaper than simulating again.
+ *
+ * The world comes back without any scheduled events; it is for looking
+ * at, not for carrying on with. Use Checkpointer.restore to resume.
+ */
+public final class JournalReplay {
+    private final ImageStore imageStore;
+    private final WorldModel world;
+    private final EventScheduler scheduler;
+    private final Map<Integer, Entity> entities;
+    private final Map<Integer, Background> backgrounds;
+    private final double stopTime;
+
+    private JournalReplay(ImageStore imageStore, WorldModel world, Map<Integer, Entity> entities, double stopTime) {
+        this.imageStore = imageStore;
+        this.world = world;
+        // removing and moving entities take a scheduler; this one stays empty
+        this.scheduler = new EventScheduler();
+        this.entities = entities;
+        this.backgrounds = new HashMap<>();
+        this.stopTime = stopTime;
+    }
+
+    /**
+     * @param directory - where the checkpoints and journal were written
+     * @param time - the simulation time to rebuild; every event due at or
+     *               before it is included
+     * @return a new world as it was at that time
+     * @throws IllegalArgumentException if no checkpoint was taken at or
+     * before the time, or a file is malformed
+     */
+    public static WorldModel seek(File directory, double time, ImageStore imageStore) throws IOException {
+        long sequence = CheckpointFormat.latestSequence(directory);
+        while (sequence >= 0 && CheckpointFormat.readTime(directory, sequence) > time) {
+            sequence--;
+        }
+        if (sequence < 0) {
+            throw new IllegalArgumentException("No checkpoint at or before time " + time + " in " + directory);
+        }
+
+        WorldModel world = new WorldModel();
+        Map<Integer, Entity> entities = Checkpointer.restoreWorld(CheckpointFormat.read(directory, sequence, imageStore), world, imageStore);
+        JournalReplay replay = new JournalReplay(imageStore, world, entities, time);
+        // segments carry on from one another, so keep going past later checkpoints
+        for (File segment = new File(directory, SimulationJournal.fileName(sequence));
+             segment.isFile() && replay.apply(segment, sequence);
+             segment = new File(directory, SimulationJournal.fileName(++sequence))) {
+        }
+        return world;
+    }
+
+    /**
+     * Applies one segment's records.
+     * @return false once a record past the stop time, or the end of a
+     * segment cut short, has been reached
+     */
+    private boolean apply(File segment, long sequence) throws IOException {
+        backgrounds.clear();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(segment), 1 << 16))) {
+            if (in.readInt() != SimulationJournal.MAGIC || in.readInt() != SimulationJournal.VERSION
+                    || in.readLong() != sequence) {
+                throw new IllegalArgumentException("Not journal segment " + sequence + ": " + segment.getName());
+            }
+            while (true) {
+                int type = in.read();
+                if (type < 0) {
+                    return true;
+                }
+                if (!applyRecord(in, (byte) type)) {
+                    return false;
+                }
+            }
+        } catch (EOFException e) {
+            // the last batch was only partly written
+            return false;
+        }
+    }
+
+    private boolean applyRecord(DataInputStream in, byte type) throws IOException {
+        switch (type) {
+            case SimulationJournal.EVENT -> {
+                double time = in.readDouble();
+                in.readInt();
+                in.readByte();
+                return time <= stopTime;
+            }
+            case SimulationJournal.TIME -> {
+                return in.readDouble() <= stopTime;
+            }
+            case SimulationJournal.STATE -> {
+                Entity entity = entities.get(in.readInt());
+                int imageIndex = in.readInt();
+                int health = in.readInt();
+                int resourceCount = in.readInt();
+                if (entity != null) {
+                    entity.restoreState(imageIndex, health, resourceCount);
+                }
+            }
+            case SimulationJournal.ADD -> {
+                int handle = in.readInt();
+                EntityKind kind = EntityKind.values()[in.readByte()];
+                String id = readString(in);
+                Point position = new Point(in.readInt(), in.readInt());
+                int imageIndex = in.readInt();
+                int resourceLimit = in.readInt();
+                int resourceCount = in.readInt();
+                double actionPeriod = in.readDouble();
+                double animationPeriod = in.readDouble();
+                int health = in.readInt();
+                int healthLimit = in.readInt();
+                Entity entity = new Entity(kind, id, position, imageStore.getImageList(WorldLoader.imageKey(kind)),
+                        resourceLimit, resourceCount, actionPeriod, animationPeriod, health, healthLimit);
+                entity.setImageIndex(imageIndex);
+                entities.put(handle, entity);
+                world.addEntity(entity);
+            }
+            case SimulationJournal.REMOVE -> {
+                Entity entity = entities.remove(in.readInt());
+                if (entity != null) {
+                    world.removeEntity(scheduler, entity);
+                }
+            }
+            case SimulationJournal.MOVE -> {
+                Entity entity = entities.get(in.readInt());
+                Point pos = new Point(in.readInt(), in.readInt());
+                if (entity != null) {
+                    world.moveEntity(scheduler, entity, pos);
+                }
+            }
+            case SimulationJournal.ID -> {
+                int index = in.readInt();
+                backgrounds.put(index, imageStore.getBackground(readString(in)));
+            }
+            case SimulationJournal.BACKGROUND -> {
+                Point pos = new Point(in.readInt(), in.readInt());
+                int index = in.readInt();
+                world.setBackgroundCell(pos, index == SimulationJournal.NO_BACKGROUND ? null : backgrounds.get(index));
+            }
+            default -> throw new IllegalArgumentException("Unknown journal record " + type);
+        }
+        return true;
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,591 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * Loads a world save file by memory-mapping it and tokenizing straight out
+ * of the mapped bytes, instead of reading it line by line through a
+ * Scanner. Background rows never become Strings: each cell's id is matched
+ * against the ids already seen. Produces exactly the same world, and the
+ * same exceptions, as WorldLoader.load.
+ */
+public final class MappedWorldLoader {
+    private static final int SEGMENT_SHIFT = 30;
+    private static final long SEGMENT_SIZE = 1L << SEGMENT_SHIFT;
+    private static final long SEGMENT_MASK = SEGMENT_SIZE - 1;
+    private static final int MAX_FAST_INT_DIGITS = 9;
+    private static final int ENTITY_FIELDS = 4;
+    private static final int CHUNKS_PER_THREAD = 4;
+    private static final long MIN_CHUNK_SIZE = 1 << 20;
+
+    private static final byte[] ROWS_HEADER = "Rows:".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] COLS_HEADER = "Cols:".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] BACKGROUNDS_HEADER = "Backgrounds:".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] ENTITIES_HEADER = "Entities:".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] BACKGROUND_RUNS_HEADER = "BackgroundRuns:".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] SEED_HEADER = "Seed:".getBytes(StandardCharsets.US_ASCII);
+
+    private enum Section {
+        NONE, ROWS, COLS, SEED, BACKGROUNDS, BACKGROUND_RUNS, ENTITIES, OTHER
+    }
+
+    private final WorldModel world;
+    private final ImageStore imageStore;
+    private final MappedByteBuffer[] segments;
+    private final long size;
+
+    private MappedWorldLoader(WorldModel world, ImageStore imageStore, FileChannel channel) throws IOException {
+        this.world = world;
+        this.imageStore = imageStore;
+        this.size = channel.size();
+        this.segments = new MappedByteBuffer[(int) ((size + SEGMENT_SIZE - 1) >>> SEGMENT_SHIFT)];
+        for (int i = 0; i < segments.length; i++) {
+            long start = (long) i << SEGMENT_SHIFT;
+            segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE, size - start));
+        }
+    }
+
+    public static void load(WorldModel world, File saveFile, ImageStore imageStore, Background defaultBackground) throws IOException {
+        load(world, saveFile, imageStore, defaultBackground, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Loads a save file using up to the given number of threads. Files too
+     * small to split, and files whose sections are not in the usual
+     * Rows, Cols, Backgrounds, Entities layout, are parsed on this thread.
+     */
+    public static void load(WorldModel world, File saveFile, ImageStore imageStore, Background defaultBackground, int threads) throws IOException {
+        try (FileChannel channel = FileChannel.open(saveFile.toPath(), StandardOpenOption.READ)) {
+            MappedWorldLoader loader = new MappedWorldLoader(world, imageStore, channel);
+            List<Chunk> chunks = threads > 1 ? loader.split(threads) : List.of();
+            if (chunks.size() > 1) {
+                loader.parseParallel(chunks, threads);
+            } else {
+                loader.parseSaveFile(0, loader.size, new IdTable(loader));
+            }
+        }
+        WorldLoader.fillMissingSections(world, defaultBackground);
+    }
+
+    private void parseSaveFile(long from, long to, IdTable backgroundIds) {
+        Section section = Section.NONE;
+        int headerLine = 0;
+        int lineCounter = 0;
+        long pos = from;
+        while (pos < to) {
+            lineCounter++;
+            long lineEnd = lineEnd(pos);
+            long start = stripStart(pos, lineEnd);
+            long end = stripEnd(start, lineEnd);
+
+            if (isHeader(start, end)) {
+                headerLine = lineCounter;
+                section = header(start, end);
+                enterSection(section);
+            } else {
+                switch (section) {
+                    case ROWS -> world.setNumRows(parseInt(start, end));
+                    case COLS -> world.setNumCols(parseInt(start, end));
+                    case SEED -> world.setRandom(new WorldRandom(Long.parseLong(string(start, end))));
+                    case BACKGROUNDS -> parseBackgroundRow(start, end, lineCounter - headerLine - 1, backgroundIds);
+                    case BACKGROUND_RUNS -> parseBackgroundRuns(start, end, lineCounter - headerLine - 1, backgroundIds);
+                    case ENTITIES -> world.tryAddEntity(parseEntity(start, end));
+                }
+            }
+            pos = nextLine(lineEnd);
+        }
+    }
+
+    private void enterSection(Section section) {
+        switch (section) {
+            case BACKGROUNDS, BACKGROUND_RUNS -> world.setBackground(new Background[world.getNumRows()][world.getNumCols()]);
+            case ENTITIES -> {
+                world.setOccupancy(new Entity[world.getNumRows()][world.getNumCols()]);
+                world.setEntities(new HashSet<>());
+            }
+        }
+    }
+
+    /*
+       Splits the file at line starts into a few chunks per thread. Returns
+       a single chunk when the file is too small to be worth splitting.
+     */
+    private List<Chunk> split(int threads) {
+        long chunkSize = Math.max(MIN_CHUNK_SIZE, (size + threads * CHUNKS_PER_THREAD - 1) / (threads * CHUNKS_PER_THREAD));
+        List<Chunk> chunks = new ArrayList<>();
+        long start = 0;
+        while (start < size) {
+            long end = alignToLineStart(Math.min(size, start + chunkSize));
+            chunks.add(new Chunk(start, end));
+            start = end;
+        }
+        return chunks;
+    }
+
+    private long alignToLineStart(long pos) {
+        while (pos < size && !(get(pos - 1) == '\n' || (get(pos - 1) == '\r' && get(pos) != '\n'))) {
+            pos++;
+        }
+        return pos;
+    }
+
+    /*
+       First finds every header line in parallel, so each chunk knows which
+       section it starts in and its first line number. The few Rows and Cols
+       lines before the first grid section are parsed here, then background
+       rows and entities are parsed in parallel. Entities are added to the
+       world afterwards in file order, so a position conflict or a parse
+       error is reported for the same line as the serial path.
+     */
+    private void parseParallel(List<Chunk> chunks, int threads) throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            runAll(pool, chunks, Chunk::scan);
+
+            int lines = 0;
+            Header firstGridHeader = null;
+            int backgroundHeaders = 0;
+            int entityHeaders = 0;
+            boolean canonical = true;
+            for (Chunk chunk : chunks) {
+                chunk.firstLine = lines;
+                lines += chunk.lines;
+                for (Header header : chunk.headers) {
+                    switch (header.section) {
+                        case ROWS, COLS, SEED -> canonical &= firstGridHeader == null;
+                        case BACKGROUNDS, BACKGROUND_RUNS -> backgroundHeaders++;
+                        case ENTITIES -> entityHeaders++;
+                    }
+                    if (firstGridHeader == null && isGridSection(header.section)) {
+                        firstGridHeader = header;
+                    }
+                }
+            }
+            if (!canonical || backgroundHeaders > 1 || entityHeaders > 1) {
+                parseSaveFile(0, size, new IdTable(this));
+                return;
+            }
+
+            parseSaveFile(0, firstGridHeader == null ? size : firstGridHeader.offset, new IdTable(this));
+            Section section = Section.NONE;
+            int headerLine = 0;
+            for (Chunk chunk : chunks) {
+                chunk.section = section;
+                chunk.headerLine = headerLine;
+                for (Header header : chunk.headers) {
+                    section = header.section;
+                    headerLine = chunk.firstLine + header.line;
+                    enterSection(section);
+                }
+            }
+
+            runAll(pool, chunks, Chunk::parse);
+            for (Chunk chunk : chunks) {
+                for (Entity entity : chunk.entities) {
+                    world.tryAddEntity(entity);
+                }
+                if (chunk.failure != null) {
+                    throw chunk.failure;
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static void runAll(ExecutorService pool, List<Chunk> chunks, Consumer<Chunk> task) throws IOException {
+        List<Future<?>> running = new ArrayList<>(chunks.size());
+        for (Chunk chunk : chunks) {
+            running.add(pool.submit(() -> task.accept(chunk)));
+        }
+        try {
+            for (Future<?> future : running) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("World loading was interrupted");
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("World loading failed", e.getCause());
+        }
+    }
+
+    private long lineEnd(long pos) {
+        while (pos < size && get(pos) != '\n' && get(pos) != '\r') {
+            pos++;
+        }
+        return pos;
+    }
+
+    private long nextLine(long lineEnd) {
+        if (lineEnd + 1 < size && get(lineEnd) == '\r' && get(lineEnd + 1) == '\n') {
+            return lineEnd + 2;
+        }
+        return lineEnd + 1;
+    }
+
+    // same as String.strip for the ASCII whitespace a save file contains
+    private long stripStart(long start, long end) {
+        while (start < end && isWhitespace(get(start))) {
+            start++;
+        }
+        return start;
+    }
+
+    private long stripEnd(long start, long end) {
+        while (end > start && isWhitespace(get(end - 1))) {
+            end--;
+        }
+        return end;
+    }
+
+    private boolean isHeader(long start, long end) {
+        return end > start && get(end - 1) == ':';
+    }
+
+    private static boolean isGridSection(Section section) {
+        return section == Section.BACKGROUNDS || section == Section.BACKGROUND_RUNS || section == Section.ENTITIES;
+    }
+
+    private Section header(long start, long end) {
+        if (matches(start, end, ROWS_HEADER)) {
+            return Section.ROWS;
+        } else if (matches(start, end, COLS_HEADER)) {
+            return Section.COLS;
+        } else if (matches(start, end, BACKGROUNDS_HEADER)) {
+            return Section.BACKGROUNDS;
+        } else if (matches(start, end, ENTITIES_HEADER)) {
+            return Section.ENTITIES;
+        } else if (matches(start, end, BACKGROUND_RUNS_HEADER)) {
+            return Section.BACKGROUND_RUNS;
+        } else if (matches(start, end, SEED_HEADER)) {
+            return Section.SEED;
+        }
+        return Section.OTHER;
+    }
+
+    /*
+       Cells are separated by single spaces, so two spaces in a row mean an
+       empty id, just like String.split(" ").
+     */
+    private void parseBackgroundRow(long start, long end, int row, IdTable backgroundIds) {
+        if (row >= world.getNumRows()) {
+            return;
+        }
+        Background[] cells = world.getBackground()[row];
+        int numCols = world.getNumCols();
+        int col = 0;
+        long tokenStart = start;
+        for (long i = start; i <= end && col < numCols; i++) {
+            if (i == end || get(i) == ' ') {
+                int id = backgroundIds.lookup(tokenStart, i);
+                cells[col++] = backgroundIds.backgrounds[id];
+                tokenStart = i + 1;
+            }
+        }
+    }
+
+    /*
+       Mirrors WorldLoader.parseBackgroundRuns: each space-separated token
+       is id*count, or just id for a single cell.
+     */
+    private void parseBackgroundRuns(long start, long end, int row, IdTable backgroundIds) {
+        if (row >= world.getNumRows()) {
+            return;
+        }
+        Background[] cells = world.getBackground()[row];
+        int numCols = world.getNumCols();
+        int col = 0;
+        long tokenStart = start;
+        for (long i = start; i <= end && col < numCols; i++) {
+            if (i == end || get(i) == ' ') {
+                long idEnd = i;
+                while (idEnd > tokenStart && get(idEnd - 1) != WorldLoader.RUN_SEPARATOR) {
+                    idEnd--;
+                }
+                int length = 1;
+                if (idEnd > tokenStart) {
+                    length = parseInt(idEnd, i);
+                    idEnd--;
+                } else {
+                    idEnd = i;
+                }
+                if (length < 1) {
+                    throw new IllegalArgumentException("Background run length must be positive");
+                }
+                int id = backgroundIds.lookup(tokenStart, idEnd);
+                int runEnd = (int) Math.min(numCols, (long) col + length);
+                Arrays.fill(cells, col, runEnd, backgroundIds.backgrounds[id]);
+                col = runEnd;
+                tokenStart = i + 1;
+            }
+        }
+    }
+
+    /*
+       Mirrors WorldLoader.parseEntity: the first four fields are split off
+       and the rest are handed on as kind-specific properties. Does not add
+       the entity, so it can run off the loading thread.
+     */
+    private Entity parseEntity(long start, long end) {
+        long[] fieldEnds = new long[ENTITY_FIELDS];
+        int fields = 0;
+        for (long i = start; i < end && fields < ENTITY_FIELDS; i++) {
+            if (get(i) == ' ') {
+                fieldEnds[fields++] = i;
+            }
+        }
+        boolean hasProperties = fields == ENTITY_FIELDS;
+        if (fields < ENTITY_FIELDS) {
+            fieldEnds[fields++] = end;
+        }
+        if (fields < ENTITY_FIELDS) {
+            throw new IllegalArgumentException("Entity must be formatted as [key] [id] [x] [y] ...");
+        }
+
+        String key = string(start, fieldEnds[0]);
+        String id = string(fieldEnds[0] + 1, fieldEnds[1]);
+        Point pt = new Point(parseInt(fieldEnds[1] + 1, fieldEnds[2]), parseInt(fieldEnds[2] + 1, fieldEnds[3]));
+        String[] properties = hasProperties ? string(fieldEnds[3] + 1, end).split(" ") : new String[0];
+
+        return WorldLoader.createEntity(key, id, pt, properties, imageStore);
+    }
+
+    /*
+       Integer.parseInt without building a String for the common case;
+       anything unusual is handed to parseInt so errors are identical.
+     */
+    private int parseInt(long start, long end) {
+        int length = (int) Math.min(end - start, Integer.MAX_VALUE);
+        int i = 0;
+        boolean negative = false;
+        if (length > 0 && (get(start) == '-' || get(start) == '+')) {
+            negative = get(start) == '-';
+            i++;
+        }
+        if (length == i || length - i > MAX_FAST_INT_DIGITS) {
+            return Integer.parseInt(string(start, end));
+        }
+        int value = 0;
+        for (; i < length; i++) {
+            byte b = get(start + i);
+            if (b < '0' || b > '9') {
+                return Integer.parseInt(string(start, end));
+            }
+            value = value * 10 + (b - '0');
+        }
+        return negative ? -value : value;
+    }
+
+    private boolean matches(long start, long end, byte[] expected) {
+        if (end - start != expected.length) {
+            return false;
+        }
+        for (int i = 0; i < expected.length; i++) {
+            if (get(start + i) != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String string(long start, long end) {
+        return new String(bytes(start, end), StandardCharsets.UTF_8);
+    }
+
+    private byte[] bytes(long start, long end) {
+        byte[] bytes = new byte[(int) (end - start)];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = get(start + i);
+        }
+        return bytes;
+    }
+
+    private byte get(long pos) {
+        return segments[(int) (pos >>> SEGMENT_SHIFT)].get((int) (pos & SEGMENT_MASK));
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\f' || b == 0x0b || b == '\r' || b == '\n' || (b >= 0x1c && b <= 0x1f);
+    }
+
+    /**
+     * An open-addressing table from the raw bytes of an id to its shared
+     * Background, so repeated ids cost a hash and a compare, not a String.
+     */
+    private static final class IdTable {
+        private static final int INITIAL_CAPACITY = 64;
+
+        private int[] slots = new int[INITIAL_CAPACITY];
+        private byte[][] keys = new byte[INITIAL_CAPACITY][];
+        private Background[] backgrounds = new Background[INITIAL_CAPACITY];
+        private final MappedWorldLoader loader;
+        private int count;
+        private int last = -1;
+
+        IdTable(MappedWorldLoader loader) {
+            this.loader = loader;
+            Arrays.fill(slots, -1);
+        }
+
+        int lookup(long start, long end) {
+            // backgrounds come in long runs of the same id
+            if (last >= 0 && equalsKey(last, start, end)) {
+                return last;
+            }
+            int hash = hash(start, end);
+            int mask = slots.length - 1;
+            for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+                int entry = slots[slot];
+                if (entry < 0) {
+                    last = add(start, end, slot);
+                    return last;
+                }
+                if (equalsKey(entry, start, end)) {
+                    last = entry;
+                    return entry;
+                }
+            }
+        }
+
+        private int add(long start, long end, int slot) {
+            if (count == keys.length) {
+                keys = Arrays.copyOf(keys, count * 2);
+                backgrounds = Arrays.copyOf(backgrounds, count * 2);
+            }
+            byte[] key = loader.bytes(start, end);
+            keys[count] = key;
+            backgrounds[count] = loader.imageStore.getBackground(new String(key, StandardCharsets.UTF_8));
+            slots[slot] = count;
+            count++;
+            if (count * 2 > slots.length) {
+                rehash();
+            }
+            return count - 1;
+        }
+
+        private void rehash() {
+            slots = new int[slots.length * 2];
+            Arrays.fill(slots, -1);
+            int mask = slots.length - 1;
+            for (int entry = 0; entry < count; entry++) {
+                int slot = Arrays.hashCode(keys[entry]) & mask;
+                while (slots[slot] >= 0) {
+                    slot = (slot + 1) & mask;
+                }
+                slots[slot] = entry;
+            }
+        }
+
+        private boolean equalsKey(int entry, long start, long end) {
+            byte[] key = keys[entry];
+            if (key.length != end - start) {
+                return false;
+            }
+            for (int i = 0; i < key.length; i++) {
+                if (key[i] != loader.get(start + i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // same as Arrays.hashCode(byte[]) so rehash agrees with lookup
+        private int hash(long start, long end) {
+            int hash = 1;
+            for (long i = start; i < end; i++) {
+                hash = 31 * hash + loader.get(i);
+            }
+            return hash;
+        }
+    }
+
+    private static final class Header {
+        private final int line;
+        private final long offset;
+        private final Section section;
+
+        private Header(int line, long offset, Section section) {
+            this.line = line;
+            this.offset = offset;
+            this.section = section;
+        }
+    }
+
+    /**
+     * A line-aligned slice of the file. scan counts its lines and finds its
+     * headers; parse fills in its background rows and builds its entities.
+     */
+    private final class Chunk {
+        private final long start;
+        private final long end;
+        private final List<Header> headers = new ArrayList<>();
+        private final List<Entity> entities = new ArrayList<>();
+        private int lines;
+        private int firstLine;
+        private Section section;
+        private int headerLine;
+        private RuntimeException failure;
+
+        Chunk(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        void scan() {
+            for (long pos = start; pos < end; ) {
+                lines++;
+                long lineEnd = lineEnd(pos);
+                long from = stripStart(pos, lineEnd);
+                long to = stripEnd(from, lineEnd);
+                if (isHeader(from, to)) {
+                    headers.add(new Header(lines, pos, header(from, to)));
+                }
+                pos = nextLine(lineEnd);
+            }
+        }
+
+        /*
+           Stops at the first bad line; it is rethrown once every entity
+           before it has been added.
+         */
+        void parse() {
+            IdTable backgroundIds = new IdTable(MappedWorldLoader.this);
+            int lineCounter = firstLine;
+            try {
+                for (long pos = start; pos < end; ) {
+                    lineCounter++;
+                    long lineEnd = lineEnd(pos);
+                    long from = stripStart(pos, lineEnd);
+                    long to = stripEnd(from, lineEnd);
+                    if (isHeader(from, to)) {
+                        headerLine = lineCounter;
+                        section = header(from, to);
+                    } else if (section == Section.BACKGROUNDS) {
+                        parseBackgroundRow(from, to, lineCounter - headerLine - 1, backgroundIds);
+                    } else if (section == Section.BACKGROUND_RUNS) {
+                        parseBackgroundRuns(from, to, lineCounter - headerLine - 1, backgroundIds);
+                    } else if (section == Section.ENTITIES) {
+                        entities.add(parseEntity(from, to));
+                    }
+                    pos = nextLine(lineEnd);
+                }
+            } catch (RuntimeException e) {
+                failure = e;
+            }
+        }
+    }
+}
@@ -0,0 +1,73 @@
+import java.util.Arrays;
+
+import processing.core.PImage;
+
+/**
+ * Draws the part of the world covered by a Viewport into an in-memory ARGB
+ * buffer, without a Processing window. Used for recording headless runs;
+ * the output matches what WorldView would put on screen at scale 1.
+ */
+public final class OffscreenRenderer {
+    private static final int CLEAR_COLOR = 0xff000000;
+
+    private final WorldModel world;
+    private final Viewport viewport;
+    private final int tileWidth;
+    private final int tileHeight;
+    private final int[] pixels;
+
+    public OffscreenRenderer(WorldModel world, Viewport viewport, int tileWidth, int tileHeight) {
+        this.world = world;
+        this.viewport = viewport;
+        this.tileWidth = tileWidth;
+        this.tileHeight = tileHeight;
+        this.pixels = new int[getWidth() * getHeight()];
+    }
+
+    /**
+     * Renders the current state of the world. The returned buffer is reused
+     * by the next call, so copy it before handing it to another thread.
+     * @return row-major ARGB pixels, getWidth() x getHeight()
+     */
+    public int[] render() {
+        Arrays.fill(pixels, CLEAR_COLOR);
+
+        for (int row = 0; row < viewport.getNumRows(); row++) {
+            for (int col = 0; col < viewport.getNumCols(); col++) {
+                long worldPoint = viewport.viewportToWorld(PackedPoint.of(col, row));
+                PImage image = world.getBackgroundImageAt(worldPoint);
+                if (image != null) {
+                    drawTile(image, worldPoint);
+                }
+            }
+        }
+
+        for (Entity entity : world.getEntities()) {
+            long pos = entity.getCell();
+            if (viewport.contains(pos)) {
+                drawTile(entity.getCurrentImage(), pos);
+            }
+        }
+
+        return pixels;
+    }
+
+    public int getWidth() {
+        return viewport.getNumCols() * tileWidth;
+    }
+
+    public int getHeight() {
+        return viewport.getNumRows() * tileHeight;
+    }
+
+    private void drawTile(PImage img, long worldPoint) {
+        img.loadPixels();
+        if (img.pixels == null) {
+            return;
+        }
+        long viewPoint = viewport.worldToViewport(worldPoint);
+        PixelKernel.DEFAULT.composite(pixels, getWidth(), getHeight(),
+                PackedPoint.x(viewPoint) * tileWidth, PackedPoint.y(viewPoint) * tileHeight,
+                img.pixels, img.width, img.height);
+    }
+}
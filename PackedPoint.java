@@ -0,0 +1,64 @@
+/**
+ * A Point packed into a long, x in the high half and y in the low half,
+ * for code that runs for every cell or every step and should not make a
+ * Point each time. The helpers here match the ones on Point.
+ */
+final class PackedPoint {
+    private PackedPoint() {
+    }
+
+    static long of(int x, int y) {
+        return (long) x << 32 | (y & 0xFFFFFFFFL);
+    }
+
+    static long of(Point p) {
+        return of(p.x, p.y);
+    }
+
+    static int x(long p) {
+        return (int) (p >> 32);
+    }
+
+    static int y(long p) {
+        return (int) p;
+    }
+
+    static Point toPoint(long p) {
+        return new Point(x(p), y(p));
+    }
+
+    /**
+     * @return p moved dx columns and dy rows
+     */
+    static long offset(long p, int dx, int dy) {
+        return of(x(p) + dx, y(p) + dy);
+    }
+
+    /**
+     * @see Point#adjacent
+     */
+    static boolean adjacent(long p1, long p2) {
+        int dx = Math.abs(x(p1) - x(p2));
+        int dy = Math.abs(y(p1) - y(p2));
+        return dx + dy == 1;
+    }
+
+    static int distanceSquared(long p1, long p2) {
+        int dx = x(p1) - x(p2);
+        int dy = y(p1) - y(p2);
+        return dx * dx + dy * dy;
+    }
+
+    /**
+     * @return the number of cardinal steps between two points
+     */
+    static int manhattan(long p1, long p2) {
+        return Math.abs(x(p1) - x(p2)) + Math.abs(y(p1) - y(p2));
+    }
+
+    static boolean withinBounds(long p, int numRows, int numCols) {
+        int x = x(p);
+        int y = y(p);
+        return y >= 0 && y < numRows && x >= 0 && x < numCols;
+    }
+}
@@ -0,0 +1,52 @@
+/**
+ * Bulk operations over packed ARGB pixel arrays (the layout of PImage.pixels).
+ * There is a scalar implementation that always works and a SIMD one built on
+ * the JDK Vector API. The SIMD one lives in vector/ so the rest of the tree
+ * builds without the incubator module; it is used only when it has been
+ * compiled onto the class path and the JVM was started with
+ * --add-modules jdk.incubator.vector, e.g.
+ *
+ *   javac --add-modules jdk.incubator.vector -d out vector/VectorPixelKernel.java *.java
+ */
+interface PixelKernel {
+    /*
+     * Replaces every pixel whose RGB equals the RGB of maskColor with
+     * maskColor's RGB at the given alpha.
+     */
+    void colorKey(int[] pixels, int maskColor, int alpha);
+
+    /*
+     * Scales the RGB channels of every pixel by its alpha, rounding to
+     * nearest.
+     */
+    void premultiplyAlpha(int[] pixels);
+
+    /*
+     * Draws a straight-alpha source tile over an opaque destination buffer
+     * with its top-left corner at (dstX, dstY). Parts of the tile that fall
+     * outside the destination are clipped.
+     */
+    void composite(int[] dst, int dstWidth, int dstHeight, int dstX, int dstY,
+                   int[] src, int srcWidth, int srcHeight);
+
+    PixelKernel DEFAULT = select();
+
+    private static PixelKernel select() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            try {
+                return (PixelKernel) Class.forName("VectorPixelKernel").getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                // fall through to the scalar kernel
+            }
+        }
+        return new ScalarPixelKernel();
+    }
+
+    /*
+     * round(x / 255) for 0 <= x <= 255 * 255, without a division.
+     */
+    static int div255(int x) {
+        x += 128;
+        return (x + (x >> 8)) >> 8;
+    }
+}
@@ -0,0 +1,84 @@
+import java.util.Random;
+
+/**
+ * Rough throughput comparison of the pixel kernels against the loop
+ * ImageLoader.setAlpha used to run. Not part of the program; build with
+ * vector/VectorPixelKernel.java as described in PixelKernel and run with
+ *
+ *   java --add-modules jdk.incubator.vector PixelKernelBenchmark
+ *
+ * Prints megapixels per second for each variant.
+ */
+final class PixelKernelBenchmark {
+    private static final int PIXELS = 1 << 20;
+    private static final int WARMUP_ROUNDS = 200;
+    private static final int MEASURED_ROUNDS = 500;
+    private static final int MASK_COLOR = 0xffff00ff;
+    private static final int COLOR_MASK = 0xffffff;
+
+    public static void main(String[] args) {
+        int[] source = new int[PIXELS];
+        Random rand = new Random(42);
+        for (int i = 0; i < source.length; i++) {
+            // roughly a quarter of the pixels carry the key color
+            source[i] = rand.nextInt(4) == 0 ? MASK_COLOR : rand.nextInt();
+        }
+
+        PixelKernel scalar = new ScalarPixelKernel();
+        PixelKernel selected = PixelKernel.DEFAULT;
+        System.out.println("selected kernel: " + selected.getClass().getSimpleName());
+
+        report("legacy setAlpha loop", source, pixels -> legacyColorKey(pixels, MASK_COLOR, 0));
+        report("scalar colorKey", source, pixels -> scalar.colorKey(pixels, MASK_COLOR, 0));
+        report("selected colorKey", source, pixels -> selected.colorKey(pixels, MASK_COLOR, 0));
+        report("scalar premultiplyAlpha", source, scalar::premultiplyAlpha);
+        report("selected premultiplyAlpha", source, selected::premultiplyAlpha);
+
+        int[] tile = new int[32 * 32];
+        System.arraycopy(source, 0, tile, 0, tile.length);
+        report("scalar composite", source, pixels -> compositeAll(scalar, pixels, tile));
+        report("selected composite", source, pixels -> compositeAll(selected, pixels, tile));
+    }
+
+    private static void report(String name, int[] source, Kernel kernel) {
+        int[] pixels = new int[source.length];
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            System.arraycopy(source, 0, pixels, 0, source.length);
+            kernel.run(pixels);
+        }
+
+        long elapsed = 0;
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            System.arraycopy(source, 0, pixels, 0, source.length);
+            long start = System.nanoTime();
+            kernel.run(pixels);
+            elapsed += System.nanoTime() - start;
+        }
+
+        double megapixelsPerSecond = (double) PIXELS * MEASURED_ROUNDS / elapsed * 1000;
+        System.out.printf("%-28s %10.1f Mpx/s\n", name, megapixelsPerSecond);
+    }
+
+    private static void compositeAll(PixelKernel kernel, int[] dst, int[] tile) {
+        int width = 1024;
+        for (int y = 0; y < PIXELS / width; y += 32) {
+            for (int x = 0; x < width; x += 32) {
+                kernel.composite(dst, width, PIXELS / width, x, y, tile, 32, 32);
+            }
+        }
+    }
+
+    private static void legacyColorKey(int[] pixels, int maskColor, int alpha) {
+        int alphaValue = alpha << 24;
+        int nonAlpha = maskColor & COLOR_MASK;
+        for (int i = 0; i < pixels.length; i++) {
+            if ((pixels[i] & COLOR_MASK) == nonAlpha) {
+                pixels[i] = alphaValue | nonAlpha;
+            }
+        }
+    }
+
+    private interface Kernel {
+        void run(int[] pixels);
+    }
+}
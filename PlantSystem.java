@@ -0,0 +1,134 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs the activity of every sapling and tree in a world. Instead of an
+ * event each, a plant keeps the time it next acts in its row of the
+ * world's EntityStore, and the EventScheduler hands over to run() once per
+ * time slice to grow or check every plant that has come due, in one pass
+ * over the SAPLING and TREE tables. Plants that die or grow up during a
+ * pass are transformed together at the end of it, since a transform
+ * reorders the tables.
+ *
+ * A plant may act up to SLICE after it was due. Its next activity is
+ * still counted from when it was due, so the delay does not build up.
+ */
+final class PlantSystem {
+    /** The least time between two passes. */
+    static final double SLICE = 0.1;
+
+    private final WorldModel world;
+    private final ImageStore imageStore;
+    private final List<Entity> transforms;
+    private double lastPass;
+    private double nextPass;
+
+    PlantSystem(WorldModel world, ImageStore imageStore) {
+        this.world = world;
+        this.imageStore = imageStore;
+        this.transforms = new ArrayList<>();
+        this.lastPass = Double.NEGATIVE_INFINITY;
+        this.nextPass = Double.POSITIVE_INFINITY;
+    }
+
+    static boolean isPlant(EntityKind kind) {
+        return kind == EntityKind.SAPLING || kind == EntityKind.TREE;
+    }
+
+    WorldModel getWorld() {
+        return world;
+    }
+
+    ImageStore getImageStore() {
+        return imageStore;
+    }
+
+    /**
+     * @return the time run should next be called at, or positive infinity
+     * if nothing is scheduled
+     */
+    double getNextPass() {
+        return nextPass;
+    }
+
+    void schedule(Entity plant, double time) {
+        plant.setNextActivity(time);
+        nextPass = Math.min(nextPass, Math.max(time, lastPass + SLICE));
+    }
+
+    /**
+     * @return when the plant would have acted, NaN if it was not scheduled
+     */
+    double unschedule(Entity plant) {
+        double time = plant.getNextActivity();
+        if (!Double.isNaN(time)) {
+            plant.setNextActivity(Double.NaN);
+        }
+        return time;
+    }
+
+    /**
+     * Runs the activity of every plant due at or before the given time.
+     */
+    void run(EventScheduler scheduler, double time) {
+        lastPass = time;
+        double next = Math.min(growSaplings(time), checkTrees(time));
+        nextPass = next == Double.POSITIVE_INFINITY ? next : Math.max(next, time + SLICE);
+
+        // schedules the new trees, which can only bring nextPass forward
+        for (Entity plant : transforms) {
+            plant.transformPlant(world, scheduler, imageStore);
+        }
+        transforms.clear();
+    }
+
+    /*
+       The same as Entity.executeSaplingActivity for each due sapling.
+       Returns the earliest time a sapling is due next.
+     */
+    private double growSaplings(double time) {
+        EntityStore.Table table = world.getEntityTable(EntityKind.SAPLING);
+        double next = Double.POSITIVE_INFINITY;
+        for (int row = 0; row < table.size; row++) {
+            double due = table.nextActivity[row];
+            // false for NaN, so unscheduled saplings are passed over
+            if (due <= time) {
+                int health = ++table.health[row];
+                world.entityChanged(table.entities[row]);
+                if (health <= 0 || health >= table.healthLimit[row]) {
+                    transforms.add(table.entities[row]);
+                    continue;
+                }
+                due += table.actionPeriod[row];
+                table.nextActivity[row] = due;
+            }
+            if (due < next) {
+                next = due;
+            }
+        }
+        return next;
+    }
+
+    /*
+       The same as Entity.executeTreeActivity for each due tree.
+     */
+    private double checkTrees(double time) {
+        EntityStore.Table table = world.getEntityTable(EntityKind.TREE);
+        double next = Double.POSITIVE_INFINITY;
+        for (int row = 0; row < table.size; row++) {
+            double due = table.nextActivity[row];
+            if (due <= time) {
+                if (table.health[row] <= 0) {
+                    transforms.add(table.entities[row]);
+                    continue;
+                }
+                due += table.actionPeriod[row];
+                table.nextActivity[row] = due;
+            }
+            if (due < next) {
+                next = due;
+            }
+        }
+        return next;
+    }
+}
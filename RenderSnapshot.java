@@ -0,0 +1,121 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import processing.core.PImage;
+
+/**
+ * An immutable picture of the visible part of the world at one point in
+ * simulation time. The simulation thread builds a new snapshot after every
+ * slice and the render thread draws whichever snapshot was published last,
+ * so neither side ever reads state the other is in the middle of changing.
+ */
+public final class RenderSnapshot {
+    private final double time;
+    private final int col;
+    private final int row;
+    private final int numRows;
+    private final int numCols;
+    private final Background[] backgrounds;
+    private final List<Sprite> sprites;
+
+    private RenderSnapshot(double time, int col, int row, int numRows, int numCols, Background[] backgrounds, List<Sprite> sprites) {
+        this.time = time;
+        this.col = col;
+        this.row = row;
+        this.numRows = numRows;
+        this.numCols = numCols;
+        this.backgrounds = backgrounds;
+        this.sprites = Collections.unmodifiableList(sprites);
+    }
+
+    /**
+     * Captures the cells covered by the viewport. Must be called from the
+     * thread that owns the world (the simulation thread).
+     * @param world - the world being simulated
+     * @param col - left-most world column in view
+     * @param row - top-most world row in view
+     * @param numRows - number of rows in view
+     * @param numCols - number of columns in view
+     * @param time - current scheduler time
+     * @return a snapshot that is safe to hand to another thread
+     */
+    public static RenderSnapshot capture(WorldModel world, int col, int row, int numRows, int numCols, double time) {
+        Background[] backgrounds = new Background[numRows * numCols];
+        List<Sprite> sprites = new ArrayList<>();
+
+        for (int r = 0; r < numRows; r++) {
+            for (int c = 0; c < numCols; c++) {
+                long worldPoint = PackedPoint.of(col + c, row + r);
+                if (world.withinBounds(worldPoint)) {
+                    backgrounds[r * numCols + c] = world.getBackgroundCell(worldPoint);
+                    Entity occupant = world.getOccupantAt(worldPoint);
+                    if (occupant != null) {
+                        sprites.add(new Sprite(c, r, occupant.getCurrentImage()));
+                    }
+                }
+            }
+        }
+
+        return new RenderSnapshot(time, col, row, numRows, numCols, backgrounds, sprites);
+    }
+
+    /**
+     * Returns the background in view at the given viewport cell, or null
+     * if that cell lies outside the world.
+     */
+    public Background getBackground(int viewCol, int viewRow) {
+        return backgrounds[viewRow * numCols + viewCol];
+    }
+
+    public List<Sprite> getSprites() {
+        return sprites;
+    }
+
+    public double getTime() {
+        return time;
+    }
+
+    public int getCol() {
+        return col;
+    }
+
+    public int getRow() {
+        return row;
+    }
+
+    public int getNumRows() {
+        return numRows;
+    }
+
+    public int getNumCols() {
+        return numCols;
+    }
+
+    /**
+     * One entity frame to draw, in viewport coordinates.
+     */
+    public static final class Sprite {
+        private final int viewCol;
+        private final int viewRow;
+        private final PImage image;
+
+        private Sprite(int viewCol, int viewRow, PImage image) {
+            this.viewCol = viewCol;
+            this.viewRow = viewRow;
+            this.image = image;
+        }
+
+        public int getViewCol() {
+            return viewCol;
+        }
+
+        public int getViewRow() {
+            return viewRow;
+        }
+
+        public PImage getImage() {
+            return image;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/**
+ * One pixel at a time. Used when the Vector API is not available and for
+ * the tail of arrays whose length is not a multiple of the vector width.
+ */
+final class ScalarPixelKernel implements PixelKernel {
+    private static final int COLOR_MASK = 0xffffff;
+
+    public void colorKey(int[] pixels, int maskColor, int alpha) {
+        colorKey(pixels, 0, pixels.length, maskColor, alpha);
+    }
+
+    public void premultiplyAlpha(int[] pixels) {
+        premultiplyAlpha(pixels, 0, pixels.length);
+    }
+
+    public void composite(int[] dst, int dstWidth, int dstHeight, int dstX, int dstY,
+                          int[] src, int srcWidth, int srcHeight) {
+        int startCol = Math.max(0, -dstX);
+        int endCol = Math.min(srcWidth, dstWidth - dstX);
+        int startRow = Math.max(0, -dstY);
+        int endRow = Math.min(srcHeight, dstHeight - dstY);
+
+        for (int row = startRow; row < endRow; row++) {
+            int srcOffset = row * srcWidth;
+            int dstOffset = (row + dstY) * dstWidth + dstX;
+            compositeRow(dst, dstOffset + startCol, src, srcOffset + startCol, endCol - startCol);
+        }
+    }
+
+    static void colorKey(int[] pixels, int from, int to, int maskColor, int alpha) {
+        int nonAlpha = maskColor & COLOR_MASK;
+        int replacement = (alpha << 24) | nonAlpha;
+        for (int i = from; i < to; i++) {
+            if ((pixels[i] & COLOR_MASK) == nonAlpha) {
+                pixels[i] = replacement;
+            }
+        }
+    }
+
+    static void premultiplyAlpha(int[] pixels, int from, int to) {
+        for (int i = from; i < to; i++) {
+            int p = pixels[i];
+            int a = p >>> 24;
+            int r = PixelKernel.div255(((p >> 16) & 0xff) * a);
+            int g = PixelKernel.div255(((p >> 8) & 0xff) * a);
+            int b = PixelKernel.div255((p & 0xff) * a);
+            pixels[i] = (a << 24) | (r << 16) | (g << 8) | b;
+        }
+    }
+
+    static void compositeRow(int[] dst, int dstOffset, int[] src, int srcOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            int s = src[srcOffset + i];
+            int a = s >>> 24;
+            if (a == 0xff) {
+                dst[dstOffset + i] = s;
+            } else if (a != 0) {
+                int d = dst[dstOffset + i];
+                int na = 0xff - a;
+                int r = PixelKernel.div255(((s >> 16) & 0xff) * a + ((d >> 16) & 0xff) * na);
+                int g = PixelKernel.div255(((s >> 8) & 0xff) * a + ((d >> 8) & 0xff) * na);
+                int b = PixelKernel.div255((s & 0xff) * a + (d & 0xff) * na);
+                dst[dstOffset + i] = 0xff000000 | (r << 16) | (g << 8) | b;
+            }
+        }
+    }
+}
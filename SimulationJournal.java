@@ -0,0 +1,271 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Appends every event the scheduler runs, and every change it makes to the
+ * world, to journal files kept next to the checkpoints. Records are
+ * collected in memory on the simulation thread and handed to the
+ * Checkpointer's writer thread in batches. JournalReplay rebuilds the world
+ * at any time from a checkpoint plus the journal that follows it.
+ *
+ * Each checkpoint starts a new segment, journal_<sequence>.bin, holding
+ * what happened between that checkpoint and the next. Nothing is journaled
+ * before the first checkpoint. Entities are named by the same handles the
+ * checkpoints use. All values are big-endian.
+ *
+ *   magic:int  version:int  sequence:long, then records until end of file:
+ *   EVENT:      type:byte time:double handle:int kind:byte (before the event runs)
+ *   STATE:      type:byte handle:int imageIndex:int health:int resourceCount:int
+ *   ADD:        type:byte handle:int kind:byte id:string x:int y:int imageIndex:int
+ *               resourceLimit:int resourceCount:int actionPeriod:double
+ *               animationPeriod:double health:int healthLimit:int
+ *   REMOVE:     type:byte handle:int
+ *   MOVE:       type:byte handle:int x:int y:int
+ *   ID:         type:byte index:int id:string (background ids, numbered per segment)
+ *   BACKGROUND: type:byte x:int y:int index:int (-1 for no background)
+ *   TIME:       type:byte time:double (before changes made outside any event)
+ */
+public final class SimulationJournal {
+    static final int MAGIC = 0x56574a4c; // "VWJL"
+    static final int VERSION = 1;
+    static final byte EVENT = 0;
+    static final byte STATE = 1;
+    static final byte ADD = 2;
+    static final byte REMOVE = 3;
+    static final byte MOVE = 4;
+    static final byte ID = 5;
+    static final byte BACKGROUND = 6;
+    static final byte TIME = 7;
+    static final int NO_BACKGROUND = -1;
+    static final int NO_HANDLE = -1;
+
+    private static final int BATCH_SIZE = 1 << 16;
+
+    private final File directory;
+    private final ExecutorService writer;
+    private final EventScheduler scheduler;
+    private final Map<Entity, Integer> handles;
+    private final int[] nextHandle;
+    private final Map<String, Integer> ids;
+    private ByteArrayOutputStream batch;
+    private DataOutputStream out;
+    private File segment;
+    private boolean inEvent;
+    private double lastTime = Double.NaN;
+
+    SimulationJournal(File directory, ExecutorService writer, EventScheduler scheduler,
+                      Map<Entity, Integer> handles, int[] nextHandle) {
+        this.directory = directory;
+        this.writer = writer;
+        this.scheduler = scheduler;
+        this.handles = handles;
+        this.nextHandle = nextHandle;
+        this.ids = new HashMap<>();
+        this.batch = new ByteArrayOutputStream(BATCH_SIZE);
+        this.out = new DataOutputStream(batch);
+    }
+
+    static String fileName(long sequence) {
+        return String.format("journal_%06d.bin", sequence);
+    }
+
+    /**
+     * Closes the current segment and starts the one following a checkpoint.
+     * Call right after the checkpoint is captured.
+     */
+    void startSegment(long sequence) {
+        flush();
+        ids.clear();
+        lastTime = Double.NaN;
+        File file = new File(directory, fileName(sequence));
+        this.segment = file;
+        writer.execute(() -> {
+            try {
+                if (!directory.isDirectory() && !directory.mkdirs()) {
+                    throw new IOException("Cannot create " + directory);
+                }
+                ByteArrayOutputStream header = new ByteArrayOutputStream();
+                DataOutputStream headerOut = new DataOutputStream(header);
+                headerOut.writeInt(MAGIC);
+                headerOut.writeInt(VERSION);
+                headerOut.writeLong(sequence);
+                Files.write(file.toPath(), header.toByteArray());
+            } catch (IOException e) {
+                System.err.println(e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Queues whatever has been recorded since the last batch to be written.
+     */
+    void flush() {
+        if (segment == null || batch.size() == 0) {
+            return;
+        }
+        File file = segment;
+        byte[] bytes = batch.toByteArray();
+        batch.reset();
+        writer.execute(() -> {
+            try {
+                Files.write(file.toPath(), bytes, StandardOpenOption.APPEND);
+            } catch (IOException e) {
+                System.err.println(e.getMessage());
+            }
+        });
+    }
+
+    void eventStarted(Event event) {
+        if (segment == null) {
+            return;
+        }
+        inEvent = true;
+        lastTime = event.getTime();
+        try {
+            out.writeByte(EVENT);
+            out.writeDouble(event.getTime());
+            out.writeInt(handles.getOrDefault(event.getEntity(), NO_HANDLE));
+            out.writeByte(event.getAction().getKind().ordinal());
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    void eventFinished(Event event) {
+        inEvent = false;
+        entityChanged(event.getEntity());
+        if (batch.size() >= BATCH_SIZE) {
+            flush();
+        }
+    }
+
+    void entityChanged(Entity entity) {
+        Integer handle = handles.get(entity);
+        if (segment == null || handle == null) {
+            return;
+        }
+        try {
+            markTime();
+            out.writeByte(STATE);
+            out.writeInt(handle);
+            out.writeInt(entity.getImageIndex());
+            out.writeInt(entity.getHealth());
+            out.writeInt(entity.getResourceCount());
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    void entityAdded(Entity entity) {
+        if (segment == null) {
+            return;
+        }
+        int handle = handles.computeIfAbsent(entity, e -> nextHandle[0]++);
+        try {
+            markTime();
+            out.writeByte(ADD);
+            out.writeInt(handle);
+            out.writeByte(entity.getKind().ordinal());
+            writeString(entity.getId());
+            out.writeInt(entity.getX());
+            out.writeInt(entity.getY());
+            out.writeInt(entity.getImageIndex());
+            out.writeInt(entity.getResourceLimit());
+            out.writeInt(entity.getResourceCount());
+            out.writeDouble(entity.getActionPeriod());
+            out.writeDouble(entity.isAnimated() ? entity.getAnimationPeriod() : 0);
+            out.writeInt(entity.getHealth());
+            out.writeInt(entity.getHealthLimit());
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    void entityRemoved(Entity entity) {
+        Integer handle = handles.get(entity);
+        if (segment == null || handle == null) {
+            return;
+        }
+        try {
+            markTime();
+            out.writeByte(REMOVE);
+            out.writeInt(handle);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    void entityMoved(Entity entity, long pos) {
+        Integer handle = handles.get(entity);
+        if (segment == null || handle == null) {
+            return;
+        }
+        try {
+            markTime();
+            out.writeByte(MOVE);
+            out.writeInt(handle);
+            out.writeInt(PackedPoint.x(pos));
+            out.writeInt(PackedPoint.y(pos));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    void backgroundChanged(Point pos, Background background) {
+        if (segment == null) {
+            return;
+        }
+        try {
+            markTime();
+            int index = NO_BACKGROUND;
+            if (background != null) {
+                Integer known = ids.get(background.id);
+                if (known == null) {
+                    known = ids.size();
+                    ids.put(background.id, known);
+                    out.writeByte(ID);
+                    out.writeInt(known);
+                    writeString(background.id);
+                }
+                index = known;
+            }
+            out.writeByte(BACKGROUND);
+            out.writeInt(pos.x);
+            out.writeInt(pos.y);
+            out.writeInt(index);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        if (!inEvent && batch.size() >= BATCH_SIZE) {
+            flush();
+        }
+    }
+
+    /*
+       Changes made between events, such as those from a click or from a
+       PlantSystem pass, are stamped
+       with the scheduler's time so a replay knows when they happened.
+     */
+    private void markTime() throws IOException {
+        double time = scheduler.getCurrentTime();
+        if (!inEvent && time != lastTime) {
+            out.writeByte(TIME);
+            out.writeDouble(time);
+            lastTime = time;
+        }
+    }
+
+    private void writeString(String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+}
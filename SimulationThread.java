@@ -0,0 +1,141 @@
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Runs the EventScheduler on its own thread so that simulation throughput
+ * and frame rate do not hold each other back. After every slice the thread
+ * publishes a RenderSnapshot of the visible region; the snapshot being built
+ * (the back buffer) is only swapped in for the one being drawn (the front
+ * buffer) once it is complete.
+ *
+ * Anything else that needs to touch the world (mouse clicks, for example)
+ * must go through submit so it runs on the simulation thread between slices.
+ *
+ * If a slice throws, the thread stops and keeps the exception; checkFailure
+ * hands it to the render thread so a stopped world does not go on being
+ * drawn as though it were still running.
+ */
+public final class SimulationThread implements Runnable {
+    private static final long SLICE_MILLIS = 5;
+
+    private final WorldModel world;
+    private final EventScheduler scheduler;
+    private final Viewport viewport;
+    private final double timeScale;
+    private final ConcurrentLinkedQueue<Runnable> tasks;
+    private final Thread thread;
+
+    private Checkpointer checkpointer;
+    private volatile RenderSnapshot front;
+    private volatile boolean running;
+    private volatile RuntimeException failure;
+    private long startTimeMillis;
+
+    public SimulationThread(WorldModel world, EventScheduler scheduler, Viewport viewport, double timeScale) {
+        this.world = world;
+        this.scheduler = scheduler;
+        this.viewport = viewport;
+        this.timeScale = timeScale;
+        this.tasks = new ConcurrentLinkedQueue<>();
+        this.thread = new Thread(this, "simulation");
+        this.thread.setDaemon(true);
+        this.front = capture();
+    }
+
+    public void start(long startTimeMillis) {
+        this.startTimeMillis = startTimeMillis;
+        this.running = true;
+        thread.start();
+    }
+
+    public void stop() {
+        running = false;
+        thread.interrupt();
+    }
+
+    /**
+     * Takes checkpoints between slices, on the simulation thread.
+     * @param checkpointer - the checkpointer to use, or null for none
+     */
+    public void setCheckpointer(Checkpointer checkpointer) {
+        this.checkpointer = checkpointer;
+    }
+
+    /**
+     * Queues work that mutates the world; it runs on the simulation thread
+     * at the next slice boundary.
+     * @param task - the mutation to perform
+     */
+    public void submit(Runnable task) {
+        tasks.add(task);
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Throws what stopped the simulation thread, if a slice threw.
+     */
+    public void checkFailure() {
+        RuntimeException failure = this.failure;
+        if (failure != null) {
+            throw new IllegalStateException("The simulation stopped", failure);
+        }
+    }
+
+    /**
+     * @return the most recently completed snapshot, never null
+     */
+    public RenderSnapshot getSnapshot() {
+        return front;
+    }
+
+    public void run() {
+        while (running) {
+            try {
+                slice();
+            } catch (RuntimeException e) {
+                failure = e;
+                running = false;
+                return;
+            }
+
+            try {
+                Thread.sleep(SLICE_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void slice() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            task.run();
+        }
+
+        double appTime = (System.currentTimeMillis() - startTimeMillis) * 0.001;
+        double sliceTime = appTime / timeScale - scheduler.getCurrentTime();
+        if (sliceTime > 0) {
+            scheduler.updateOnTime(sliceTime);
+        }
+        if (checkpointer != null) {
+            checkpointer.maybeCheckpoint(world, scheduler);
+        }
+
+        RenderSnapshot back = capture();
+        front = back;
+    }
+
+    private RenderSnapshot capture() {
+        // the render thread may be panning or zooming meanwhile
+        Viewport.Position at = viewport.getPosition();
+        if (at.isSummarized()) {
+            // WorldView draws from the WorldSummary instead; don't copy every visible cell
+            return RenderSnapshot.capture(world, at.getCol(), at.getRow(), 0, 0, scheduler.getCurrentTime());
+        }
+        return RenderSnapshot.capture(world, at.getCol(), at.getRow(),
+                viewport.getNumRows() * at.getScale(), viewport.getNumCols() * at.getScale(), scheduler.getCurrentTime());
+    }
+}
@@ -0,0 +1,148 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.zip.CRC32C;
+
+import processing.core.PApplet;
+import processing.core.PImage;
+
+/**
+ * An on-disk cache of sprites that have already been decoded and color
+ * keyed, stored as raw ARGB pixels. An entry is only used when the source
+ * image still has the size, modification time and contents it had when the
+ * entry was written, and was keyed with the same mask color. The size and
+ * time turn most stale entries away without reading the source, and the
+ * checksum catches an edit that keeps the size within the file system's
+ * timestamp resolution.
+ */
+public final class SpriteCache {
+    private static final int MAGIC = 0x53505232; // "SPR2"
+    private static final int HEADER_BYTES = 4 + 8 + 8 + 8 + 4 + 4 + 4 + 4;
+    private static final int NO_MASK = 0;
+
+    private final File directory;
+
+    public SpriteCache(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Looks up a keyed sprite.
+     * @param source - the image file the sprite was decoded from
+     * @param keyed - whether the sprite was color keyed
+     * @param maskColor - the color that was keyed out, if any
+     * @return the cached image, or null if there is no valid entry
+     */
+    public PImage read(File source, boolean keyed, int maskColor) {
+        File entry = entryFor(source, keyed, maskColor);
+        if (!entry.isFile()) {
+            return null;
+        }
+
+        try (RandomAccessFile file = new RandomAccessFile(entry, "r");
+             FileChannel channel = file.getChannel()) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            readFully(channel, header);
+            header.flip();
+
+            if (header.getInt() != MAGIC
+                    || header.getLong() != source.lastModified()
+                    || header.getLong() != source.length()
+                    || header.getLong() != checksum(source)
+                    || header.getInt() != (keyed ? 1 : 0)
+                    || header.getInt() != (keyed ? maskColor : NO_MASK)) {
+                return null;
+            }
+            int width = header.getInt();
+            int height = header.getInt();
+
+            ByteBuffer body = ByteBuffer.allocate(width * height * Integer.BYTES);
+            readFully(channel, body);
+            body.flip();
+
+            PImage img = new PImage(width, height, PApplet.ARGB);
+            img.loadPixels();
+            body.asIntBuffer().get(img.pixels);
+            img.updatePixels();
+            return img;
+        } catch (IOException | RuntimeException e) {
+            // a stale or truncated entry just means we decode again
+            return null;
+        }
+    }
+
+    /**
+     * Stores a decoded (and possibly keyed) sprite. Failures are ignored;
+     * the cache is only an optimization.
+     */
+    public void write(File source, boolean keyed, int maskColor, PImage img) {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            return;
+        }
+
+        File entry = entryFor(source, keyed, maskColor);
+        File temp = new File(directory, entry.getName() + ".tmp" + Thread.currentThread().getId());
+
+        long lastModified = source.lastModified();
+        long length = source.length();
+        long checksum;
+        try {
+            checksum = checksum(source);
+        } catch (IOException e) {
+            return;
+        }
+        img.loadPixels();
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + img.pixels.length * Integer.BYTES);
+        buffer.putInt(MAGIC)
+                .putLong(lastModified)
+                .putLong(length)
+                .putLong(checksum)
+                .putInt(keyed ? 1 : 0)
+                .putInt(keyed ? maskColor : NO_MASK)
+                .putInt(img.width)
+                .putInt(img.height);
+        buffer.asIntBuffer().put(img.pixels);
+        buffer.position(buffer.capacity());
+        buffer.flip();
+
+        try (RandomAccessFile file = new RandomAccessFile(temp, "rw");
+             FileChannel channel = file.getChannel()) {
+            file.setLength(0);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } catch (IOException e) {
+            temp.delete();
+            return;
+        }
+
+        if (!temp.renameTo(entry)) {
+            entry.delete();
+            if (!temp.renameTo(entry)) {
+                temp.delete();
+            }
+        }
+    }
+
+    private File entryFor(File source, boolean keyed, int maskColor) {
+        String name = source.getPath() + (keyed ? "#" + Integer.toHexString(maskColor) : "");
+        return new File(directory, Integer.toHexString(name.hashCode()) + "_" + source.getName() + ".argb");
+    }
+
+    private static long checksum(File source) throws IOException {
+        CRC32C crc = new CRC32C();
+        crc.update(Files.readAllBytes(source.toPath()));
+        return crc.getValue();
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new IOException("unexpected end of cache entry");
+            }
+        }
+    }
+}
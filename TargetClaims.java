@@ -0,0 +1,94 @@
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Records which entity has claimed which target, so that seekers spread
+ * out over the targets there are instead of all chasing the nearest one.
+ * A claimant holds at most one claim, which lapses at a given time unless
+ * it is renewed. See WorldModel.claimNearest.
+ */
+final class TargetClaims {
+    private final Map<Entity, Claim> byTarget;
+    private final Map<Entity, Entity> byClaimant;
+
+    TargetClaims() {
+        this.byTarget = new LinkedHashMap<>();
+        this.byClaimant = new LinkedHashMap<>();
+    }
+
+    /**
+     * @return true if someone other than the claimant holds a claim on the
+     * target that has not lapsed by the given time
+     */
+    boolean heldByOther(Entity target, Entity claimant, double time) {
+        Claim claim = byTarget.get(target);
+        return claim != null && claim.claimant != claimant && claim.until >= time;
+    }
+
+    /**
+     * @return true if the claimant holds a claim on the target that has
+     * not lapsed by the given time
+     */
+    boolean heldBy(Entity target, Entity claimant, double time) {
+        Claim claim = byTarget.get(target);
+        return claim != null && claim.claimant == claimant && claim.until >= time;
+    }
+
+    /**
+     * Claims a target until the given time, giving up whatever the
+     * claimant held before. Renewing a claim only moves its time.
+     */
+    void claim(Entity target, Entity claimant, double until) {
+        Claim claim = byTarget.get(target);
+        if (claim != null && claim.claimant == claimant) {
+            claim.until = until;
+            return;
+        }
+        release(claimant, false);
+        if (claim != null) {
+            // a lapsed claim taken over
+            byClaimant.remove(claim.claimant);
+        }
+        byTarget.put(target, new Claim(claimant, until));
+        byClaimant.put(claimant, target);
+    }
+
+    /**
+     * Ends the claim an entity holds and, if asTarget, any claim on it.
+     */
+    void release(Entity entity, boolean asTarget) {
+        Entity target = byClaimant.remove(entity);
+        if (target != null) {
+            byTarget.remove(target);
+        }
+        if (asTarget) {
+            Claim claim = byTarget.remove(entity);
+            if (claim != null) {
+                byClaimant.remove(claim.claimant);
+            }
+        }
+    }
+
+    void clear() {
+        byTarget.clear();
+        byClaimant.clear();
+    }
+
+    /**
+     * @return every claim by its target, lapsed or not
+     */
+    Map<Entity, Claim> getClaims() {
+        return Collections.unmodifiableMap(byTarget);
+    }
+
+    static final class Claim {
+        final Entity claimant;
+        double until;
+
+        private Claim(Entity claimant, double until) {
+            this.claimant = claimant;
+            this.until = until;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Remembers the target each seeker last found, so that it can head for it
+ * again without searching the world every step. A seeker's target is
+ * forgotten when the target leaves the world, moves or changes kind, or
+ * when an entity of a kind the seeker looks for turns up nearer to the
+ * seeker than its target; the next search is then a full one. See
+ * WorldModel.trackNearest.
+ */
+final class TargetTracker {
+    private final Map<Entity, Tracked> bySeeker;
+    private final Map<Entity, Set<Entity>> byTarget;
+    private final Map<EntityKind, Set<Entity>> byKind;
+
+    TargetTracker() {
+        this.bySeeker = new LinkedHashMap<>();
+        this.byTarget = new LinkedHashMap<>();
+        this.byKind = new EnumMap<>(EntityKind.class);
+    }
+
+    /**
+     * @return the kinds as a bit set of their ordinals
+     */
+    static int mask(List<EntityKind> kinds) {
+        int mask = 0;
+        for (EntityKind kind : kinds) {
+            mask |= 1 << kind.ordinal();
+        }
+        return mask;
+    }
+
+    /**
+     * @return the seeker's target if it was found for the same kinds and
+     * has not been forgotten since, otherwise null
+     */
+    Entity get(Entity seeker, int kinds) {
+        Tracked tracked = bySeeker.get(seeker);
+        return tracked != null && tracked.kinds == kinds ? tracked.target : null;
+    }
+
+    /**
+     * Remembers a target for a seeker in place of whatever it had.
+     */
+    void track(Entity seeker, int kinds, Entity target) {
+        forgetSeeker(seeker);
+        bySeeker.put(seeker, new Tracked(target, kinds));
+        byTarget.computeIfAbsent(target, t -> new LinkedHashSet<>()).add(seeker);
+        for (EntityKind kind : EntityKind.values()) {
+            if ((kinds & 1 << kind.ordinal()) != 0) {
+                byKind.computeIfAbsent(kind, k -> new LinkedHashSet<>()).add(seeker);
+            }
+        }
+    }
+
+    /**
+     * Forgets what an entity was after and every seeker's hold on it.
+     */
+    void forget(Entity entity) {
+        forgetSeeker(entity);
+        forgetTarget(entity);
+    }
+
+    /**
+     * Forgets every seeker's hold on an entity, leaving its own target.
+     */
+    void forgetTarget(Entity entity) {
+        Set<Entity> seekers = byTarget.get(entity);
+        if (seekers != null) {
+            for (Entity seeker : seekers.toArray(new Entity[0])) {
+                forgetSeeker(seeker);
+            }
+        }
+    }
+
+    /**
+     * Called when an entity has come into the world, or to a new cell, as
+     * its current kind. Seekers that look for that kind and are nearer to
+     * it than to their own target forget their target.
+     */
+    void appeared(Entity entity) {
+        Set<Entity> seekers = byKind.get(entity.getKind());
+        if (seekers == null || seekers.isEmpty()) {
+            return;
+        }
+        long pos = entity.getCell();
+        for (Entity seeker : seekers.toArray(new Entity[0])) {
+            long from = seeker.getCell();
+            if (PackedPoint.distanceSquared(from, pos) < PackedPoint.distanceSquared(from, bySeeker.get(seeker).target.getCell())) {
+                forgetSeeker(seeker);
+            }
+        }
+    }
+
+    void clear() {
+        bySeeker.clear();
+        byTarget.clear();
+        byKind.clear();
+    }
+
+    /**
+     * @return every remembered target by its seeker
+     */
+    Map<Entity, Tracked> getTracked() {
+        return Collections.unmodifiableMap(bySeeker);
+    }
+
+    /**
+     * Forgets what a seeker was after.
+     */
+    void forgetSeeker(Entity seeker) {
+        Tracked tracked = bySeeker.remove(seeker);
+        if (tracked == null) {
+            return;
+        }
+        Set<Entity> seekers = byTarget.get(tracked.target);
+        seekers.remove(seeker);
+        if (seekers.isEmpty()) {
+            byTarget.remove(tracked.target);
+        }
+        for (EntityKind kind : EntityKind.values()) {
+            if ((tracked.kinds & 1 << kind.ordinal()) != 0) {
+                byKind.get(kind).remove(seeker);
+            }
+        }
+    }
+
+    static final class Tracked {
+        final Entity target;
+        /** the kinds looked for; see mask */
+        final int kinds;
+
+        private Tracked(Entity target, int kinds) {
+            this.target = target;
+            this.kinds = kinds;
+        }
+    }
+}
@@ -6,8 +6,16 @@
  * that starting point.
  */
 public final class Viewport {
-    private int row;
-    private int col;
+    // at this scale and beyond, sprites are too small to draw one by one
+    public static final int SUMMARY_SCALE = 4;
+
+    /*
+       Read by the simulation thread when it captures a RenderSnapshot.
+       Where the view is and how far it is zoomed are replaced together,
+       so a reader never sees a new row with an old column, or a new scale
+       with the origin that went with the old one.
+     */
+    private volatile Position position = new Position(0, 0, 1);
     private final int numRows;
     private final int numCols;
 
@@ -23,7 +31,19 @@ public final class Viewport {
      * @return - true if the location is in the viewport, and false otherwise
      */
     public boolean contains(Point p) {
-        return p.y >= row && p.y < row + numRows && p.x >= col && p.x < col + numCols;
+        return contains(p.x, p.y);
+    }
+
+    /**
+     * contains for a PackedPoint.
+     */
+    boolean contains(long p) {
+        return contains(PackedPoint.x(p), PackedPoint.y(p));
+    }
+
+    private boolean contains(int x, int y) {
+        Position at = position;
+        return y >= at.row && y < at.row + numRows * at.scale && x >= at.col && x < at.col + numCols * at.scale;
     }
 
     /**
@@ -32,8 +52,14 @@ public final class Viewport {
      * @param row - the row we want to move our camera / viewport to
      */
     public void shift(int col, int row) {
-        this.col = col;
-        this.row = row;
+        moveTo(col, row, position.scale);
+    }
+
+    /**
+     * Shifts and zooms the viewport in one step; see shift and setScale.
+     */
+    public void moveTo(int col, int row, int scale) {
+        this.position = new Position(col, row, Math.max(1, scale));
     }
 
     /**
@@ -45,7 +71,16 @@ public final class Viewport {
      * @return - location in the context of our viewport instead of world model
      */
     public Point worldToViewport(int col, int row) {
-        return new Point(col - this.col, row - this.row);
+        Position at = position;
+        return new Point(col - at.col, row - at.row);
+    }
+
+    /**
+     * worldToViewport for a PackedPoint.
+     */
+    long worldToViewport(long p) {
+        Position at = position;
+        return PackedPoint.offset(p, -at.col, -at.row);
     }
 
     /**
@@ -59,15 +94,33 @@ public final class Viewport {
      * @return - location in the context of our world model, not viewport
      */
     public Point viewportToWorld(int col, int row) {
-        return new Point(col + this.col, row + this.row);
+        Position at = position;
+        return new Point(col + at.col, row + at.row);
+    }
+
+    /**
+     * viewportToWorld for a PackedPoint.
+     */
+    long viewportToWorld(long p) {
+        Position at = position;
+        return PackedPoint.offset(p, at.col, at.row);
     }
 
     public int getRow() {
-        return row;
+        return position.row;
     }
 
     public int getCol() {
-        return col;
+        return position.col;
+    }
+
+    /**
+     * @return where the view is and its scale, all as of the same moment;
+     * read this once rather than getCol, getRow and getScale in turn when
+     * another thread may be moving the view
+     */
+    public Position getPosition() {
+        return position;
     }
 
     public int getNumRows() {
@@ -77,4 +130,72 @@ public final class Viewport {
     public int getNumCols() {
         return numCols;
     }
+
+    public int getScale() {
+        return position.scale;
+    }
+
+    /**
+     * Zooms the viewport so that each screen tile covers scale x scale
+     * world cells.
+     * @param scale - cells per tile along each axis, at least 1
+     */
+    public void setScale(int scale) {
+        Position at = position;
+        moveTo(at.col, at.row, scale);
+    }
+
+    /**
+     * @return true if the view is zoomed out far enough to draw from the
+     * WorldSummary instead of individual sprites
+     */
+    public boolean isSummarized() {
+        return position.isSummarized();
+    }
+
+    /**
+     * @return number of world rows visible at the current scale
+     */
+    public int getVisibleRows() {
+        return numRows * position.scale;
+    }
+
+    /**
+     * @return number of world columns visible at the current scale
+     */
+    public int getVisibleCols() {
+        return numCols * position.scale;
+    }
+
+    /**
+     * The top-left world cell in view and the scale, as one value.
+     */
+    public static final class Position {
+        private final int col;
+        private final int row;
+        // world cells per screen tile along each axis; 1 is the normal view
+        private final int scale;
+
+        private Position(int col, int row, int scale) {
+            this.col = col;
+            this.row = row;
+            this.scale = scale;
+        }
+
+        public int getCol() {
+            return col;
+        }
+
+        public int getRow() {
+            return row;
+        }
+
+        public int getScale() {
+            return scale;
+        }
+
+        public boolean isSummarized() {
+            return scale >= SUMMARY_SCALE;
+        }
+    }
 }
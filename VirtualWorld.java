@@ -1,5 +1,8 @@
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.InvalidPathException;
+import java.nio.file.NoSuchFileException;
 import java.util.*;
 import java.util.function.Predicate;
 
@@ -25,6 +28,22 @@ public final class VirtualWorld extends PApplet {
     private static final String FAST_FLAG = "-fast";
     private static final String FASTER_FLAG = "-faster";
     private static final String FASTEST_FLAG = "-fastest";
+    private static final String THREADED_FLAG = "-threaded";
+    private static final String RECORD_FLAG = "-record=";
+    private static final String RECORD_INTERVAL_FLAG = "-record-interval=";
+    private static final String RECORD_DROP_FLAG = "-record-drop-frames";
+    private static final double DEFAULT_RECORD_INTERVAL = 1.0;
+    private static final String CHECKPOINT_FLAG = "-checkpoint=";
+    private static final String CHECKPOINT_INTERVAL_FLAG = "-checkpoint-interval=";
+    private static final double DEFAULT_CHECKPOINT_INTERVAL = 10.0;
+    private static final String RESUME_FLAG = "-resume=";
+    private static final String JOURNAL_FLAG = "-journal";
+    private static final String REPLAY_FLAG = "-replay=";
+    private static final String REPLAY_TIME_FLAG = "-replay-time=";
+    private static final String COMPRESS_BACKGROUNDS_FLAG = "-compress-backgrounds";
+    private static final String STREAM_FLAG = "-stream=";
+    private static final String STREAM_CACHE_FLAG = "-stream-cache=";
+    private static final String SEED_FLAG = "-seed=";
     private static final double FAST_SCALE = 0.5;
     private static final double FASTER_SCALE = 0.25;
     private static final double FASTEST_SCALE = 0.10;
@@ -32,11 +51,29 @@ public final class VirtualWorld extends PApplet {
     private String loadFile = "world.sav";
     private long startTimeMillis = 0;
     private double timeScale = 1.0;
+    private boolean threaded = false;
+    private boolean compressBackgrounds = false;
+    private String recordFile = null;
+    private double recordInterval = DEFAULT_RECORD_INTERVAL;
+    private boolean recordDropFrames = false;
+    private String checkpointDirectory = null;
+    private double checkpointInterval = DEFAULT_CHECKPOINT_INTERVAL;
+    private String resumeDirectory = null;
+    private boolean journal = false;
+    private String replayDirectory = null;
+    private double replayTime = Double.MAX_VALUE;
+    private String streamDirectory = null;
+    private int streamCache = WorldStreamer.DEFAULT_CAPACITY;
+    // overrides the save file's seed; a resumed world keeps its own
+    private Long seed = null;
 
     private ImageStore imageStore;
     private WorldModel world;
     private WorldView view;
     private EventScheduler scheduler;
+    private SimulationThread simulation;
+    private Checkpointer checkpointer;
+    private WorldStreamer streamer;
 
 
 
@@ -51,15 +88,58 @@ public final class VirtualWorld extends PApplet {
     public void setup() {
         parseCommandLine(ARGS);
         loadImages(IMAGE_LIST_FILE_NAME);
-        loadWorld(loadFile, this.imageStore);
+        this.scheduler = new EventScheduler();
+        if (replayDirectory != null) {
+            replayWorld(replayDirectory, replayTime, this.imageStore);
+        } else if (resumeDirectory != null) {
+            resumeWorld(resumeDirectory, this.imageStore);
+        } else if (streamDirectory != null) {
+            streamWorld(streamDirectory, this.imageStore);
+            seedWorld();
+        } else {
+            loadWorld(loadFile, this.imageStore);
+            seedWorld();
+            this.scheduleActions(world, scheduler, imageStore);
+        }
+
+        if (compressBackgrounds) {
+            world.compressBackground();
+        }
+        // a streamed world is never all in memory, so there is nothing to summarize
+        if (streamer == null) {
+            world.setSummary(new WorldSummary(world));
+        }
 
         this.view = new WorldView(VIEW_ROWS, VIEW_COLS, this, world, TILE_WIDTH, TILE_HEIGHT);
-        this.scheduler = new EventScheduler();
-        this.startTimeMillis = System.currentTimeMillis();
-        this.scheduleActions(world, scheduler, imageStore);
+        if (streamer != null) {
+            streamer.loadRegion(0, 0, VIEW_COLS, VIEW_ROWS);
+        }
+        // a resumed world starts part way through, so line the clock up with it
+        this.startTimeMillis = System.currentTimeMillis() - (long) (scheduler.getCurrentTime() * timeScale * 1000);
+
+        if (checkpointDirectory != null && streamer != null) {
+            System.err.println("Checkpoints are not supported for streamed worlds");
+        } else if (checkpointDirectory != null) {
+            this.checkpointer = new Checkpointer(new File(checkpointDirectory), checkpointInterval);
+            if (journal) {
+                checkpointer.startJournal(world, scheduler);
+            }
+        } else if (journal) {
+            System.err.println("A journal is only written alongside checkpoints");
+        }
+        if (threaded) {
+            this.simulation = new SimulationThread(world, scheduler, view.getViewport(), timeScale);
+            simulation.setCheckpointer(checkpointer);
+            simulation.start(startTimeMillis);
+        }
     }
 
     public void draw() {
+        if (simulation != null) {
+            simulation.checkFailure();
+            view.drawSnapshot(simulation.getSnapshot());
+            return;
+        }
         double appTime = (System.currentTimeMillis() - startTimeMillis) * 0.001;
         double frameTime = appTime / timeScale - scheduler.getCurrentTime();
         this.update(frameTime);
@@ -67,7 +147,43 @@ public final class VirtualWorld extends PApplet {
     }
 
     public void update(double frameTime){
-        scheduler.updateOnTime(frameTime);
+        if (checkpointer == null) {
+            scheduler.updateOnTime(frameTime);
+            return;
+        }
+        // stop at every checkpoint that falls inside this frame
+        double remaining = frameTime;
+        do {
+            checkpointer.maybeCheckpoint(world, scheduler);
+            double step = Math.min(remaining, Math.max(checkpointer.timeUntilNext(scheduler), Double.MIN_VALUE));
+            scheduler.updateOnTime(step);
+            remaining -= step;
+        } while (remaining > 0);
+        checkpointer.maybeCheckpoint(world, scheduler);
+    }
+
+    /**
+     * Runs the simulation for the given time without a window, rendering a
+     * frame offscreen every recordInterval seconds of simulation time and
+     * handing it to a FrameRecorder that encodes on its own thread. The
+     * simulation waits for the encoder when it falls behind, unless
+     * recordDropFrames is set.
+     * @param lifetime - simulation seconds to run for
+     */
+    public void record(double lifetime) {
+        OffscreenRenderer renderer = new OffscreenRenderer(world, view.getViewport(), TILE_WIDTH, TILE_HEIGHT);
+        try (FrameRecorder recorder = new FrameRecorder(new File(recordFile), renderer.getWidth(), renderer.getHeight(), recordDropFrames)) {
+            recorder.submit(renderer.render(), scheduler.getCurrentTime());
+            double elapsed = 0;
+            while (elapsed < lifetime) {
+                double step = Math.min(recordInterval, lifetime - elapsed);
+                this.update(step);
+                elapsed += step;
+                recorder.submit(renderer.render(), scheduler.getCurrentTime());
+            }
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+        }
     }
 
     // Just for debugging and for P5
@@ -76,21 +192,29 @@ public final class VirtualWorld extends PApplet {
 
         Point pressed = mouseToPoint();
         System.out.println("CLICK! " + pressed.x + ", " + pressed.y);
+        if (simulation != null) {
+            simulation.submit(() -> handleClick(pressed));
+        } else {
+            handleClick(pressed);
+        }
+    }
+
+    private void handleClick(Point pressed) {
         if(world.getOccupant(pressed).isEmpty()) {
 
-        addCat(pressed, imageStore);
-        addOrangeCat(pressed, imageStore);
+        List<Entity> spawned = new ArrayList<>(2);
+        addCat(pressed, imageStore, spawned);
+        addOrangeCat(pressed, imageStore, spawned);
+        scheduler.scheduleActions(spawned, world, imageStore);
         changeBackgroundTiles(pressed, imageStore);
         }
-
-
     }
 
     private void changeBackgroundTiles(Point center,  ImageStore imageStore) {
 //        // Define the range for a 3x3 grid around the center point
         int[] x = {-1, 0, 1};
         int[] y = {-1, 0, 1};
-        Background newBackground = new Background("garden", imageStore.getImageList(NEW_BACKGROUND));
+        Background newBackground = imageStore.getBackground(NEW_BACKGROUND);
 
         for (int i : x) {
             for (int j : y) {
@@ -106,32 +230,33 @@ public final class VirtualWorld extends PApplet {
 
     }
 
-    private void addCat(Point pressed, ImageStore imageStore) {
+    private void addCat(Point pressed, ImageStore imageStore, List<Entity> spawned) {
         Predicate<Point> canPassThrough = p -> world.withinBounds(p)
                 || (world.getOccupant(p).isPresent() && world.getOccupant(p).get().getKind() != EntityKind.TREE);
 
         if (canPassThrough.test(pressed)) {
             Entity entity = Factory.createCat("cat", pressed, 0.5, 0.2, imageStore.getImageList("cat"));
             world.addEntity(entity);
-            entity.scheduleActions(scheduler, world, imageStore);
+            spawned.add(entity);
         }
     }
 
-    private void addOrangeCat(Point pressed, ImageStore imageStore) {
+    private void addOrangeCat(Point pressed, ImageStore imageStore, List<Entity> spawned) {
         Predicate<Point> canPassThrough = p -> world.withinBounds(p)
                 || (world.getOccupant(p).isPresent() && world.getOccupant(p).get().getKind() != EntityKind.TREE);
 
         if (canPassThrough.test(pressed)) {
             Entity orangeCat = Factory.createOrange("orange", pressed, 0.2, 0.2, imageStore.getImageList("orange"));
             world.addEntity(orangeCat);
-            orangeCat.scheduleActions(scheduler, world, imageStore);
+            spawned.add(orangeCat);
         }
     }
 
 
 
     private Point mouseToPoint() {
-        return view.getViewport().viewportToWorld(mouseX / TILE_WIDTH, mouseY / TILE_HEIGHT);
+        int scale = view.getViewport().getScale();
+        return view.getViewport().viewportToWorld(mouseX * scale / TILE_WIDTH, mouseY * scale / TILE_HEIGHT);
     }
 
     public void keyPressed() {
@@ -146,11 +271,16 @@ public final class VirtualWorld extends PApplet {
                 case RIGHT -> dx += 1;
             }
             view.shiftView(dx, dy);
+        } else {
+            switch (key) {
+                case '-' -> view.zoomOut();
+                case '=', '+' -> view.zoomIn();
+            }
         }
     }
 
     public static Background createDefaultBackground(ImageStore imageStore) {
-        return new Background(DEFAULT_IMAGE_NAME, imageStore.getImageList(DEFAULT_IMAGE_NAME));
+        return imageStore.getBackground(DEFAULT_IMAGE_NAME);
     }
 
     public static PImage createImageColored(int width, int height, int color) {
@@ -174,13 +304,80 @@ public final class VirtualWorld extends PApplet {
     public void loadWorld(String file, ImageStore imageStore) {
         this.world = new WorldModel();
         try {
-            Scanner in = new Scanner(new File(file));
-            WorldLoader.load(world, in, imageStore, createDefaultBackground(imageStore));
-        } catch (FileNotFoundException e) {
+            if (file.endsWith(BinaryWorldFormat.FILE_SUFFIX)) {
+                BinaryWorldFormat.load(world, new File(file), imageStore, createDefaultBackground(imageStore));
+                return;
+            }
+            // decode the sprites the save looks to need together, rather than one by one as the loader meets them
+            imageStore.preload(WorldLoader.sampleKeys(new File(file)));
+            MappedWorldLoader.load(world, new File(file), imageStore, createDefaultBackground(imageStore));
+        } catch (NoSuchFileException | InvalidPathException e) {
             Scanner in = new Scanner(file);
             WorldLoader.load(world, in, imageStore, createDefaultBackground(imageStore));
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
         }
     }
+    /**
+     * Restores the world and every pending event from the newest
+     * checkpoint in a directory written by Checkpointer.
+     */
+    public void resumeWorld(String directory, ImageStore imageStore) {
+        this.world = new WorldModel();
+        File checkpoints = new File(directory);
+        long sequence = CheckpointFormat.latestSequence(checkpoints);
+        if (sequence < 0) {
+            throw new IllegalArgumentException("No checkpoints in " + directory);
+        }
+        try {
+            Checkpointer.restore(CheckpointFormat.read(checkpoints, sequence, imageStore), world, scheduler, imageStore);
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            WorldLoader.fillMissingSections(world, createDefaultBackground(imageStore));
+        }
+    }
+
+    /**
+     * Rebuilds the world as it was at a given time from the checkpoints
+     * and journal in a directory. Nothing is scheduled, so the world stays
+     * as it was at that time.
+     */
+    public void replayWorld(String directory, double time, ImageStore imageStore) {
+        try {
+            this.world = JournalReplay.seek(new File(directory), time, imageStore);
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            this.world = new WorldModel();
+            WorldLoader.fillMissingSections(world, createDefaultBackground(imageStore));
+        }
+    }
+
+    /**
+     * Opens the chunk store in a directory and pages the world in from it
+     * as it is used. If the directory has no store yet, the save file is
+     * loaded and written out as one first.
+     */
+    public void streamWorld(String directory, ImageStore imageStore) {
+        File chunks = new File(directory);
+        try {
+            if (!ChunkStore.exists(chunks)) {
+                loadWorld(loadFile, imageStore);
+                ChunkStore.create(chunks, world, ChunkStore.DEFAULT_CHUNK_SIZE);
+            }
+            this.world = new WorldModel();
+            this.streamer = WorldStreamer.open(chunks, world, scheduler, imageStore, streamCache);
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+            WorldLoader.fillMissingSections(world, createDefaultBackground(imageStore));
+        }
+    }
+
+    private void seedWorld() {
+        if (seed != null) {
+            world.setRandom(new WorldRandom(seed));
+        }
+    }
+
     public void scheduleActions(WorldModel world, EventScheduler scheduler, ImageStore imageStore) {
         for (Entity entity : world.getEntities()) {
             entity.scheduleActions(scheduler, world, imageStore);
@@ -188,10 +385,54 @@ public final class VirtualWorld extends PApplet {
     }
     public void parseCommandLine(String[] args) {
         for (String arg : args) {
+            if (arg.startsWith(STREAM_CACHE_FLAG)) {
+                streamCache = Integer.parseInt(arg.substring(STREAM_CACHE_FLAG.length()));
+                continue;
+            }
+            if (arg.startsWith(SEED_FLAG)) {
+                seed = Long.parseLong(arg.substring(SEED_FLAG.length()));
+                continue;
+            }
+            if (arg.startsWith(STREAM_FLAG)) {
+                streamDirectory = arg.substring(STREAM_FLAG.length());
+                continue;
+            }
+            if (arg.startsWith(REPLAY_TIME_FLAG)) {
+                replayTime = Double.parseDouble(arg.substring(REPLAY_TIME_FLAG.length()));
+                continue;
+            }
+            if (arg.startsWith(REPLAY_FLAG)) {
+                replayDirectory = arg.substring(REPLAY_FLAG.length());
+                continue;
+            }
+            if (arg.startsWith(RESUME_FLAG)) {
+                resumeDirectory = arg.substring(RESUME_FLAG.length());
+                continue;
+            }
+            if (arg.startsWith(CHECKPOINT_INTERVAL_FLAG)) {
+                checkpointInterval = Double.parseDouble(arg.substring(CHECKPOINT_INTERVAL_FLAG.length()));
+                continue;
+            }
+            if (arg.startsWith(CHECKPOINT_FLAG)) {
+                checkpointDirectory = arg.substring(CHECKPOINT_FLAG.length());
+                continue;
+            }
+            if (arg.startsWith(RECORD_INTERVAL_FLAG)) {
+                recordInterval = Double.parseDouble(arg.substring(RECORD_INTERVAL_FLAG.length()));
+                continue;
+            }
+            if (arg.startsWith(RECORD_FLAG)) {
+                recordFile = arg.substring(RECORD_FLAG.length());
+                continue;
+            }
             switch (arg) {
                 case FAST_FLAG -> timeScale = Math.min(FAST_SCALE, timeScale);
                 case FASTER_FLAG -> timeScale = Math.min(FASTER_SCALE, timeScale);
                 case FASTEST_FLAG -> timeScale = Math.min(FASTEST_SCALE, timeScale);
+                case THREADED_FLAG -> threaded = true;
+                case JOURNAL_FLAG -> journal = true;
+                case RECORD_DROP_FLAG -> recordDropFrames = true;
+                case COMPRESS_BACKGROUNDS_FLAG -> compressBackgrounds = true;
                 default -> loadFile = arg;
             }
         }
@@ -207,7 +448,21 @@ public final class VirtualWorld extends PApplet {
 
         VirtualWorld virtualWorld = new VirtualWorld();
         virtualWorld.setup();
-        virtualWorld.update(lifetime);
+        if (virtualWorld.recordFile != null) {
+            virtualWorld.record(lifetime);
+        } else {
+            virtualWorld.update(lifetime);
+        }
+        if (virtualWorld.checkpointer != null) {
+            virtualWorld.checkpointer.close();
+        }
+        if (virtualWorld.streamer != null) {
+            try {
+                virtualWorld.streamer.close();
+            } catch (IOException e) {
+                System.err.println(e.getMessage());
+            }
+        }
 
         return virtualWorld.world.log();
     }
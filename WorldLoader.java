@@ -1,3 +1,7 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 
 public class WorldLoader {
@@ -10,6 +14,8 @@ public class WorldLoader {
     private static final int PROPERTY_COL = 2;
     private static final int PROPERTY_ROW = 3;
     private static final int ENTITY_NUM_PROPERTIES = 4;
+    static final char RUN_SEPARATOR = '*';
+    private static final int KEY_SAMPLE_BYTES = 1 << 16;
     private static final int STUMP_NUM_PROPERTIES = 0;
     private static final int SAPLING_NUM_PROPERTIES = 1;
     private static final String OBSTACLE_KEY = "obstacle";
@@ -36,7 +42,70 @@ public class WorldLoader {
 
     public static void load(WorldModel world, Scanner saveFile, ImageStore imageStore, Background defaultBackground){
         parseSaveFile(world, saveFile, imageStore, defaultBackground);
-        if(world.getBackground() == null){
+        fillMissingSections(world, defaultBackground);
+    }
+
+    /*
+       The ImageStore key holding the sprites for a kind of entity, for
+       loaders that rebuild entities from their kind rather than a save line.
+     */
+    static String imageKey(EntityKind kind) {
+        return switch (kind) {
+            case HOUSE -> HOUSE_KEY;
+            case PERSON_FULL, PERSON_SEARCHING -> PERSON_KEY;
+            case OBSTACLE -> OBSTACLE_KEY;
+            case FAIRY -> FAIRY_KEY;
+            case STUMP -> STUMP_KEY;
+            case SAPLING -> SAPLING_KEY;
+            case TREE -> TREE_KEY;
+            case CAT -> CAT_KEY;
+            case PINK -> "pink";
+            case ORANGE -> "orange";
+            case DOG -> "dog";
+            case TREAT -> "treat";
+        };
+    }
+
+    /**
+     * Guesses which sprite keys a save file uses from the words near its
+     * start, where the backgrounds begin, and near its end, where the
+     * entities usually are, without reading the whole file. The guess also
+     * holds ids and cut-off words; ImageStore.preload ignores those.
+     * @return the words found, or none if the file cannot be read
+     */
+    public static Set<String> sampleKeys(File saveFile) {
+        Set<String> keys = new HashSet<>();
+        try (RandomAccessFile file = new RandomAccessFile(saveFile, "r")) {
+            long length = file.length();
+            byte[] head = new byte[(int) Math.min(length, KEY_SAMPLE_BYTES)];
+            file.readFully(head);
+            addWords(keys, head);
+            if (length > head.length) {
+                byte[] tail = new byte[(int) Math.min(length - head.length, KEY_SAMPLE_BYTES)];
+                file.seek(length - tail.length);
+                file.readFully(tail);
+                addWords(keys, tail);
+            }
+        } catch (IOException e) {
+            keys.clear();
+        }
+        return keys;
+    }
+
+    private static void addWords(Set<String> keys, byte[] sample) {
+        for (String word : new String(sample, StandardCharsets.UTF_8).split("\\s+")) {
+            int separator = word.indexOf(RUN_SEPARATOR);
+            keys.add(separator < 0 ? word : word.substring(0, separator));
+        }
+    }
+
+    /*
+       Gives the world a default background and an empty occupancy grid if
+       the save file did not have those sections. Shared by every loader,
+       and the last thing each does.
+     */
+    static void fillMissingSections(WorldModel world, Background defaultBackground){
+        if(world.getBackground() == null && world.getBackgroundLayer() == null){
             world.setBackground(new Background[world.getNumRows()][world.getNumCols()]);
             for (Background[] row : world.getBackground())
                 Arrays.fill(row, defaultBackground);
@@ -45,6 +114,8 @@ public class WorldLoader {
             world.setOccupancy(new Entity[world.getNumRows()][world.getNumCols()]);
             world.setEntities(new HashSet<>());
         }
+        // the loader may have filled the background grid in place
+        world.rebuildSummary();
     }
     private static void parseSaveFile(WorldModel world, Scanner saveFile, ImageStore imageStore, Background defaultBackground){
         String lastHeader = "";
@@ -57,7 +128,7 @@ public class WorldLoader {
                 headerLine = lineCounter;
                 lastHeader = line;
                 switch (line){
-                    case "Backgrounds:" -> world.setBackground(new Background[world.getNumRows()][world.getNumCols()]);
+                    case "Backgrounds:", "BackgroundRuns:" -> world.setBackground(new Background[world.getNumRows()][world.getNumCols()]);
                     case "Entities:" -> {
                         world.setOccupancy(new Entity[world.getNumRows()][world.getNumCols()]);
                         world.setEntities(new HashSet<>());
@@ -67,7 +138,9 @@ public class WorldLoader {
                 switch (lastHeader){
                     case "Rows:" -> world.setNumRows(Integer.parseInt(line));
                     case "Cols:" -> world.setNumCols(Integer.parseInt(line));
+                    case "Seed:" -> world.setRandom(new WorldRandom(Long.parseLong(line)));
                     case "Backgrounds:" -> parseBackgroundRow(world, line, lineCounter-headerLine-1, imageStore);
+                    case "BackgroundRuns:" -> parseBackgroundRuns(world, line, lineCounter-headerLine-1, imageStore);
                     case "Entities:" -> parseEntity(world, line, imageStore);
                 }
             }
@@ -80,7 +153,31 @@ public class WorldLoader {
         if(row < world.getNumRows()){
             int rows = Math.min(cells.length, world.getNumCols());
             for (int col = 0; col < rows; col++){
-                world.getBackground()[row][col] = new Background(cells[col], imageStore.getImageList(cells[col]));
+                world.getBackground()[row][col] = imageStore.getBackground(cells[col]);
+            }
+        }
+    }
+
+    /*
+       A run-length encoded row: cells are written as id*count, or just id
+       for a single cell, so "grass*40 dirt grass*9" is fifty cells.
+     */
+    private static void parseBackgroundRuns(WorldModel world, String line, int row, ImageStore imageStore) {
+        if(row < world.getNumRows()){
+            int col = 0;
+            for (String run : line.split(" ")) {
+                if (col >= world.getNumCols()) {
+                    break;
+                }
+                int star = run.lastIndexOf(RUN_SEPARATOR);
+                String id = star < 0 ? run : run.substring(0, star);
+                int length = star < 0 ? 1 : Integer.parseInt(run.substring(star + 1));
+                if (length < 1) {
+                    throw new IllegalArgumentException("Background run length must be positive");
+                }
+                int end = (int) Math.min(world.getNumCols(), (long) col + length);
+                Arrays.fill(world.getBackground()[row], col, end, imageStore.getBackground(id));
+                col = end;
             }
         }
     }
@@ -95,43 +192,56 @@ public class WorldLoader {
             properties = properties.length == ENTITY_NUM_PROPERTIES ?
                     new String[0] : properties[ENTITY_NUM_PROPERTIES].split(" ");
 
-            switch (key) {
-                case OBSTACLE_KEY -> parseObstacle(world, properties, pt, id, imageStore);
-                case PERSON_KEY -> parsePerson(world, properties, pt, id, imageStore);
-                case FAIRY_KEY -> parseFairy(world, properties, pt, id, imageStore);
-                case HOUSE_KEY -> parseHouse(world, properties, pt, id, imageStore);
-                case TREE_KEY -> parseTree(world, properties, pt, id, imageStore);
-                case SAPLING_KEY -> parseSapling(world, properties, pt, id, imageStore);
-                case STUMP_KEY -> parseStump(world, properties, pt, id, imageStore);
-                default -> throw new IllegalArgumentException("Entity key is unknown");
-            }
+            parseEntity(world, key, id, pt, properties, imageStore);
         }else{
             throw new IllegalArgumentException("Entity must be formatted as [key] [id] [x] [y] ...");
         }
     }
 
-    private static void parseSapling(WorldModel world, String[] properties, Point pt, String id, ImageStore imageStore) {
+    /*
+       Creates and adds an entity once its line has been split into the key,
+       id, position and the remaining kind-specific properties.
+     */
+    static void parseEntity(WorldModel world, String key, String id, Point pt, String[] properties, ImageStore imageStore) {
+        world.tryAddEntity(createEntity(key, id, pt, properties, imageStore));
+    }
+
+    /*
+       Creates an entity without adding it to a world, so loaders can build
+       entities on several threads and add them in file order afterwards.
+     */
+    static Entity createEntity(String key, String id, Point pt, String[] properties, ImageStore imageStore) {
+        return switch (key) {
+            case OBSTACLE_KEY -> createObstacle(properties, pt, id, imageStore);
+            case PERSON_KEY -> createPerson(properties, pt, id, imageStore);
+            case FAIRY_KEY -> createFairy(properties, pt, id, imageStore);
+            case HOUSE_KEY -> createHouse(properties, pt, id, imageStore);
+            case TREE_KEY -> createTree(properties, pt, id, imageStore);
+            case SAPLING_KEY -> createSapling(properties, pt, id, imageStore);
+            case STUMP_KEY -> createStump(properties, pt, id, imageStore);
+            default -> throw new IllegalArgumentException("Entity key is unknown");
+        };
+    }
+
+    private static Entity createSapling(String[] properties, Point pt, String id, ImageStore imageStore) {
         if (properties.length == SAPLING_NUM_PROPERTIES) {
-            Entity entity = Factory.createSapling(id, pt, imageStore.getImageList(SAPLING_KEY));
-            world.tryAddEntity(entity);
+            return Factory.createSapling(id, pt, imageStore.getImageList(SAPLING_KEY));
         }else{
             throw new IllegalArgumentException(String.format("%s requires %d properties when parsing", SAPLING_KEY, SAPLING_NUM_PROPERTIES));
         }
     }
 
-    private static void parsePerson(WorldModel world, String[] properties, Point pt, String id, ImageStore imageStore) {
+    private static Entity createPerson(String[] properties, Point pt, String id, ImageStore imageStore) {
         if (properties.length == PERSON_NUM_PROPERTIES) {
-            Entity entity = Factory.createPersonSearching(id, pt, Double.parseDouble(properties[PERSON_ACTION_PERIOD]), Double.parseDouble(properties[PERSON_ANIMATION_PERIOD]), Integer.parseInt(properties[PERSON_LIMIT]), imageStore.getImageList(PERSON_KEY));
-            world.tryAddEntity(entity);
+            return Factory.createPersonSearching(id, pt, Double.parseDouble(properties[PERSON_ACTION_PERIOD]), Double.parseDouble(properties[PERSON_ANIMATION_PERIOD]), Integer.parseInt(properties[PERSON_LIMIT]), imageStore.getImageList(PERSON_KEY));
         }else{
             throw new IllegalArgumentException(String.format("%s requires %d properties when parsing", PERSON_KEY, PERSON_NUM_PROPERTIES));
         }
     }
 
-    private static void parseFairy(WorldModel world, String[] properties, Point pt, String id, ImageStore imageStore) {
+    private static Entity createFairy(String[] properties, Point pt, String id, ImageStore imageStore) {
         if (properties.length == FAIRY_NUM_PROPERTIES) {
-            Entity entity = Factory.createFairy(id, pt, Double.parseDouble(properties[FAIRY_ACTION_PERIOD]), Double.parseDouble(properties[FAIRY_ANIMATION_PERIOD]), imageStore.getImageList(FAIRY_KEY));
-            world.tryAddEntity(entity);
+            return Factory.createFairy(id, pt, Double.parseDouble(properties[FAIRY_ACTION_PERIOD]), Double.parseDouble(properties[FAIRY_ANIMATION_PERIOD]), imageStore.getImageList(FAIRY_KEY));
         }else{
             throw new IllegalArgumentException(String.format("%s requires %d properties when parsing", FAIRY_KEY, FAIRY_NUM_PROPERTIES));
         }
@@ -139,37 +249,33 @@ public class WorldLoader {
 
 
 
-    private static void parseTree(WorldModel world, String[] properties, Point pt, String id, ImageStore imageStore) {
+    private static Entity createTree(String[] properties, Point pt, String id, ImageStore imageStore) {
         if (properties.length == TREE_NUM_PROPERTIES) {
-            Entity entity = Factory.createTree(id, pt, Double.parseDouble(properties[TREE_ACTION_PERIOD]), Double.parseDouble(properties[TREE_ANIMATION_PERIOD]), Integer.parseInt(properties[TREE_HEALTH]), imageStore.getImageList(TREE_KEY));
-            world.tryAddEntity(entity);
+            return Factory.createTree(id, pt, Double.parseDouble(properties[TREE_ACTION_PERIOD]), Double.parseDouble(properties[TREE_ANIMATION_PERIOD]), Integer.parseInt(properties[TREE_HEALTH]), imageStore.getImageList(TREE_KEY));
         }else{
             throw new IllegalArgumentException(String.format("%s requires %d properties when parsing", TREE_KEY, TREE_NUM_PROPERTIES));
         }
     }
 
-    private static void parseObstacle(WorldModel world, String[] properties, Point pt, String id, ImageStore imageStore) {
+    private static Entity createObstacle(String[] properties, Point pt, String id, ImageStore imageStore) {
         if (properties.length == OBSTACLE_NUM_PROPERTIES) {
-            Entity entity = Factory.createObstacle(id, pt, Double.parseDouble(properties[OBSTACLE_ANIMATION_PERIOD]), imageStore.getImageList(OBSTACLE_KEY));
-            world.tryAddEntity(entity);
+            return Factory.createObstacle(id, pt, Double.parseDouble(properties[OBSTACLE_ANIMATION_PERIOD]), imageStore.getImageList(OBSTACLE_KEY));
         }else{
             throw new IllegalArgumentException(String.format("%s requires %d properties when parsing", OBSTACLE_KEY, OBSTACLE_NUM_PROPERTIES));
         }
     }
 
-    private static void parseHouse(WorldModel world, String[] properties, Point pt, String id, ImageStore imageStore) {
+    private static Entity createHouse(String[] properties, Point pt, String id, ImageStore imageStore) {
         if (properties.length == HOUSE_NUM_PROPERTIES) {
-            Entity entity = Factory.createHouse(id, pt, imageStore.getImageList(HOUSE_KEY));
-            world.tryAddEntity(entity);
+            return Factory.createHouse(id, pt, imageStore.getImageList(HOUSE_KEY));
         }else{
             throw new IllegalArgumentException(String.format("%s requires %d properties when parsing", HOUSE_KEY, HOUSE_NUM_PROPERTIES));
         }
     }
 
-    private static void parseStump(WorldModel world, String[] properties, Point pt, String id, ImageStore imageStore) {
+    private static Entity createStump(String[] properties, Point pt, String id, ImageStore imageStore) {
         if (properties.length == STUMP_NUM_PROPERTIES) {
-            Entity entity = Factory.createStump(id, pt, imageStore.getImageList(STUMP_KEY));
-            world.tryAddEntity(entity);
+            return Factory.createStump(id, pt, imageStore.getImageList(STUMP_KEY));
         }else{
             throw new IllegalArgumentException(String.format("%s requires %d properties when parsing", STUMP_KEY, STUMP_NUM_PROPERTIES));
         }
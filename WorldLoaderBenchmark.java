@@ -0,0 +1,76 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Scanner;
+
+import processing.core.PApplet;
+import processing.core.PImage;
+
+/**
+ * Compares load times of WorldLoader (Scanner) and MappedWorldLoader, on
+ * one thread and on every core, on a generated save file. Not part of the program; run with
+ *
+ *   java -Xmx8g WorldLoaderBenchmark [rows] [cols]
+ *
+ * The default 6000 x 6000 world is a little over 200 MB on disk.
+ */
+final class WorldLoaderBenchmark {
+    private static final int DEFAULT_SIZE = 6000;
+    private static final int TREE_SPACING = 7;
+    private static final String[] BACKGROUNDS = {"grass", "grass", "grass", "flowers", "dirt"};
+
+    public static void main(String[] args) throws IOException {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_SIZE;
+        int cols = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_SIZE;
+
+        File save = File.createTempFile("benchmark", ".sav");
+        save.deleteOnExit();
+        generate(save, rows, cols);
+        System.out.printf("generated %d x %d world, %.1f MB\n", rows, cols, save.length() / 1e6);
+
+        ImageStore imageStore = new ImageStore(new PImage(1, 1, PApplet.RGB));
+        Background defaultBackground = imageStore.getBackground("background_default");
+
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            try (Scanner in = new Scanner(save)) {
+                WorldLoader.load(new WorldModel(), in, imageStore, defaultBackground);
+            }
+            long scanner = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            MappedWorldLoader.load(new WorldModel(), save, imageStore, defaultBackground, 1);
+            long mapped = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            MappedWorldLoader.load(new WorldModel(), save, imageStore, defaultBackground);
+            long parallel = System.nanoTime() - start;
+
+            System.out.printf("round %d: WorldLoader %d ms, MappedWorldLoader %d ms, parallel %d ms\n",
+                    round, scanner / 1_000_000, mapped / 1_000_000, parallel / 1_000_000);
+        }
+    }
+
+    private static void generate(File save, int rows, int cols) throws IOException {
+        try (BufferedWriter out = new BufferedWriter(new FileWriter(save), 1 << 20)) {
+            out.write("Rows:\n" + rows + "\nCols:\n" + cols + "\nBackgrounds:\n");
+            for (int row = 0; row < rows; row++) {
+                for (int col = 0; col < cols; col++) {
+                    if (col > 0) {
+                        out.write(' ');
+                    }
+                    // long runs of one id, like a real map
+                    out.write(BACKGROUNDS[(row / 64 + col / 256) % BACKGROUNDS.length]);
+                }
+                out.write('\n');
+            }
+            out.write("Entities:\n");
+            for (int row = 0; row < rows; row += TREE_SPACING) {
+                for (int col = 0; col < cols; col += TREE_SPACING) {
+                    out.write(String.format("tree tree_%d_%d %d %d 1.000 0.250 3\n", col, row, col, row));
+                }
+            }
+        }
+    }
+}
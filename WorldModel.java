@@ -1,6 +1,7 @@
 import processing.core.PImage;
 
 import java.util.*;
+import java.util.function.LongFunction;
 
 /**
  * Represents the 2D World in which this simulation is running.
@@ -9,10 +10,22 @@ import java.util.*;
  */
 public final class WorldModel {
     public static int numRows;
-    public static numCols;
+    public static int numCols;
     private Background[][] background;
+    private BackgroundLayer backgroundLayer;
     private Entity[][] occupancy;
-    private Set<Entity> entities;
+    private final EntityStore store = new EntityStore();
+    // a read-only view of store
+    private final Set<Entity> entities = store.asSet();
+    private final TargetClaims claims = new TargetClaims();
+    private final TargetTracker tracker = new TargetTracker();
+    private WorldRandom random = new WorldRandom();
+    private WorldSummary summary;
+    private SimulationJournal journal;
+    private BackgroundChanges backgroundChanges;
+    private WorldStreamer streamer;
+    // entities waiting for something to appear; see EventScheduler.waitFor
+    private EventScheduler waiters;
 
     public Optional<PImage> getBackgroundImage(Point pos) {
         if (withinBounds(pos)) {
@@ -22,6 +35,14 @@ public final class WorldModel {
         }
     }
 
+    /**
+     * Like getBackgroundImage, for a PackedPoint, without an Optional.
+     * @return the image, or null if pos is out of bounds
+     */
+    PImage getBackgroundImageAt(long pos) {
+        return withinBounds(pos) ? getBackgroundCell(pos).getCurrentImage() : null;
+    }
+
     /**
      * Set a background cell at a specific location.
      * Not currently being used, but may want to use on Project 5.
@@ -30,12 +51,73 @@ public final class WorldModel {
      * @param background - the Background object (with the associated image)
      */
     public void setBackgroundCell(Point pos, Background background) {
-        this.background[pos.y][pos.x] = background;
-
+        if (summary != null) {
+            summary.backgroundChanged(pos, this.getBackgroundCell(pos), background);
+        }
+        if (journal != null) {
+            journal.backgroundChanged(pos, background);
+        }
+        if (backgroundChanges != null) {
+            backgroundChanges.cellChanged(pos);
+        }
+        if (streamer != null) {
+            streamer.setBackground(pos.x, pos.y, background);
+        } else if (backgroundLayer != null) {
+            backgroundLayer.set(pos.y, pos.x, background);
+        } else {
+            this.background[pos.y][pos.x] = background;
+        }
+        if (waiters != null && this.getOccupancyCell(pos) != null) {
+            waiters.wake(this.getOccupancyCell(pos));
+        }
     }
 
     public Background getBackgroundCell(Point pos) {
-        return background[pos.y][pos.x];
+        return getBackgroundCell(pos.x, pos.y);
+    }
+
+    Background getBackgroundCell(long pos) {
+        return getBackgroundCell(PackedPoint.x(pos), PackedPoint.y(pos));
+    }
+
+    private Background getBackgroundCell(int x, int y) {
+        if (streamer != null) {
+            return streamer.getBackground(x, y);
+        }
+        if (backgroundLayer != null) {
+            return backgroundLayer.get(y, x);
+        }
+        return background[y][x];
+    }
+
+    /**
+     * Copies a row of backgrounds into an array, however they are stored.
+     * @param row - the world row to copy
+     * @param dest - receives numCols backgrounds starting at offset
+     * @param offset - where in dest the row starts
+     */
+    public void copyBackgroundRow(int row, Background[] dest, int offset) {
+        if (backgroundLayer != null) {
+            backgroundLayer.copyRow(row, dest, offset);
+        } else if (background != null) {
+            System.arraycopy(background[row], 0, dest, offset, numCols);
+        } else {
+            for (int col = 0; col < numCols; col++) {
+                dest[offset + col] = getBackgroundCell(col, row);
+            }
+        }
+    }
+
+    /**
+     * Switches the background to run-length encoded rows, which take far
+     * less memory when most cells repeat their neighbour. Cells keep their
+     * ids but cells with the same id end up sharing one Background.
+     */
+    public void compressBackground() {
+        if (background != null) {
+            this.backgroundLayer = BackgroundLayer.compress(background, numRows, numCols);
+            this.background = null;
+        }
     }
 
 
@@ -52,11 +134,19 @@ public final class WorldModel {
     private void removeEntityAt(Point pos) {
         if (withinBounds(pos) && this.getOccupancyCell(pos) != null) {
             Entity entity = this.getOccupancyCell(pos);
+            if (summary != null) {
+                summary.entityRemoved(pos, entity);
+            }
+            if (journal != null) {
+                journal.entityRemoved(entity);
+            }
 
             /* This moves the entity just outside of the grid for
               debugging purposes. */
             entity.setPosition(new Point(-1, -1));
-            entities.remove(entity);
+            store.remove(entity);
+            claims.release(entity, true);
+            tracker.forget(entity);
             this.setOccupancyCell(pos, null);
         }
     }
@@ -69,13 +159,31 @@ public final class WorldModel {
      * @param pos - the location the entity is to move to
      */
     public void moveEntity(EventScheduler scheduler, Entity entity, Point pos) {
-        Point oldPos = entity.getPosition();
-        if (withinBounds(pos) && !pos.equals(oldPos)) {
-            this.setOccupancyCell(oldPos, null);
-            Optional<Entity> occupant = this.getOccupant(pos);
-            occupant.ifPresent(target -> this.removeEntity(scheduler, target));
-            this.setOccupancyCell(pos, entity);
-            entity.setPosition(pos);
+        moveEntity(scheduler, entity, PackedPoint.of(pos));
+    }
+
+    /**
+     * moveEntity for a PackedPoint.
+     */
+    void moveEntity(EventScheduler scheduler, Entity entity, long pos) {
+        long oldPos = entity.getCell();
+        if (withinBounds(pos) && pos != oldPos) {
+            this.setOccupancyCell(PackedPoint.x(oldPos), PackedPoint.y(oldPos), null);
+            Entity occupant = this.getOccupantAt(pos);
+            if (occupant != null) {
+                this.removeEntity(scheduler, occupant);
+            }
+            this.setOccupancyCell(PackedPoint.x(pos), PackedPoint.y(pos), entity);
+            entity.setCell(pos);
+            // seekers after it look again; those it is now nearer to may too
+            tracker.forgetTarget(entity);
+            tracker.appeared(entity);
+            if (summary != null) {
+                summary.entityMoved(entity, oldPos, pos);
+            }
+            if (journal != null) {
+                journal.entityMoved(entity, pos);
+            }
         }
     }
 
@@ -96,14 +204,179 @@ public final class WorldModel {
      * @param entity - the entity we are adding
      */
     void addEntity(Entity entity) {
-        if (withinBounds(entity.getPosition())) {
+        if (withinBounds(entity.getCell())) {
+            place(entity);
+            if (waiters != null) {
+                waiters.entityAppeared(entity.getKind());
+            }
+        }
+    }
+
+    /*
+       Puts an entity into its cell and the entity set, and tells the
+       summary, journal and tracker. Waking the entities waiting for its
+       kind is left to the caller, so spawn can do it once per kind.
+     */
+    private void place(Entity entity) {
+        this.setOccupancyCell(entity.getX(), entity.getY(), entity);
+        store.add(entity);
+        if (summary != null) {
+            summary.entityAdded(entity);
+        }
+        if (journal != null) {
+            journal.entityAdded(entity);
+        }
+        tracker.appeared(entity);
+    }
+
+    /**
+     * Fills every free cell of a rectangle with an entity made by the
+     * factory, clipped to the world. Like calling addEntity for each, but
+     * the cells are visited once each and entities waiting for the new
+     * kinds are woken once at the end rather than once per entity. Hand
+     * the result to EventScheduler.scheduleActions to set them going.
+     * @param factory - makes the entity for a cell, given as a PackedPoint
+     *                and placed at that cell, or returns null to leave the
+     *                cell empty
+     * @return the entities added, row by row
+     */
+    List<Entity> spawn(int col, int row, int numCols, int numRows, LongFunction<Entity> factory) {
+        return spawn(col, row, numCols, numRows, -1, factory);
+    }
+
+    /**
+     * Like spawn, over the cells no more than radius away from center
+     * (a round brush), rather than a rectangle.
+     */
+    List<Entity> spawnBrush(Point center, int radius, LongFunction<Entity> factory) {
+        int size = 2 * radius + 1;
+        return spawn(center.x - radius, center.y - radius, size, size, radius * radius, factory);
+    }
+
+    /*
+       radiusSquared limits the cells to a circle in the middle of the
+       rectangle, unless it is negative.
+     */
+    private List<Entity> spawn(int col, int row, int numCols, int numRows, int radiusSquared, LongFunction<Entity> factory) {
+        int fromX = Math.max(col, 0);
+        int fromY = Math.max(row, 0);
+        int toX = Math.min(col + numCols, getNumCols());
+        int toY = Math.min(row + numRows, getNumRows());
+        long center = PackedPoint.of(col + numCols / 2, row + numRows / 2);
+        List<Entity> added = new ArrayList<>();
+        Set<EntityKind> kinds = EnumSet.noneOf(EntityKind.class);
+        for (int y = fromY; y < toY; y++) {
+            for (int x = fromX; x < toX; x++) {
+                long cell = PackedPoint.of(x, y);
+                if (radiusSquared >= 0 && PackedPoint.distanceSquared(center, cell) > radiusSquared) {
+                    continue;
+                }
+                if (getOccupancyCell(x, y) != null) {
+                    continue;
+                }
+                Entity entity = factory.apply(cell);
+                if (entity == null) {
+                    continue;
+                }
+                place(entity);
+                kinds.add(entity.getKind());
+                added.add(entity);
+            }
+        }
+        if (waiters != null) {
+            for (EntityKind kind : kinds) {
+                waiters.entityAppeared(kind);
+            }
+        }
+        return added;
+    }
+
+    /**
+     * Changes an entity's kind and state in place; see Entity.transition.
+     * It keeps its cell, and the summary and journal see it leave as its
+     * old kind and come back as the new one.
+     */
+    void transition(Entity entity, EntityKind kind, EntityName name, List<PImage> images, int resourceLimit, int resourceCount,
+                    double actionPeriod, double animationPeriod, int health, int healthLimit) {
+        boolean inWorld = entities.contains(entity);
+        // whatever it was after, or was wanted for, no longer applies
+        claims.release(entity, true);
+        tracker.forget(entity);
+        if (inWorld) {
+            if (summary != null) {
+                summary.entityRemoved(entity.getPosition(), entity);
+            }
+            if (journal != null) {
+                journal.entityRemoved(entity);
+            }
+        }
+
+        store.changeKind(entity, kind);
+        entity.become(kind, name, images, resourceLimit, resourceCount, actionPeriod, animationPeriod, health, healthLimit);
+
+        if (inWorld) {
+            if (summary != null) {
+                summary.entityAdded(entity);
+            }
+            if (journal != null) {
+                journal.entityAdded(entity);
+            }
+            tracker.appeared(entity);
+            if (waiters != null) {
+                waiters.entityAppeared(kind);
+            }
+        }
+    }
+
+    /**
+     * Tells the world that an entity other than the one acting changed,
+     * such as a tree losing health, so the change reaches the journal.
+     */
+    public void entityChanged(Entity entity) {
+        if (journal != null) {
+            journal.entityChanged(entity);
+        }
+    }
+
+    /**
+     * Puts back an entity read from a checkpoint. Unlike addEntity, the
+     * entity may share its cell with another one, in which case only one
+     * of them is the occupant.
+     * @param entity - the restored entity
+     * @param occupying - whether the entity is the occupant of its cell
+     */
+    void restoreEntity(Entity entity, boolean occupying) {
+        store.add(entity);
+        if (occupying && withinBounds(entity.getPosition())) {
             this.setOccupancyCell(entity.getPosition(), entity);
-            entities.add(entity);
+        }
+        tracker.appeared(entity);
+        if (waiters != null) {
+            waiters.entityAppeared(entity.getKind());
         }
     }
 
+    /**
+     * Takes an entity out of the entity set without moving it or clearing
+     * its cell, for WorldStreamer when the entity's chunk is paged out.
+     * restoreEntity puts it back.
+     */
+    void freezeEntity(Entity entity) {
+        store.remove(entity);
+        claims.release(entity, true);
+        tracker.forget(entity);
+    }
+
     private void setOccupancyCell(Point pos, Entity entity) {
-        occupancy[pos.y][pos.x] = entity;
+        setOccupancyCell(pos.x, pos.y, entity);
+    }
+
+    private void setOccupancyCell(int x, int y, Entity entity) {
+        if (streamer != null) {
+            streamer.setOccupant(x, y, entity);
+        } else {
+            occupancy[y][x] = entity;
+        }
     }
 
     public Optional<Entity> getOccupant(Point pos) {
@@ -114,8 +387,23 @@ public final class WorldModel {
         }
     }
 
+    /**
+     * Like getOccupant, for a PackedPoint, without an Optional.
+     * @return the occupant, or null if there is none or pos is out of bounds
+     */
+    Entity getOccupantAt(long pos) {
+        return withinBounds(pos) ? getOccupancyCell(PackedPoint.x(pos), PackedPoint.y(pos)) : null;
+    }
+
     private Entity getOccupancyCell(Point pos) {
-        return occupancy[pos.y][pos.x];
+        return getOccupancyCell(pos.x, pos.y);
+    }
+
+    private Entity getOccupancyCell(int x, int y) {
+        if (streamer != null) {
+            return streamer.getOccupant(x, y);
+        }
+        return occupancy[y][x];
     }
 
     /**
@@ -130,48 +418,125 @@ public final class WorldModel {
         return withinBounds(pos) && this.getOccupancyCell(pos) != null;
     }
 
+    boolean withinBounds(long pos) {
+        return PackedPoint.withinBounds(pos, numRows, numCols);
+    }
+
     boolean withinBounds(Point pos) {
         return pos.y >= 0 && pos.y < numRows && pos.x >= 0 && pos.x < numCols;
     }
 
 
+    /**
+     * Finds the entity of one of the given kinds closest to a point. Ties
+     * go to the earlier kind in the list.
+     */
     public Optional<Entity> findNearest(Point pos, List<EntityKind> kinds) {
-        List<Entity> ofType = new LinkedList<>();
-        for (EntityKind kind : kinds) {
-            for (Entity entity : entities) {
-                if (entity.getKind() == kind) {
-                    ofType.add(entity);
-                }
+        return Optional.ofNullable(nearest(pos, kinds, null, 0));
+    }
+
+    /**
+     * Like findNearest from the seeker's position, but gives the target
+     * found last time again, without a search, unless it has since left
+     * the world, moved or changed kind, or something of the given kinds
+     * has turned up nearer to the seeker than it; see TargetTracker. A
+     * seeker that has moved may so keep a target that is no longer quite
+     * the nearest, rather than switching between two.
+     */
+    public Optional<Entity> trackNearest(Entity seeker, List<EntityKind> kinds) {
+        int mask = TargetTracker.mask(kinds);
+        Entity target = tracker.get(seeker, mask);
+        if (target == null) {
+            target = nearest(seeker.getPosition(), kinds, null, 0);
+            if (target != null) {
+                tracker.track(seeker, mask, target);
             }
         }
-
-        return nearestEntity(ofType, pos);
+        return Optional.ofNullable(target);
     }
-    private static Optional<Entity> nearestEntity(List<Entity> entities, Point pos) {
-        if (entities.isEmpty()) {
-            return Optional.empty();
-        } else {
-            Entity nearest = entities.get(0);
-            int nearestDistance = distanceSquared(nearest.getPosition(), pos);
 
-            for (Entity other : entities) {
-                int otherDistance = distanceSquared(other.getPosition(), pos);
+    /**
+     * Like findNearest, but passes over targets that another entity has
+     * claimed, unless every candidate is claimed. The target returned, if
+     * unclaimed, is claimed for the claimant until the given time; the
+     * claimant gives up any other claim. Claims also end when either
+     * entity leaves the world or changes kind.
+     *
+     * A claimed target is kept, as with trackNearest, for as long as the
+     * claimant's claim on it has not lapsed.
+     * @param time - the current time, to tell which claims have lapsed
+     * @param until - when the new claim lapses unless renewed
+     */
+    public Optional<Entity> claimNearest(Point pos, List<EntityKind> kinds, Entity claimant, double time, double until) {
+        int mask = TargetTracker.mask(kinds);
+        Entity target = tracker.get(claimant, mask);
+        if (target != null && claims.heldBy(target, claimant, time)) {
+            claims.claim(target, claimant, until);
+            return Optional.of(target);
+        }
+        target = nearest(pos, kinds, claimant, time);
+        if (target != null && !claims.heldByOther(target, claimant, time)) {
+            claims.claim(target, claimant, until);
+            tracker.track(claimant, mask, target);
+        } else {
+            // a shared target is looked for again each time
+            claims.release(claimant, false);
+            tracker.forgetSeeker(claimant);
+        }
+        return Optional.ofNullable(target);
+    }
 
-                if (otherDistance < nearestDistance) {
-                    nearest = other;
-                    nearestDistance = otherDistance;
+    /*
+       With a claimant, the nearest target not claimed by anyone else, or
+       the nearest of all if there is none.
+     */
+    private Entity nearest(Point pos, List<EntityKind> kinds, Entity claimant, double time) {
+        Entity nearest = null;
+        int nearestDistance = 0;
+        Entity nearestFree = null;
+        int nearestFreeDistance = 0;
+        for (EntityKind kind : kinds) {
+            // one pass over the kind's packed positions
+            EntityStore.Table table = store.table(kind);
+            for (int row = 0; row < table.size; row++) {
+                int deltaX = table.x[row] - pos.x;
+                int deltaY = table.y[row] - pos.y;
+                int distance = deltaX * deltaX + deltaY * deltaY;
+                if (nearest == null || distance < nearestDistance) {
+                    nearest = table.entities[row];
+                    nearestDistance = distance;
+                }
+                // the claim is only looked up for a would-be improvement
+                if (claimant != null && (nearestFree == null || distance < nearestFreeDistance)
+                        && !claims.heldByOther(table.entities[row], claimant, time)) {
+                    nearestFree = table.entities[row];
+                    nearestFreeDistance = distance;
                 }
             }
-
-            return Optional.of(nearest);
         }
+        return nearestFree != null ? nearestFree : nearest;
     }
 
-    private static int distanceSquared(Point p1, Point p2) {
-        int deltaX = p1.x - p2.x;
-        int deltaY = p1.y - p2.y;
+    /**
+     * @return the claims seekers hold on targets; see claimNearest
+     */
+    TargetClaims getClaims() {
+        return claims;
+    }
 
-        return deltaX * deltaX + deltaY * deltaY;
+    /**
+     * @return the targets seekers are heading for; see trackNearest
+     */
+    TargetTracker getTracker() {
+        return tracker;
+    }
+
+    /**
+     * @return the dense table of every entity of a kind in this world, for
+     * systems that walk a whole kind at once
+     */
+    EntityStore.Table getEntityTable(EntityKind kind) {
+        return store.table(kind);
     }
 
     /**
@@ -209,6 +574,28 @@ public final class WorldModel {
 
     public void setBackground(Background[][] background) {
         this.background = background;
+        this.backgroundLayer = null;
+        rebuildSummary();
+        if (backgroundChanges != null) {
+            backgroundChanges.allChanged();
+        }
+    }
+
+    /**
+     * @return the compressed background, or null if the background is a
+     * plain grid (see compressBackground)
+     */
+    public BackgroundLayer getBackgroundLayer() {
+        return backgroundLayer;
+    }
+
+    public void setBackgroundLayer(BackgroundLayer backgroundLayer) {
+        this.backgroundLayer = backgroundLayer;
+        this.background = null;
+        rebuildSummary();
+        if (backgroundChanges != null) {
+            backgroundChanges.allChanged();
+        }
     }
 
     public Entity[][] getOccupancy() {
@@ -219,11 +606,112 @@ public final class WorldModel {
         this.occupancy = occupancy;
     }
 
+    /**
+     * @return a live, read-only view of the entities in the world
+     */
     public Set<Entity> getEntities() {
         return entities;
     }
 
+    /**
+     * Replaces every entity in the world with the given ones. Entities
+     * taken out keep their state, as they would on removeEntity.
+     */
     public void setEntities(Set<Entity> entities) {
-        this.entities = entities;
+        List<Entity> incoming = new ArrayList<>(entities);
+        store.clear();
+        claims.clear();
+        tracker.clear();
+        for (Entity entity : incoming) {
+            store.add(entity);
+        }
+        rebuildSummary();
+    }
+
+    /**
+     * @return the streamer paging this world's cells in from disk, or null
+     * if the whole world is in memory
+     */
+    public WorldStreamer getStreamer() {
+        return streamer;
+    }
+
+    /**
+     * Records every change to the world from now on; see
+     * Checkpointer.startJournal.
+     */
+    void setJournal(SimulationJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Reports which background rows change from now on; see
+     * WorldSnapshot.capture.
+     */
+    void setBackgroundChanges(BackgroundChanges backgroundChanges) {
+        this.backgroundChanges = backgroundChanges;
+        backgroundChanges.allChanged();
+    }
+
+    /**
+     * Tells the scheduler whenever an entity appears or a background
+     * changes under one, so it can wake the entities waiting on it.
+     */
+    void setWaiters(EventScheduler scheduler) {
+        this.waiters = scheduler;
+    }
+
+    /**
+     * Pages cells through a WorldStreamer instead of the background and
+     * occupancy arrays, which are left null. Set by WorldStreamer.open.
+     */
+    void setStreamer(WorldStreamer streamer) {
+        this.streamer = streamer;
+        // a streamed world is never all in memory, so there is nothing to summarize
+        this.summary = null;
+        if (backgroundChanges != null) {
+            backgroundChanges.allChanged();
+        }
+    }
+
+    /**
+     * @return where this world's random numbers come from
+     */
+    WorldRandom getRandom() {
+        return random;
+    }
+
+    /**
+     * Reseeds the world, from the save file, the command line or a
+     * checkpoint.
+     */
+    void setRandom(WorldRandom random) {
+        this.random = random;
+    }
+
+    public WorldSummary getSummary() {
+        return summary;
+    }
+
+    /**
+     * Attaches a downsampled summary that is kept up to date as the world
+     * changes. Whoever loads the world attaches it once loading is done;
+     * it is rebuilt whenever the backgrounds or entities are replaced
+     * wholesale, as on a resume.
+     */
+    public void setSummary(WorldSummary summary) {
+        this.summary = summary;
+    }
+
+    /**
+     * Rebuilds the attached summary, if any, from the world as it is now.
+     * Loaders that fill the background grid in place call this, through
+     * WorldLoader.fillMissingSections, once they are done.
+     */
+    void rebuildSummary() {
+        if (summary == null) {
+            return;
+        }
+        summary = background != null || backgroundLayer != null ? new WorldSummary(this) : null;
     }
 }
@@ -0,0 +1,79 @@
+import java.util.SplittableRandom;
+
+/**
+ * A world's source of random numbers, such as a new tree's periods and
+ * health. Runs given the same seed draw the same numbers.
+ *
+ * Each checkpoint restarts the stream from a seed drawn from it and saves
+ * only that seed (see reseed), so a world restored from a checkpoint
+ * carries on where the stream left off at the same cost however long the
+ * run had gone on. A run that takes checkpoints therefore draws other
+ * numbers than one that does not, but a resumed run always draws the same
+ * numbers as the run that wrote its checkpoint.
+ */
+final class WorldRandom {
+    private long seed;
+    private SplittableRandom random;
+    // whether anything has been drawn since the stream was last seeded
+    private boolean drawn;
+
+    /**
+     * A stream seeded from the current time, for worlds not given a seed.
+     */
+    WorldRandom() {
+        this(new SplittableRandom().nextLong());
+    }
+
+    WorldRandom(long seed) {
+        this.seed = seed;
+        this.random = new SplittableRandom(seed);
+    }
+
+    /**
+     * Resumes a stream saved by a version 4 checkpoint, which kept the
+     * number of draws made since the seed rather than a new seed, by
+     * making those draws again.
+     * @param draws - how many numbers to skip
+     */
+    WorldRandom(long seed, long draws) {
+        this(seed);
+        for (long i = 0; i < draws; i++) {
+            random.nextDouble();
+        }
+        this.drawn = draws > 0;
+    }
+
+    /**
+     * @return a number at least min and less than max
+     */
+    double nextDouble(double min, double max) {
+        drawn = true;
+        return min + random.nextDouble() * (max - min);
+    }
+
+    /**
+     * @return a whole number at least min and less than max
+     */
+    int nextInt(int min, int max) {
+        return min + (int) nextDouble(0, max - min);
+    }
+
+    /**
+     * Restarts the stream from a seed drawn from it, unless nothing has
+     * been drawn since it was last seeded. So a world resumed from a
+     * checkpoint and checkpointed again at once keeps the same stream.
+     * @return the seed; a stream made from it draws what this one will
+     */
+    long reseed() {
+        if (drawn) {
+            seed = random.nextLong();
+            random = new SplittableRandom(seed);
+            drawn = false;
+        }
+        return seed;
+    }
+
+    long getSeed() {
+        return seed;
+    }
+}
@@ -0,0 +1,315 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A consistent copy of the world and the scheduler taken between two
+ * events. Capturing only copies references and primitive fields, so the
+ * simulation is paused for as little time as possible; everything else
+ * (diffing, encoding, disk I/O) happens later on another thread.
+ *
+ * Background rows are copied only when they have changed since the
+ * snapshot before; unchanged rows are shared with it, since no snapshot
+ * ever writes to its rows.
+ *
+ * Entities are identified by handles rather than by their ids, which are
+ * not unique. A handle stays the same for an entity for as long as it is
+ * in the world, so consecutive snapshots can be compared.
+ */
+public final class WorldSnapshot {
+    private final long sequence;
+    private final double time;
+    private final int numRows;
+    private final int numCols;
+    private final Background[][] rows;
+    private final List<EntityState> entities;
+    private final List<EventState> events;
+    private final List<ClaimState> claims;
+    private final List<TrackState> targets;
+    private final long seed;
+    // draws to make after seeding, for version 4 files; -1 if the snapshot
+    // has no random stream to resume
+    private final long draws;
+
+    WorldSnapshot(long sequence, double time, int numRows, int numCols, Background[][] rows,
+                  List<EntityState> entities, List<EventState> events, List<ClaimState> claims,
+                  List<TrackState> targets, long seed, long draws) {
+        this.sequence = sequence;
+        this.time = time;
+        this.numRows = numRows;
+        this.numCols = numCols;
+        this.rows = rows;
+        this.entities = Collections.unmodifiableList(entities);
+        this.events = Collections.unmodifiableList(events);
+        this.claims = Collections.unmodifiableList(claims);
+        this.targets = Collections.unmodifiableList(targets);
+        this.seed = seed;
+        this.draws = draws;
+    }
+
+    /**
+     * Copies the world and scheduler. Must run on the thread that owns them,
+     * between events. Reseeds the world's random stream, so the snapshot
+     * need only keep the new seed; see WorldRandom.reseed.
+     * @param handles - entity handles from the previous capture; updated in
+     *                place to drop entities that have left the world
+     * @param nextHandle - first unused handle; element 0 is advanced
+     * @param previous - the snapshot captured before this one, or null
+     * @param changes - the rows changed since previous was captured;
+     *                cleared once they are copied
+     */
+    static WorldSnapshot capture(long sequence, WorldModel world, EventScheduler scheduler,
+                                 Map<Entity, Integer> handles, int[] nextHandle,
+                                 WorldSnapshot previous, BackgroundChanges changes) {
+        int numRows = world.getNumRows();
+        int numCols = world.getNumCols();
+        boolean share = previous != null && previous.numRows == numRows && previous.numCols == numCols;
+        Background[][] rows = new Background[numRows][];
+        for (int row = 0; row < numRows; row++) {
+            if (share && !changes.rowChanged(row)) {
+                rows[row] = previous.rows[row];
+            } else {
+                rows[row] = new Background[numCols];
+                world.copyBackgroundRow(row, rows[row], 0);
+            }
+        }
+        changes.clear();
+
+        Map<Entity, Integer> live = new IdentityHashMap<>();
+        List<EntityState> entities = new ArrayList<>(world.getEntities().size());
+        for (Entity entity : world.getEntities()) {
+            int handle = handleFor(entity, handles, nextHandle);
+            live.put(entity, handle);
+            boolean occupying = world.getOccupant(entity.getPosition()).orElse(null) == entity;
+            entities.add(new EntityState(handle, entity, true, occupying));
+        }
+
+        List<EventState> events = new ArrayList<>();
+        for (Event event : scheduler.getQueuedEvents()) {
+            Entity entity = event.getEntity();
+            Integer handle = live.get(entity);
+            if (handle == null) {
+                /* Still scheduled but no longer in the world; this happens when
+                   removeEntity takes out whatever else occupies the same cell. */
+                handle = handleFor(entity, handles, nextHandle);
+                live.put(entity, handle);
+                entities.add(new EntityState(handle, entity, false, false));
+            }
+            int pendingIndex = scheduler.getPendingEvents(entity).indexOf(event);
+            events.add(new EventState(handle, event.getAction().getKind(), event.getTime(),
+                    event.getAction().getRepeatCount(), pendingIndex));
+        }
+        // an entity waiting for something to appear looks again when restored; see EventScheduler.waitFor
+        for (Event event : scheduler.getWaitingEvents()) {
+            Entity entity = event.getEntity();
+            Integer handle = live.get(entity);
+            if (handle == null) {
+                handle = handleFor(entity, handles, nextHandle);
+                live.put(entity, handle);
+                entities.add(new EntityState(handle, entity, false, false));
+            }
+            events.add(new EventState(handle, ActionKind.ACTIVITY, event.getTime(), 0, -1));
+        }
+        // saplings and trees keep their next activity in the world instead; see PlantSystem
+        for (EntityKind kind : EntityKind.values()) {
+            if (!PlantSystem.isPlant(kind)) {
+                continue;
+            }
+            EntityStore.Table table = world.getEntityTable(kind);
+            for (int row = 0; row < table.size; row++) {
+                if (!Double.isNaN(table.nextActivity[row])) {
+                    events.add(new EventState(live.get(table.entities[row]), ActionKind.ACTIVITY,
+                            table.nextActivity[row], 0, -1));
+                }
+            }
+        }
+
+        List<ClaimState> claims = new ArrayList<>();
+        for (Map.Entry<Entity, TargetClaims.Claim> entry : world.getClaims().getClaims().entrySet()) {
+            Integer target = live.get(entry.getKey());
+            Integer claimant = live.get(entry.getValue().claimant);
+            if (target != null && claimant != null) {
+                claims.add(new ClaimState(claimant, target, entry.getValue().until));
+            }
+        }
+
+        List<TrackState> targets = new ArrayList<>();
+        for (Map.Entry<Entity, TargetTracker.Tracked> entry : world.getTracker().getTracked().entrySet()) {
+            Integer seeker = live.get(entry.getKey());
+            Integer target = live.get(entry.getValue().target);
+            if (seeker != null && target != null) {
+                targets.add(new TrackState(seeker, target, entry.getValue().kinds));
+            }
+        }
+
+        handles.clear();
+        handles.putAll(live);
+        return new WorldSnapshot(sequence, scheduler.getCurrentTime(), numRows, numCols, rows, entities, events, claims,
+                targets, world.getRandom().reseed(), 0);
+    }
+
+    private static int handleFor(Entity entity, Map<Entity, Integer> handles, int[] nextHandle) {
+        Integer handle = handles.get(entity);
+        return handle != null ? handle : nextHandle[0]++;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public double getTime() {
+        return time;
+    }
+
+    public int getNumRows() {
+        return numRows;
+    }
+
+    public int getNumCols() {
+        return numCols;
+    }
+
+    Background getCell(int row, int col) {
+        return rows[row][col];
+    }
+
+    /**
+     * @return whether the given row is the same copy in both snapshots, in
+     * which case none of its cells differ
+     */
+    boolean sharesRow(WorldSnapshot other, int row) {
+        return rows[row] == other.rows[row];
+    }
+
+    public List<EntityState> getEntities() {
+        return entities;
+    }
+
+    public List<EventState> getEvents() {
+        return events;
+    }
+
+    public List<ClaimState> getClaims() {
+        return claims;
+    }
+
+    public List<TrackState> getTargets() {
+        return targets;
+    }
+
+    /**
+     * @return the world's random stream as it was, or null if the
+     * checkpoint was written before streams were saved
+     */
+    WorldRandom getRandom() {
+        return draws < 0 ? null : new WorldRandom(seed, draws);
+    }
+
+    long getSeed() {
+        return seed;
+    }
+
+    /**
+     * The saved fields of one entity. inWorld is false for entities that
+     * only survive through their scheduled events; occupying is false for
+     * entities whose cell has been taken over by another entity.
+     */
+    public static final class EntityState {
+        final int handle;
+        final EntityKind kind;
+        final EntityName name;
+        final int x;
+        final int y;
+        final int imageIndex;
+        final int resourceLimit;
+        final int resourceCount;
+        final double actionPeriod;
+        final double animationPeriod;
+        final int health;
+        final int healthLimit;
+        final boolean inWorld;
+        final boolean occupying;
+
+        EntityState(int handle, EntityKind kind, EntityName name, int x, int y, int imageIndex,
+                    int resourceLimit, int resourceCount, double actionPeriod, double animationPeriod,
+                    int health, int healthLimit, boolean inWorld, boolean occupying) {
+            this.handle = handle;
+            this.kind = kind;
+            this.name = name;
+            this.x = x;
+            this.y = y;
+            this.imageIndex = imageIndex;
+            this.resourceLimit = resourceLimit;
+            this.resourceCount = resourceCount;
+            this.actionPeriod = actionPeriod;
+            this.animationPeriod = animationPeriod;
+            this.health = health;
+            this.healthLimit = healthLimit;
+            this.inWorld = inWorld;
+            this.occupying = occupying;
+        }
+
+        private EntityState(int handle, Entity entity, boolean inWorld, boolean occupying) {
+            this(handle, entity.getKind(), entity.getName(), entity.getX(), entity.getY(),
+                    entity.getImageIndex(), entity.getResourceLimit(), entity.getResourceCount(),
+                    entity.getActionPeriod(), entity.isAnimated() ? entity.getAnimationPeriod() : 0,
+                    entity.getHealth(), entity.getHealthLimit(), inWorld, occupying);
+        }
+
+        boolean sameAs(EntityState other) {
+            return kind == other.kind && name.equals(other.name) && x == other.x && y == other.y
+                    && imageIndex == other.imageIndex && resourceLimit == other.resourceLimit
+                    && resourceCount == other.resourceCount && actionPeriod == other.actionPeriod
+                    && animationPeriod == other.animationPeriod && health == other.health
+                    && healthLimit == other.healthLimit && inWorld == other.inWorld
+                    && occupying == other.occupying;
+        }
+    }
+
+    /**
+     * One scheduled event. pendingIndex is its position in its entity's
+     * pending list, which decides the order events are unscheduled in.
+     */
+    public static final class EventState {
+        final int handle;
+        final ActionKind kind;
+        final double time;
+        final int repeatCount;
+        final int pendingIndex;
+
+        EventState(int handle, ActionKind kind, double time, int repeatCount, int pendingIndex) {
+            this.handle = handle;
+            this.kind = kind;
+            this.time = time;
+            this.repeatCount = repeatCount;
+            this.pendingIndex = pendingIndex;
+        }
+    }
+
+    public static final class ClaimState {
+        final int claimant;
+        final int target;
+        final double until;
+
+        ClaimState(int claimant, int target, double until) {
+            this.claimant = claimant;
+            this.target = target;
+            this.until = until;
+        }
+    }
+
+    public static final class TrackState {
+        final int seeker;
+        final int target;
+        /** see TargetTracker.mask */
+        final int kinds;
+
+        TrackState(int seeker, int target, int kinds) {
+            this.seeker = seeker;
+            this.target = target;
+            this.kinds = kinds;
+        }
+    }
+}
@@ -0,0 +1,281 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Backs a WorldModel with a ChunkStore so only the most recently used
+ * chunks are held in memory. Touching any cell of a chunk that is not
+ * loaded pages it in, evicting the least recently used chunk once more
+ * than capacity are loaded. Evicted chunks with changed backgrounds are
+ * written back on a single background writer thread.
+ *
+ * The entities of an evicted chunk are frozen: they leave the world's
+ * entity set and their events are parked in the EventScheduler, so they
+ * neither act nor animate until the chunk is loaded again, and then carry
+ * on from where they stopped. A chunk's saved entities are only created,
+ * and their actions scheduled, the first time the chunk is loaded.
+ *
+ * Frozen entities stay on the heap; it is the grids, not the entities,
+ * that outgrow memory.
+ */
+public final class WorldStreamer implements AutoCloseable {
+    public static final int DEFAULT_CAPACITY = 256;
+
+    private final ChunkStore store;
+    private final WorldModel world;
+    private final EventScheduler scheduler;
+    private final ImageStore imageStore;
+    private final int capacity;
+    private final int chunkSize;
+    private final LinkedHashMap<Long, Chunk> loaded;
+    private final Map<Long, List<Entity>> frozen;
+    private final Set<Long> created;
+    private final Map<Long, byte[]> writing;
+    private final ExecutorService writer;
+    private long lastKey = -1;
+    private Chunk last;
+
+    private WorldStreamer(ChunkStore store, WorldModel world, EventScheduler scheduler, ImageStore imageStore, int capacity) {
+        this.store = store;
+        this.world = world;
+        this.scheduler = scheduler;
+        this.imageStore = imageStore;
+        this.capacity = Math.max(1, capacity);
+        this.chunkSize = store.getChunkSize();
+        this.loaded = new LinkedHashMap<>(16, 0.75f, true);
+        this.frozen = new HashMap<>();
+        this.created = new HashSet<>();
+        this.writing = new ConcurrentHashMap<>();
+        this.writer = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "chunk-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Empties the world and backs it with the chunk store in a directory.
+     * Nothing is loaded until a cell is touched.
+     * @param capacity - the most chunks to hold in memory at once
+     */
+    public static WorldStreamer open(File directory, WorldModel world, EventScheduler scheduler, ImageStore imageStore, int capacity) throws IOException {
+        ChunkStore store = ChunkStore.open(directory);
+        WorldStreamer streamer = new WorldStreamer(store, world, scheduler, imageStore, capacity);
+        world.setNumRows(store.getNumRows());
+        world.setNumCols(store.getNumCols());
+        world.setBackground(null);
+        world.setOccupancy(null);
+        world.setEntities(new HashSet<>());
+        world.setStreamer(streamer);
+        return streamer;
+    }
+
+    /**
+     * Loads every chunk overlapping a region, so the entities in it start
+     * acting without waiting to be drawn.
+     */
+    public void loadRegion(int col, int row, int numCols, int numRows) {
+        int lastRow = Math.min(row + numRows, world.getNumRows()) - 1;
+        int lastCol = Math.min(col + numCols, world.getNumCols()) - 1;
+        for (int y = Math.max(0, row); y <= lastRow; y += chunkSize) {
+            for (int x = Math.max(0, col); x <= lastCol; x += chunkSize) {
+                chunkAt(x, y);
+            }
+        }
+    }
+
+    Background getBackground(int x, int y) {
+        return chunkAt(x, y).background[cellIndex(x, y)];
+    }
+
+    void setBackground(int x, int y, Background background) {
+        Chunk chunk = chunkAt(x, y);
+        chunk.background[cellIndex(x, y)] = background;
+        chunk.dirty = true;
+    }
+
+    Entity getOccupant(int x, int y) {
+        return chunkAt(x, y).occupancy[cellIndex(x, y)];
+    }
+
+    void setOccupant(int x, int y, Entity entity) {
+        chunkAt(x, y).occupancy[cellIndex(x, y)] = entity;
+    }
+
+    /**
+     * @return the number of chunks currently in memory
+     */
+    public int getLoadedCount() {
+        return loaded.size();
+    }
+
+    private Chunk chunkAt(int x, int y) {
+        long key = key(y / chunkSize, x / chunkSize);
+        if (key == lastKey) {
+            return last;
+        }
+        Chunk chunk = loaded.get(key);
+        if (chunk == null) {
+            chunk = load(key);
+        }
+        lastKey = key;
+        last = chunk;
+        return chunk;
+    }
+
+    private Chunk load(long key) {
+        while (loaded.size() >= capacity) {
+            Iterator<Map.Entry<Long, Chunk>> eldest = loaded.entrySet().iterator();
+            Map.Entry<Long, Chunk> entry = eldest.next();
+            eldest.remove();
+            evict(entry.getKey(), entry.getValue());
+        }
+
+        ChunkStore.Chunk stored = store.decode(readBytes(key), imageStore);
+        Chunk chunk = new Chunk(stored.cells, new Entity[chunkSize * chunkSize]);
+        // registered before any entity is added, since adding one touches its cell
+        loaded.put(key, chunk);
+        lastKey = key;
+        last = chunk;
+
+        List<Entity> thawed = frozen.remove(key);
+        if (thawed != null) {
+            for (Entity entity : thawed) {
+                world.restoreEntity(entity, true);
+                scheduler.unpark(entity);
+            }
+        } else if (created.add(key)) {
+            for (Entity entity : stored.entities) {
+                world.addEntity(entity);
+                entity.scheduleActions(scheduler, world, imageStore);
+            }
+        }
+        return chunk;
+    }
+
+    private void evict(long key, Chunk chunk) {
+        if (key == lastKey) {
+            lastKey = -1;
+            last = null;
+        }
+        List<Entity> entities = new ArrayList<>();
+        for (Entity entity : chunk.occupancy) {
+            if (entity != null) {
+                entities.add(entity);
+                world.freezeEntity(entity);
+                scheduler.park(entity);
+            }
+        }
+        frozen.put(key, entities);
+
+        if (chunk.dirty) {
+            byte[] bytes = store.encode(chunk.background, entities);
+            writing.put(key, bytes);
+            writer.execute(() -> {
+                try {
+                    store.write(chunkRow(key), chunkCol(key), bytes);
+                } catch (IOException e) {
+                    System.err.println(e.getMessage());
+                } finally {
+                    // a newer write of the same chunk may have been queued meanwhile
+                    writing.remove(key, bytes);
+                }
+            });
+        }
+    }
+
+    private byte[] readBytes(long key) {
+        // a chunk evicted moments ago may not have reached the disk yet
+        byte[] pending = writing.get(key);
+        if (pending != null) {
+            return pending;
+        }
+        try {
+            return store.read(chunkRow(key), chunkCol(key));
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot read chunk " + chunkRow(key) + ", " + chunkCol(key), e);
+        }
+    }
+
+    /**
+     * Writes every chunk that has been loaded since the store was opened,
+     * with the current state of its entities, and waits for the writer.
+     * The world keeps working, so this can also be used to save.
+     */
+    public void flush() throws IOException {
+        awaitWriter();
+
+        Map<Long, List<Entity>> entities = new HashMap<>(frozen);
+        for (Entity entity : world.getEntities()) {
+            Point pos = entity.getPosition();
+            entities.computeIfAbsent(key(pos.y / chunkSize, pos.x / chunkSize), k -> new ArrayList<>()).add(entity);
+        }
+        for (long key : created) {
+            Chunk chunk = loaded.get(key);
+            Background[] background = chunk != null ? chunk.background : store.decode(readBytes(key), imageStore).cells;
+            store.write(chunkRow(key), chunkCol(key), store.encode(background, entities.getOrDefault(key, List.of())));
+            if (chunk != null) {
+                chunk.dirty = false;
+            }
+        }
+    }
+
+    /**
+     * Flushes, then stops the writer thread.
+     */
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            writer.shutdown();
+        }
+    }
+
+    private void awaitWriter() {
+        try {
+            writer.submit(() -> { }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private int cellIndex(int x, int y) {
+        return (y % chunkSize) * chunkSize + x % chunkSize;
+    }
+
+    private static long key(int chunkRow, int chunkCol) {
+        return ((long) chunkRow << 32) | (chunkCol & 0xffffffffL);
+    }
+
+    private static int chunkRow(long key) {
+        return (int) (key >>> 32);
+    }
+
+    private static int chunkCol(long key) {
+        return (int) key;
+    }
+
+    private static final class Chunk {
+        private final Background[] background;
+        private final Entity[] occupancy;
+        private boolean dirty;
+
+        private Chunk(Background[] background, Entity[] occupancy) {
+            this.background = background;
+            this.occupancy = occupancy;
+        }
+    }
+}
@@ -0,0 +1,240 @@
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import processing.core.PApplet;
+import processing.core.PImage;
+
+/**
+ * A downsampled picture of the whole world with one pixel per chunk of
+ * CHUNK_SIZE x CHUNK_SIZE cells, used by WorldView when zoomed too far out
+ * to draw individual sprites. Each pixel is the chunk's most common
+ * background color tinted by the kind of entity that is most common there,
+ * in proportion to how crowded the chunk is.
+ *
+ * WorldModel reports every background change and entity add, remove and
+ * move, so only the chunks that actually changed are recolored.
+ */
+public final class WorldSummary {
+    public static final int CHUNK_SIZE = 16;
+
+    private static final int OPAQUE = 0xff000000;
+    private static final Map<EntityKind, Integer> KIND_COLORS = new EnumMap<>(EntityKind.class);
+
+    static {
+        KIND_COLORS.put(EntityKind.HOUSE, 0xb05a2a);
+        KIND_COLORS.put(EntityKind.PERSON_FULL, 0x3050e0);
+        KIND_COLORS.put(EntityKind.PERSON_SEARCHING, 0x3050e0);
+        KIND_COLORS.put(EntityKind.OBSTACLE, 0x2060c0);
+        KIND_COLORS.put(EntityKind.FAIRY, 0xf0a0f0);
+        KIND_COLORS.put(EntityKind.STUMP, 0x705030);
+        KIND_COLORS.put(EntityKind.SAPLING, 0x60d060);
+        KIND_COLORS.put(EntityKind.TREE, 0x106010);
+        KIND_COLORS.put(EntityKind.CAT, 0x404040);
+        KIND_COLORS.put(EntityKind.PINK, 0xff80c0);
+        KIND_COLORS.put(EntityKind.ORANGE, 0xff9020);
+        KIND_COLORS.put(EntityKind.DOG, 0xc0a070);
+        KIND_COLORS.put(EntityKind.TREAT, 0xffe040);
+    }
+
+    private final int chunkRows;
+    private final int chunkCols;
+    private final int numRows;
+    private final int numCols;
+    // per chunk, how many cells have each background id
+    private final List<Map<String, Integer>> backgroundCounts;
+    private final int[][] kindCounts;
+    private final Map<String, Integer> backgroundColors;
+    private final BitSet dirty;
+    private final PImage image;
+
+    public WorldSummary(WorldModel world) {
+        this.numRows = world.getNumRows();
+        this.numCols = world.getNumCols();
+        this.chunkRows = Math.max(1, (numRows + CHUNK_SIZE - 1) / CHUNK_SIZE);
+        this.chunkCols = Math.max(1, (numCols + CHUNK_SIZE - 1) / CHUNK_SIZE);
+        this.backgroundCounts = new ArrayList<>(chunkRows * chunkCols);
+        this.kindCounts = new int[chunkRows * chunkCols][EntityKind.values().length];
+        this.backgroundColors = new HashMap<>();
+        this.dirty = new BitSet(chunkRows * chunkCols);
+        this.image = new PImage(chunkCols, chunkRows, PApplet.RGB);
+
+        for (int i = 0; i < chunkRows * chunkCols; i++) {
+            backgroundCounts.add(new HashMap<>());
+        }
+        Background[] cells = new Background[numCols];
+        for (int row = 0; row < numRows; row++) {
+            world.copyBackgroundRow(row, cells, 0);
+            for (int col = 0; col < numCols; col++) {
+                Background background = cells[col];
+                if (background != null) {
+                    backgroundCounts.get(chunkOf(col, row)).merge(background.id, 1, Integer::sum);
+                    backgroundColors.computeIfAbsent(background.id, id -> averageColor(background.getCurrentImage()));
+                }
+            }
+        }
+        for (Entity entity : world.getEntities()) {
+            entityAdded(entity);
+        }
+        dirty.set(0, chunkRows * chunkCols);
+    }
+
+    public synchronized void backgroundChanged(Point pos, Background oldBackground, Background newBackground) {
+        Map<String, Integer> counts = backgroundCounts.get(chunkOf(pos.x, pos.y));
+        if (oldBackground != null) {
+            counts.computeIfPresent(oldBackground.id, (id, count) -> count > 1 ? count - 1 : null);
+        }
+        if (newBackground != null) {
+            counts.merge(newBackground.id, 1, Integer::sum);
+            backgroundColors.computeIfAbsent(newBackground.id, id -> averageColor(newBackground.getCurrentImage()));
+        }
+        dirty.set(chunkOf(pos.x, pos.y));
+    }
+
+    public synchronized void entityAdded(Entity entity) {
+        adjust(entity.getPosition(), entity.getKind(), 1);
+    }
+
+    public synchronized void entityRemoved(Point pos, Entity entity) {
+        adjust(pos, entity.getKind(), -1);
+    }
+
+    public synchronized void entityMoved(Entity entity, Point oldPos, Point newPos) {
+        entityMoved(entity, PackedPoint.of(oldPos), PackedPoint.of(newPos));
+    }
+
+    /**
+     * entityMoved for packed points; see PackedPoint.
+     */
+    synchronized void entityMoved(Entity entity, long oldPos, long newPos) {
+        int oldX = PackedPoint.x(oldPos);
+        int oldY = PackedPoint.y(oldPos);
+        int newX = PackedPoint.x(newPos);
+        int newY = PackedPoint.y(newPos);
+        if (chunkOf(oldX, oldY) != chunkOf(newX, newY)) {
+            adjust(oldX, oldY, entity.getKind(), -1);
+            adjust(newX, newY, entity.getKind(), 1);
+        }
+    }
+
+    /**
+     * Recolors the chunks that changed since the last call and returns the
+     * summary image, one pixel per chunk.
+     */
+    public synchronized PImage getImage() {
+        if (!dirty.isEmpty()) {
+            image.loadPixels();
+            for (int chunk = dirty.nextSetBit(0); chunk >= 0; chunk = dirty.nextSetBit(chunk + 1)) {
+                image.pixels[chunk] = chunkColor(chunk);
+            }
+            image.updatePixels();
+            dirty.clear();
+        }
+        return image;
+    }
+
+    /**
+     * @return how many cells of the chunk holding (col, row) have the
+     * given background
+     */
+    synchronized int getBackgroundCount(int col, int row, String id) {
+        return backgroundCounts.get(chunkOf(col, row)).getOrDefault(id, 0);
+    }
+
+    /**
+     * @return how many entities of the given kind are in the chunk holding
+     * (col, row)
+     */
+    synchronized int getKindCount(int col, int row, EntityKind kind) {
+        return kindCounts[chunkOf(col, row)][kind.ordinal()];
+    }
+
+    public int getChunkRows() {
+        return chunkRows;
+    }
+
+    public int getChunkCols() {
+        return chunkCols;
+    }
+
+    private void adjust(Point pos, EntityKind kind, int delta) {
+        adjust(pos.x, pos.y, kind, delta);
+    }
+
+    private void adjust(int x, int y, EntityKind kind, int delta) {
+        if (x < 0 || x >= numCols || y < 0 || y >= numRows) {
+            return;
+        }
+        int chunk = chunkOf(x, y);
+        kindCounts[chunk][kind.ordinal()] += delta;
+        dirty.set(chunk);
+    }
+
+    private int chunkColor(int chunk) {
+        String dominant = null;
+        int dominantCount = 0;
+        for (Map.Entry<String, Integer> entry : backgroundCounts.get(chunk).entrySet()) {
+            if (entry.getValue() > dominantCount) {
+                dominant = entry.getKey();
+                dominantCount = entry.getValue();
+            }
+        }
+        int base = dominant == null ? 0 : backgroundColors.get(dominant);
+
+        int[] counts = kindCounts[chunk];
+        int total = 0;
+        int busiest = 0;
+        for (int kind = 0; kind < counts.length; kind++) {
+            total += counts[kind];
+            if (counts[kind] > counts[busiest]) {
+                busiest = kind;
+            }
+        }
+        if (total == 0) {
+            return OPAQUE | base;
+        }
+
+        // sqrt so that a handful of entities in a chunk is still visible
+        double density = Math.min(1.0, Math.sqrt((double) total / cellsIn(chunk)));
+        return OPAQUE | mix(base, KIND_COLORS.get(EntityKind.values()[busiest]), density);
+    }
+
+    private int cellsIn(int chunk) {
+        int row = chunk / chunkCols;
+        int col = chunk % chunkCols;
+        int rows = Math.min(CHUNK_SIZE, numRows - row * CHUNK_SIZE);
+        int cols = Math.min(CHUNK_SIZE, numCols - col * CHUNK_SIZE);
+        return Math.max(1, rows * cols);
+    }
+
+    private int chunkOf(int col, int row) {
+        return (row / CHUNK_SIZE) * chunkCols + col / CHUNK_SIZE;
+    }
+
+    private static int mix(int from, int to, double weight) {
+        int r = (int) Math.round(((from >> 16) & 0xff) * (1 - weight) + ((to >> 16) & 0xff) * weight);
+        int g = (int) Math.round(((from >> 8) & 0xff) * (1 - weight) + ((to >> 8) & 0xff) * weight);
+        int b = (int) Math.round((from & 0xff) * (1 - weight) + (to & 0xff) * weight);
+        return (r << 16) | (g << 8) | b;
+    }
+
+    private static int averageColor(PImage img) {
+        img.loadPixels();
+        if (img.pixels == null || img.pixels.length == 0) {
+            return 0;
+        }
+        long r = 0;
+        long g = 0;
+        long b = 0;
+        for (int p : img.pixels) {
+            r += (p >> 16) & 0xff;
+            g += (p >> 8) & 0xff;
+            b += p & 0xff;
+        }
+        int n = img.pixels.length;
+        return (int) (r / n) << 16 | (int) (g / n) << 8 | (int) (b / n);
+    }
+}
@@ -1,11 +1,38 @@
+import java.awt.image.BufferedImage;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Random;
+import java.util.Scanner;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.LongFunction;
+
+import javax.imageio.ImageIO;
 
 import org.junit.jupiter.api.Test;
+import processing.core.PApplet;
+import processing.core.PImage;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class WorldTests {
+    // a little of everything, busy enough to exercise checkpoints and replay
+    static final String BUSY_SAVE = makeSave(3, 5, "person myperson 0 1 0.500 100.0 1", "tree  2 1 0.001 0.250 1", "house  4 1", "obstacle myobstacle 0 0 0.300", "tree  0 2 100.0 0.130 1");
+
     public static String makeSave(int rows, int cols, String... entities) {
         StringBuilder sb = new StringBuilder(String.format("Rows:\n%d\nCols:\n%d\nEntities:\n", rows, cols));
         for (String entity : entities) {
@@ -14,6 +41,85 @@ public class WorldTests {
         return sb.toString();
     }
 
+    /**
+     * Loads a save into a new world with an empty scheduler, for tests that
+     * drive the model directly rather than through headlessMain.
+     */
+    static Fixture loadWorld(String sav) {
+        Fixture fixture = new Fixture();
+        WorldLoader.load(fixture.world, new Scanner(sav), fixture.imageStore, VirtualWorld.createDefaultBackground(fixture.imageStore));
+        return fixture;
+    }
+
+    static final class Fixture {
+        final ImageStore imageStore = new ImageStore(VirtualWorld.createImageColored(1, 1, 0));
+        final WorldModel world = new WorldModel();
+        final EventScheduler scheduler = new EventScheduler();
+
+        /**
+         * Schedules every entity loaded, as headlessMain does.
+         */
+        void scheduleAll() {
+            for (Entity entity : new ArrayList<>(world.getEntities())) {
+                entity.scheduleActions(scheduler, world, imageStore);
+            }
+        }
+    }
+
+    /**
+     * Loads the save with WorldLoader, then with MappedWorldLoader on one
+     * thread and on eight, and checks each gives the same world or throws
+     * the same exception.
+     */
+    static void assertSameLoad(String sav) throws IOException {
+        File file = Files.createTempFile("world", ".sav").toFile();
+        file.deleteOnExit();
+        Files.writeString(file.toPath(), sav);
+
+        List<String> expected = loadOutcome(fixture -> WorldLoader.load(fixture.world, new Scanner(sav), fixture.imageStore, VirtualWorld.createDefaultBackground(fixture.imageStore)));
+        for (int threads : new int[]{1, 8}) {
+            List<String> mapped = loadOutcome(fixture -> {
+                try {
+                    MappedWorldLoader.load(fixture.world, file, fixture.imageStore, VirtualWorld.createDefaultBackground(fixture.imageStore), threads);
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            assertEquals(expected, mapped, threads + " threads");
+        }
+    }
+
+    /*
+       The world's size, background ids and entities after loading, or the
+       exception the load threw.
+     */
+    private static List<String> loadOutcome(Consumer<Fixture> load) {
+        Fixture fixture = new Fixture();
+        try {
+            load.accept(fixture);
+        } catch (RuntimeException e) {
+            return List.of(e.getClass().getName(), String.valueOf(e.getMessage()));
+        }
+        WorldModel world = fixture.world;
+        List<String> outcome = new ArrayList<>();
+        outcome.add(world.getNumRows() + "x" + world.getNumCols());
+        for (Background[] row : world.getBackground()) {
+            StringBuilder ids = new StringBuilder();
+            for (Background cell : row) {
+                ids.append(cell == null ? "-" : cell.id).append(' ');
+            }
+            outcome.add(ids.toString());
+        }
+        List<String> entities = new ArrayList<>();
+        for (Entity entity : world.getEntities()) {
+            entities.add(entity.getKind() + " " + entity.getId() + " " + entity.getPosition() + " " + entity.getImageIndex()
+                    + " " + entity.getActionPeriod() + " " + entity.getHealth() + " " + entity.getResourceCount());
+        }
+        Collections.sort(entities);
+        outcome.addAll(entities);
+        return outcome;
+    }
+
     @Test
     public void testTreeAnimation() {
         String sav = makeSave(1, 1, "tree mytree 0 0 100.0 0.250 1");
@@ -74,6 +180,245 @@ public class WorldTests {
 
     }
 
+    @Test
+    public void testBackgroundRuns() {
+        String sav = """
+                Rows:
+                2
+                Cols:
+                5
+                BackgroundRuns:
+                grass*3 dirt*2
+                grass*9
+                Entities:
+                tree mytree 0 0 100.0 0.250 1""";
+
+        List<String> entities = VirtualWorld.headlessMain(new String[]{sav}, 5);
+        List<String> compressed = VirtualWorld.headlessMain(new String[]{sav, "-compress-backgrounds"}, 5);
+
+        assertEquals(List.of("mytree 0 0 20"), entities);
+        assertEquals(entities, compressed);
+
+        assertThrows(IllegalArgumentException.class, () ->
+            VirtualWorld.headlessMain(new String[]{"Rows:\n1\nCols:\n1\nBackgroundRuns:\ngrass*0"}, 1)
+        );
+    }
+
+    @Test
+    public void testSharedBackgrounds() {
+        int size = 500;
+        StringBuilder sav = new StringBuilder(String.format("Rows:\n%d\nCols:\n%d\nBackgrounds:\n", size, size));
+        for (int row = 0; row < size; row++) {
+            for (int col = 0; col < size; col++) {
+                sav.append(col > 0 ? " " : "").append(col % 10 == 0 ? "dirt" : "grass");
+            }
+            sav.append('\n');
+        }
+        long before = usedHeap();
+        Fixture fixture = loadWorld(sav.toString());
+        long shared = usedHeap() - before;
+        fixture.world.setBackgroundCell(new Point(0, 0), fixture.imageStore.getBackground("grass"));
+
+        // a quarter of a million cells, but only one Background per id on the heap
+        Set<Background> distinct = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Background[] row : fixture.world.getBackground()) {
+            Collections.addAll(distinct, row);
+        }
+        assertEquals(2, distinct.size());
+
+        // the same grid with a Background per cell, as loading used to build it
+        before = usedHeap();
+        Background[][] unshared = new Background[size][size];
+        for (int row = 0; row < size; row++) {
+            for (int col = 0; col < size; col++) {
+                String id = fixture.world.getBackground()[row][col].id;
+                unshared[row][col] = new Background(id, fixture.imageStore.getImageList(id));
+            }
+        }
+        long perCell = usedHeap() - before;
+        assertEquals(size, unshared.length);
+        assertTrue(shared * 2 < perCell, String.format("shared grid retains %d bytes, one Background per cell %d", shared, perCell));
+    }
+
+    /*
+       Heap in use once the garbage has been collected, near enough to
+       compare how much two structures retain.
+     */
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    @Test
+    public void testWorldSummary() {
+        Fixture fixture = loadWorld(makeSave(20, 20, "stump mystump 1 1", "obstacle myobstacle 17 2 0.5"));
+        WorldModel world = fixture.world;
+        world.setSummary(new WorldSummary(world));
+        Entity obstacle = world.getOccupant(new Point(17, 2)).orElseThrow();
+        String grass = world.getBackgroundCell(new Point(0, 0)).id;
+        int chunk = WorldSummary.CHUNK_SIZE;
+
+        assertEquals(1, world.getSummary().getKindCount(1, 1, EntityKind.STUMP));
+        assertEquals(1, world.getSummary().getKindCount(17, 2, EntityKind.OBSTACLE));
+        assertEquals(chunk * chunk, world.getSummary().getBackgroundCount(0, 0, grass));
+        // the last chunks in each direction are cut short by the edge of the world
+        assertEquals((20 - chunk) * (20 - chunk), world.getSummary().getBackgroundCount(19, 19, grass));
+
+        world.moveEntity(fixture.scheduler, obstacle, new Point(3, 2));
+        assertEquals(0, world.getSummary().getKindCount(17, 2, EntityKind.OBSTACLE));
+        assertEquals(1, world.getSummary().getKindCount(3, 2, EntityKind.OBSTACLE));
+        world.removeEntity(fixture.scheduler, world.getOccupant(new Point(1, 1)).orElseThrow());
+        assertEquals(0, world.getSummary().getKindCount(1, 1, EntityKind.STUMP));
+        world.setBackgroundCell(new Point(0, 0), new Background("dirt", List.of(VirtualWorld.createImageColored(1, 1, 1))));
+        assertEquals(1, world.getSummary().getBackgroundCount(0, 0, "dirt"));
+        assertEquals(chunk * chunk - 1, world.getSummary().getBackgroundCount(0, 0, grass));
+
+        // a new grid, as on a resume, rebuilds the summary rather than leaving it stale
+        Background dirt = new Background("dirt", List.of(VirtualWorld.createImageColored(1, 1, 1)));
+        Background[][] grid = new Background[20][20];
+        for (Background[] row : grid) {
+            Arrays.fill(row, dirt);
+        }
+        world.setBackground(grid);
+        assertEquals(chunk * chunk, world.getSummary().getBackgroundCount(0, 0, "dirt"));
+        assertEquals(0, world.getSummary().getBackgroundCount(0, 0, grass));
+        assertEquals(1, world.getSummary().getKindCount(3, 2, EntityKind.OBSTACLE));
+
+        // kept up to date step by step, it matches one built from scratch
+        Fixture busy = loadWorld(BUSY_SAVE);
+        busy.world.setSummary(new WorldSummary(busy.world));
+        busy.scheduleAll();
+        busy.scheduler.updateOnTime(5);
+        WorldSummary fresh = new WorldSummary(busy.world);
+        for (EntityKind kind : EntityKind.values()) {
+            assertEquals(fresh.getKindCount(0, 0, kind), busy.world.getSummary().getKindCount(0, 0, kind), kind.toString());
+        }
+    }
+
+    @Test
+    public void testLazyImages() {
+        ImageStore imageStore = new ImageStore(VirtualWorld.createImageColored(1, 1, 0));
+        AtomicInteger decodes = new AtomicInteger();
+        List<PImage> frames = List.of(VirtualWorld.createImageColored(1, 1, 1), VirtualWorld.createImageColored(1, 1, 2));
+        imageStore.addSource("tree", () -> {
+            decodes.incrementAndGet();
+            return frames;
+        });
+        imageStore.addSource("unused", () -> {
+            throw new AssertionError("decoded a sprite nobody asked for");
+        });
+
+        assertEquals(0, decodes.get());
+        imageStore.preload(Set.of("tree", "mytree", "Entities:"));
+        assertEquals(1, decodes.get());
+        assertSame(frames, imageStore.getImageList("tree"));
+        assertSame(frames, imageStore.getImageList("tree"));
+        assertEquals(1, decodes.get());
+        assertEquals(1, imageStore.getImageList("missing").size());
+    }
+
+    @Test
+    public void testPixelKernels() {
+        // whichever kernel was selected must match the scalar one pixel for pixel,
+        // including lengths that leave a partial vector at the end
+        PixelKernel scalar = new ScalarPixelKernel();
+        PixelKernel selected = PixelKernel.DEFAULT;
+        Random rand = new Random(7);
+        int maskColor = 0xffff00ff;
+        for (int length = 0; length <= 70; length++) {
+            int[] pixels = new int[length];
+            for (int i = 0; i < length; i++) {
+                int alpha = new int[]{0, 0xff, rand.nextInt(256)}[rand.nextInt(3)];
+                pixels[i] = alpha << 24 | (rand.nextInt(3) == 0 ? maskColor & 0xffffff : rand.nextInt(0x1000000));
+            }
+            int[] expected = pixels.clone();
+            int[] actual = pixels.clone();
+            scalar.colorKey(expected, maskColor, 0);
+            selected.colorKey(actual, maskColor, 0);
+            assertArrayEquals(expected, actual, "colorKey, length " + length);
+            scalar.premultiplyAlpha(expected);
+            selected.premultiplyAlpha(actual);
+            assertArrayEquals(expected, actual, "premultiplyAlpha, length " + length);
+
+            // the same pixels as a tile one to length wide, placed partly off the destination
+            int width = length % 19 + 1;
+            int height = length / width;
+            int[] dst = new int[37 * 11];
+            for (int i = 0; i < dst.length; i++) {
+                dst[i] = 0xff000000 | rand.nextInt(0x1000000);
+            }
+            int[] expectedDst = dst.clone();
+            int[] actualDst = dst.clone();
+            int x = length % 41 - width / 2;
+            int y = length % 13 - 2;
+            scalar.composite(expectedDst, 37, 11, x, y, pixels, width, height);
+            selected.composite(actualDst, 37, 11, x, y, pixels, width, height);
+            assertArrayEquals(expectedDst, actualDst, "composite, length " + length);
+        }
+    }
+
+    @Test
+    public void testSpriteCache() throws IOException {
+        File directory = Files.createTempDirectory("sprites").toFile();
+        File source = new File(directory, "sprite.png");
+        Files.write(source.toPath(), new byte[]{1, 2, 3, 4});
+        SpriteCache cache = new SpriteCache(new File(directory, "cache"));
+        PImage sprite = new PImage(2, 1, PApplet.ARGB);
+        sprite.pixels[0] = 0xff123456;
+
+        assertNull(cache.read(source, true, 7));
+        cache.write(source, true, 7, sprite);
+        PImage cached = cache.read(source, true, 7);
+        assertArrayEquals(sprite.pixels, cached.pixels);
+        // keyed with another color, or not at all, is a different sprite
+        assertNull(cache.read(source, true, 8));
+        assertNull(cache.read(source, false, 7));
+
+        // an edit that keeps the size and the time is still noticed
+        long lastModified = source.lastModified();
+        Files.write(source.toPath(), new byte[]{1, 2, 3, 5});
+        assertTrue(source.setLastModified(lastModified));
+        assertNull(cache.read(source, true, 7));
+    }
+
+    @Test
+    public void testDecodeWithoutPApplet() throws IOException {
+        File directory = Files.createTempDirectory("images").toFile();
+        StringBuilder list = new StringBuilder();
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            BufferedImage image = new BufferedImage(3, 2, BufferedImage.TYPE_INT_ARGB);
+            image.setRGB(1, 1, 0xff000000 | i);
+            image.setRGB(2, 0, 0x80ff0000);
+            File file = new File(directory, "sprite" + i + ".png");
+            ImageIO.write(image, "png", file);
+            list.append("sprite").append(i).append(' ').append(file.getPath()).append('\n');
+            keys.add("sprite" + i);
+        }
+        ImageStore imageStore = new ImageStore(VirtualWorld.createImageColored(1, 1, 0));
+        PApplet screen = new PApplet() {
+            @Override
+            public PImage loadImage(String fileName) {
+                throw new AssertionError("decoded " + fileName + " through the PApplet");
+            }
+        };
+
+        // decoded on the preload pool, none of it through PApplet.loadImage
+        ImageLoader.loadImages(new Scanner(list.toString()), imageStore, screen);
+        imageStore.preload(keys);
+        for (int i = 0; i < 8; i++) {
+            PImage sprite = imageStore.getImageList("sprite" + i).get(0);
+            assertEquals(3, sprite.width);
+            assertEquals(2, sprite.height);
+            assertEquals(0xff000000 | i, sprite.get(1, 1));
+            assertEquals(0x80ff0000, sprite.get(2, 0));
+        }
+        assertNull(ImageLoader.readImage(new File(directory, "missing.png")));
+    }
+
     @Test
     public void testWithinBounds() {
         String sav = makeSave(9, 4, "house houseiry 4 9");
@@ -82,6 +427,110 @@ public class WorldTests {
         assertEquals(0, entities.size());
     }
 
+    @Test
+    public void testPackedPoints() {
+        long p = PackedPoint.of(-1, 7);
+        assertEquals(new Point(-1, 7), PackedPoint.toPoint(p));
+        assertEquals(PackedPoint.of(new Point(0, 7)), PackedPoint.offset(p, 1, 0));
+        assertTrue(PackedPoint.adjacent(p, PackedPoint.of(-1, 6)));
+        assertFalse(PackedPoint.adjacent(p, PackedPoint.of(0, 6)));
+        assertEquals(25, PackedPoint.distanceSquared(p, PackedPoint.of(2, 3)));
+        assertEquals(7, PackedPoint.manhattan(p, PackedPoint.of(2, 3)));
+
+        Fixture fixture = loadWorld(makeSave(2, 3, "stump mystump 0 0"));
+        Entity stump = fixture.world.getOccupant(new Point(0, 0)).orElseThrow();
+        assertFalse(fixture.world.withinBounds(p));
+        assertNull(fixture.world.getOccupantAt(p));
+        assertNull(fixture.world.getBackgroundImageAt(p));
+        assertSame(stump, fixture.world.getOccupantAt(PackedPoint.of(0, 0)));
+
+        fixture.world.moveEntity(fixture.scheduler, stump, PackedPoint.of(2, 1));
+        assertEquals(new Point(2, 1), stump.getPosition());
+        assertSame(stump, fixture.world.getOccupant(new Point(2, 1)).orElseThrow());
+        assertTrue(fixture.world.getOccupant(new Point(0, 0)).isEmpty());
+
+        Viewport viewport = new Viewport(2, 2);
+        viewport.shift(1, 1);
+        assertEquals(PackedPoint.of(1, 0), viewport.worldToViewport(PackedPoint.of(2, 1)));
+        assertEquals(PackedPoint.of(2, 1), viewport.viewportToWorld(PackedPoint.of(1, 0)));
+        assertTrue(viewport.contains(PackedPoint.of(2, 1)));
+        assertFalse(viewport.contains(PackedPoint.of(0, 1)));
+    }
+
+    @Test
+    public void testRenderSnapshot() {
+        Fixture fixture = loadWorld(makeSave(1, 3));
+        List<PImage> frames = List.of(VirtualWorld.createImageColored(1, 1, 1), VirtualWorld.createImageColored(1, 1, 2));
+        Entity rock = Factory.createObstacle("rock", new Point(0, 0), 0.5, frames);
+        fixture.world.tryAddEntity(rock);
+        fixture.scheduleAll();
+        Background before = fixture.world.getBackgroundCell(new Point(0, 0));
+        RenderSnapshot snapshot = RenderSnapshot.capture(fixture.world, 0, 0, 1, 3, 0);
+
+        // later steps animate, move and repaint, but the snapshot keeps what it saw
+        fixture.scheduler.updateOnTime(0.6);
+        fixture.world.moveEntity(fixture.scheduler, rock, new Point(2, 0));
+        fixture.world.setBackgroundCell(new Point(0, 0), new Background("dirt", frames));
+        assertSame(frames.get(1), rock.getCurrentImage());
+        assertEquals(1, snapshot.getSprites().size());
+        RenderSnapshot.Sprite sprite = snapshot.getSprites().get(0);
+        assertEquals(0, sprite.getViewCol());
+        assertSame(frames.get(0), sprite.getImage());
+        assertSame(before, snapshot.getBackground(0, 0));
+
+        // a position once read does not change under its reader
+        Viewport viewport = new Viewport(2, 2);
+        Viewport.Position at = viewport.getPosition();
+        viewport.moveTo(3, 4, 2);
+        assertEquals(0, at.getCol());
+        assertEquals(0, at.getRow());
+        assertEquals(1, at.getScale());
+        assertEquals(3, viewport.getPosition().getCol());
+        assertEquals(4, viewport.getVisibleRows());
+    }
+
+    @Test
+    public void testSpawn() {
+        PImage image = VirtualWorld.createImageColored(1, 1, 0);
+        List<PImage> images = List.of(image, image, image);
+        List<String> logs = new ArrayList<>();
+        for (boolean bulk : new boolean[]{true, false}) {
+            Fixture fixture = loadWorld(makeSave(6, 6, "stump mystump 2 2"));
+            WorldModel world = fixture.world;
+            EventScheduler scheduler = fixture.scheduler;
+            LongFunction<Entity> rock = cell -> new Entity(EntityKind.OBSTACLE, EntityName.of("rock" + PackedPoint.x(cell) + PackedPoint.y(cell)),
+                    cell, images, 0, 0, 0, 0.1 * (1 + PackedPoint.x(cell)), 0, 0);
+            List<Entity> spawned = new ArrayList<>();
+            if (bulk) {
+                // clipped to the world and around the stump, then a plus-shaped brush
+                spawned.addAll(world.spawn(-1, -1, 4, 4, rock));
+                assertEquals(8, spawned.size());
+                spawned.addAll(world.spawnBrush(new Point(4, 4), 1, rock));
+                assertEquals(13, spawned.size());
+                assertTrue(world.getOccupant(new Point(3, 3)).isEmpty());
+                scheduler.scheduleActions(spawned, world, fixture.imageStore);
+            } else {
+                for (Point p : List.of(new Point(0, 0), new Point(1, 0), new Point(2, 0), new Point(0, 1), new Point(1, 1),
+                        new Point(2, 1), new Point(0, 2), new Point(1, 2), new Point(4, 3), new Point(3, 4),
+                        new Point(4, 4), new Point(5, 4), new Point(4, 5))) {
+                    Entity entity = rock.apply(PackedPoint.of(p));
+                    world.addEntity(entity);
+                    entity.scheduleActions(scheduler, world, fixture.imageStore);
+                    spawned.add(entity);
+                }
+            }
+            assertEquals(13, scheduler.getQueuedEvents().size());
+            scheduler.updateOnTime(2.05);
+            for (Entity entity : spawned) {
+                assertEquals(1, scheduler.getPendingEvents(entity).size());
+            }
+            List<String> log = world.log();
+            Collections.sort(log);
+            logs.add(String.join("\n", log));
+        }
+        assertEquals(logs.get(0), logs.get(1));
+    }
+
     @Test
     public void testTryAddEntity() {
         String sav = makeSave(1, 1, "stump stumpo 0 0", "stump stumpy 0 0");
@@ -152,6 +601,63 @@ public class WorldTests {
         assertEquals("tree_mysapling 0 0 0", entities.get(0));
     }
 
+    @Test
+    public void testForestGrowsAfterResume() throws IOException {
+        String[] saplings = new String[12];
+        for (int i = 0; i < saplings.length; i++) {
+            saplings[i] = String.format("sapling s%d %d %d 0", i, i % 4, i / 4);
+        }
+        String sav = makeSave(3, 4, saplings);
+        String checkpoints = Files.createTempDirectory("forest").toString();
+
+        List<String> uninterrupted = VirtualWorld.headlessMain(new String[]{sav}, 6);
+        VirtualWorld.headlessMain(new String[]{sav, "-checkpoint=" + checkpoints, "-checkpoint-interval=3"}, 3);
+        List<String> resumed = VirtualWorld.headlessMain(new String[]{"-resume=" + checkpoints}, 3);
+
+        // grown trees get random animation periods, so leave out the image index
+        uninterrupted.replaceAll(tree -> tree.substring(0, tree.lastIndexOf(' ')));
+        resumed.replaceAll(tree -> tree.substring(0, tree.lastIndexOf(' ')));
+        assertEquals(12, uninterrupted.size());
+        for (String tree : uninterrupted) {
+            assertTrue(tree.startsWith("tree_s"), tree);
+        }
+        Collections.sort(uninterrupted);
+        Collections.sort(resumed);
+        assertEquals(uninterrupted, resumed);
+    }
+
+    @Test
+    public void testSeededForest() throws IOException {
+        String sav = makeSave(1, 4, "sapling a 0 0 0", "sapling b 1 0 0", "sapling c 2 0 0", "sapling d 3 0 0");
+        String checkpoints = Files.createTempDirectory("checkpoints").toString();
+
+        // every tree's periods come from the seed, so its animation frame does too
+        List<String> seeded = VirtualWorld.headlessMain(new String[]{sav, "-seed=42"}, 12);
+        assertEquals(seeded, VirtualWorld.headlessMain(new String[]{"Seed:\n42\n" + sav}, 12));
+
+        VirtualWorld.headlessMain(new String[]{sav, "-seed=42", "-checkpoint=" + checkpoints, "-checkpoint-interval=3"}, 6);
+        assertEquals(seeded, VirtualWorld.headlessMain(new String[]{"-resume=" + checkpoints}, 6));
+
+        // a checkpoint reseeds the stream, so a resumed run that goes on taking
+        // checkpoints matches a run checkpointed at the same times
+        String uninterrupted = Files.createTempDirectory("checkpoints").toString();
+        List<String> checkpointed = VirtualWorld.headlessMain(new String[]{sav, "-seed=42", "-checkpoint=" + uninterrupted, "-checkpoint-interval=3"}, 12);
+        String resumed = Files.createTempDirectory("checkpoints").toString();
+        assertEquals(checkpointed, VirtualWorld.headlessMain(new String[]{"-resume=" + checkpoints, "-checkpoint=" + resumed, "-checkpoint-interval=3"}, 6));
+
+        // resuming needs only the new seed, however many numbers came before it
+        WorldRandom random = new WorldRandom(42);
+        for (int i = 0; i < 1000; i++) {
+            random.nextDouble(0, 1);
+        }
+        long seed = random.reseed();
+        assertEquals(seed, random.reseed());
+        WorldRandom restored = new WorldRandom(seed);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(random.nextDouble(0, 1), restored.nextDouble(0, 1));
+        }
+    }
+
     @Test
     public void testTreeIntoStump() {
         String sav = makeSave(2, 1, "tree mytree 0 0 0.100 100.0 1", "person  0 1 1.000 0.100 10");
@@ -161,6 +667,150 @@ public class WorldTests {
         assertEquals("stump_mytree 0 0 0", entities.get(0));
     }
 
+    @Test
+    public void testTransitionInPlace() {
+        String sav = makeSave(1, 3, "person myperson 0 0 0.500 100.0 1", "tree mytree 2 0 0.500 100.0 1");
+        Fixture fixture = loadWorld(sav);
+        Entity person = fixture.world.getOccupant(new Point(0, 0)).orElseThrow();
+        Entity tree = fixture.world.getOccupant(new Point(2, 0)).orElseThrow();
+        fixture.scheduleAll();
+        Event animation = fixture.scheduler.getPendingEvents(person).get(1);
+
+        fixture.scheduler.updateOnTime(3);
+
+        // the same objects, still in their cells, now of their new kinds
+        assertSame(person, fixture.world.getOccupant(new Point(1, 0)).orElseThrow());
+        assertEquals(EntityKind.PERSON_FULL, person.getKind());
+        assertTrue(fixture.scheduler.getPendingEvents(person).contains(animation));
+        assertSame(tree, fixture.world.getOccupant(new Point(2, 0)).orElseThrow());
+        assertEquals(EntityKind.STUMP, tree.getKind());
+        assertEquals("stump_mytree", tree.getId());
+        assertTrue(fixture.scheduler.getPendingEvents(tree).isEmpty());
+        assertEquals(2, fixture.world.getEntities().size());
+    }
+
+    @Test
+    public void testDerivedNames() {
+        EntityName stump = EntityName.derived(WorldLoader.STUMP_KEY, EntityName.derived(WorldLoader.SAPLING_KEY, EntityName.of("mytree")));
+        assertEquals("stump_sapling_mytree", stump.toString());
+        assertSame(stump.toString(), stump.toString());
+        assertTrue(EntityName.of("").isEmpty());
+        assertEquals("dog_", EntityName.derived("dog", EntityName.EMPTY).toString());
+
+        // a long chain of transforms is put together without recursing, once
+        EntityName name = EntityName.of("mytree");
+        for (int i = 0; i < 100000; i++) {
+            name = EntityName.derived(i % 2 == 0 ? WorldLoader.STUMP_KEY : WorldLoader.SAPLING_KEY, name);
+        }
+        assertEquals(50000 * ("stump_".length() + "sapling_".length()) + "mytree".length(), name.toString().length());
+        assertTrue(name.toString().startsWith("sapling_stump_sapling_"));
+        assertEquals("stump_" + name, EntityName.derived(WorldLoader.STUMP_KEY, name).toString());
+
+        // entities compare by an id given when they are made, not by name
+        Fixture fixture = loadWorld(makeSave(1, 3, "stump same 0 0", "stump same 1 0", "tree  2 0 100.0 100.0 1"));
+        Entity first = fixture.world.getOccupant(new Point(0, 0)).get();
+        Entity second = fixture.world.getOccupant(new Point(1, 0)).get();
+        Entity unnamed = fixture.world.getOccupant(new Point(2, 0)).get();
+        assertEquals(first.getId(), second.getId());
+        assertTrue(first.getNumericId() != second.getNumericId());
+        assertTrue(unnamed.getNumericId() > 0);
+        assertFalse(first.equals(second));
+        assertTrue(first.hashCode() != second.hashCode());
+        assertEquals(first, first);
+
+        // and keep that id through a transition in place
+        long id = unnamed.getNumericId();
+        fixture.world.transition(unnamed, EntityKind.STUMP, EntityName.derived(WorldLoader.STUMP_KEY, unnamed.getName()),
+                fixture.imageStore.getImageList(WorldLoader.STUMP_KEY), 0, 0, 0, 0, 0, 0);
+        assertEquals("stump_", unnamed.getId());
+        assertEquals(id, unnamed.getNumericId());
+        Entity detached = Factory.createStump("later", new Point(0, 0), fixture.imageStore.getImageList(WorldLoader.STUMP_KEY));
+        assertTrue(detached.getNumericId() > id);
+    }
+
+    @Test
+    public void testIdleHuntersWait() {
+        String[] hunters = new String[8];
+        for (int i = 0; i < 4; i++) {
+            hunters[i] = String.format("fairy f%d %d 0 0.100 100.0", i, i);
+            hunters[i + 4] = String.format("person p%d %d 3 0.100 100.0 1", i, i);
+        }
+        String sav = makeSave(4, 4, hunters);
+        Fixture fixture = loadWorld(sav);
+        fixture.scheduleAll();
+
+        // nothing to hunt, so only the animations stay queued
+        fixture.scheduler.updateOnTime(1);
+        int queued = fixture.scheduler.getQueuedEvents().size();
+        fixture.scheduler.updateOnTime(10);
+        assertEquals(queued, fixture.scheduler.getQueuedEvents().size());
+        assertEquals(8, queued);
+
+        // a stump wakes the fairies, and the sapling they plant wakes the people
+        fixture.world.tryAddEntity(Factory.createStump("mystump", new Point(0, 2), fixture.imageStore.getImageList(WorldLoader.STUMP_KEY)));
+        assertEquals(12, fixture.scheduler.getQueuedEvents().size());
+        fixture.scheduler.updateOnTime(1);
+        assertTrue(fixture.world.getEntities().stream().anyMatch(e -> e.getKind() == EntityKind.PERSON_FULL));
+    }
+
+    @Test
+    public void testClaimNearest() {
+        String sav = makeSave(1, 5, "tree near 1 0 100.0 100.0 1", "tree far 4 0 100.0 100.0 1");
+        Fixture fixture = loadWorld(sav);
+        Entity near = fixture.world.getOccupant(new Point(1, 0)).orElseThrow();
+        Entity far = fixture.world.getOccupant(new Point(4, 0)).orElseThrow();
+        Entity first = Factory.createOrange("first", new Point(0, 0), 1, 1, fixture.imageStore.getImageList("orange"));
+        Entity second = Factory.createOrange("second", new Point(0, 0), 1, 1, fixture.imageStore.getImageList("orange"));
+        Entity third = Factory.createOrange("third", new Point(0, 0), 1, 1, fixture.imageStore.getImageList("orange"));
+        List<EntityKind> trees = List.of(EntityKind.TREE);
+
+        assertSame(near, fixture.world.claimNearest(new Point(0, 0), trees, first, 0, 3).orElseThrow());
+        assertSame(near, fixture.world.claimNearest(new Point(0, 0), trees, first, 1, 4).orElseThrow());
+        assertSame(far, fixture.world.claimNearest(new Point(0, 0), trees, second, 1, 4).orElseThrow());
+        // everything is claimed, so the nearest is shared
+        assertSame(near, fixture.world.claimNearest(new Point(0, 0), trees, third, 1, 4).orElseThrow());
+        assertSame(near, fixture.world.findNearest(new Point(0, 0), trees).orElseThrow());
+
+        // a lapsed claim can be taken over
+        assertSame(near, fixture.world.claimNearest(new Point(0, 0), trees, second, 5, 8).orElseThrow());
+        assertSame(far, fixture.world.claimNearest(new Point(0, 0), trees, first, 5, 8).orElseThrow());
+
+        // removing a target ends the claim on it
+        fixture.world.removeEntity(fixture.scheduler, near);
+        assertEquals(Set.of(far), fixture.world.getClaims().getClaims().keySet());
+        fixture.world.removeEntity(fixture.scheduler, far);
+        assertTrue(fixture.world.getClaims().getClaims().isEmpty());
+        assertTrue(fixture.world.claimNearest(new Point(0, 0), trees, second, 6, 9).isEmpty());
+    }
+
+    @Test
+    public void testTrackNearest() {
+        Fixture fixture = loadWorld(makeSave(1, 8));
+        Entity fairy = Factory.createFairy("myfairy", new Point(0, 0), 1, 1, fixture.imageStore.getImageList("fairy"));
+        fixture.world.tryAddEntity(fairy);
+        Entity far = Factory.createStump("far", new Point(6, 0), fixture.imageStore.getImageList(WorldLoader.STUMP_KEY));
+        fixture.world.tryAddEntity(far);
+        List<EntityKind> stumps = List.of(EntityKind.STUMP);
+
+        assertSame(far, fixture.world.trackNearest(fairy, stumps).orElseThrow());
+        // kept, without a search, while nothing nearer turns up
+        fixture.world.tryAddEntity(Factory.createStump("farther", new Point(7, 0), fixture.imageStore.getImageList(WorldLoader.STUMP_KEY)));
+        assertSame(far, fixture.world.getTracker().get(fairy, TargetTracker.mask(stumps)));
+
+        Entity near = Factory.createStump("near", new Point(2, 0), fixture.imageStore.getImageList(WorldLoader.STUMP_KEY));
+        fixture.world.tryAddEntity(near);
+        assertNull(fixture.world.getTracker().get(fairy, TargetTracker.mask(stumps)));
+        assertSame(near, fixture.world.trackNearest(fairy, stumps).orElseThrow());
+        assertSame(near, fixture.world.trackNearest(fairy, stumps).orElseThrow());
+
+        // a target leaving the world is forgotten
+        fixture.world.removeEntity(fixture.scheduler, near);
+        assertTrue(fixture.world.getTracker().getTracked().isEmpty());
+        assertSame(far, fixture.world.trackNearest(fairy, stumps).orElseThrow());
+        fixture.world.removeEntity(fixture.scheduler, fairy);
+        assertTrue(fixture.world.getTracker().getTracked().isEmpty());
+    }
+
     @Test
     public void testPersonAnimation() {
         String sav = makeSave(1, 1, "person myperson 0 0 1.000 0.100 1");
@@ -204,4 +854,505 @@ public class WorldTests {
 
         assertTrue(entities.stream().anyMatch("myperson 4 2 0"::equals));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testResumeFromCheckpoint() throws IOException {
+        String checkpoints = Files.createTempDirectory("checkpoints").toString();
+
+        List<String> uninterrupted = VirtualWorld.headlessMain(new String[]{BUSY_SAVE}, 6);
+        VirtualWorld.headlessMain(new String[]{BUSY_SAVE, "-checkpoint=" + checkpoints, "-checkpoint-interval=3"}, 3);
+        List<String> resumed = VirtualWorld.headlessMain(new String[]{"-resume=" + checkpoints}, 3);
+
+        Collections.sort(uninterrupted);
+        Collections.sort(resumed);
+        assertEquals(uninterrupted, resumed);
+    }
+
+    @Test
+    public void testReplayJournal() throws IOException {
+        String checkpoints = Files.createTempDirectory("journal").toString();
+
+        List<String> partway = VirtualWorld.headlessMain(new String[]{BUSY_SAVE}, 3.6);
+        List<String> recorded = VirtualWorld.headlessMain(new String[]{BUSY_SAVE, "-checkpoint=" + checkpoints, "-checkpoint-interval=2", "-journal"}, 6);
+        List<String> replayedPartway = VirtualWorld.headlessMain(new String[]{"-replay=" + checkpoints, "-replay-time=3.6"}, 0);
+        List<String> replayed = VirtualWorld.headlessMain(new String[]{"-replay=" + checkpoints}, 0);
+
+        Collections.sort(partway);
+        Collections.sort(replayedPartway);
+        Collections.sort(recorded);
+        Collections.sort(replayed);
+        assertEquals(partway, replayedPartway);
+        assertEquals(recorded, replayed);
+    }
+
+    @Test
+    public void testStreamedWorld() throws IOException {
+        String chunks = Files.createTempDirectory("chunks").toString();
+
+        List<String> inMemory = VirtualWorld.headlessMain(new String[]{BUSY_SAVE}, 5);
+        List<String> streamed = VirtualWorld.headlessMain(new String[]{BUSY_SAVE, "-stream=" + chunks}, 5);
+        List<String> reopened = VirtualWorld.headlessMain(new String[]{BUSY_SAVE, "-stream=" + chunks}, 0);
+
+        Collections.sort(inMemory);
+        Collections.sort(streamed);
+        Collections.sort(reopened);
+        assertEquals(inMemory, streamed);
+        assertEquals(streamed, reopened);
+    }
+
+    /*
+       Two 4x4 chunks and room for only one, so moving the stump into the
+       second chunk pages the first out, rock and changed background with it.
+     */
+    @Test
+    public void testStreamedEviction() throws IOException {
+        Fixture fixture = loadWorld(makeSave(4, 8, "obstacle rock 1 1 100.0", "stump mystump 3 0"));
+        File directory = Files.createTempDirectory("chunks").toFile();
+        ChunkStore.create(directory, fixture.world, 4);
+        WorldModel world = new WorldModel();
+        EventScheduler scheduler = new EventScheduler();
+        WorldStreamer streamer = WorldStreamer.open(directory, world, scheduler, fixture.imageStore, 1);
+        streamer.loadRegion(0, 0, 4, 4);
+        Entity rock = world.getOccupant(new Point(1, 1)).orElseThrow();
+        Entity stump = world.getOccupant(new Point(3, 0)).orElseThrow();
+        assertEquals(100.0, scheduler.getPendingEvents(rock).get(0).getTime());
+        world.setBackgroundCell(new Point(2, 2), fixture.imageStore.getBackground("dirt"));
+
+        scheduler.updateOnTime(1);
+        world.moveEntity(scheduler, stump, new Point(4, 0));
+
+        // the first chunk is gone, and the rock frozen with it
+        assertEquals(1, streamer.getLoadedCount());
+        assertFalse(world.getEntities().contains(rock));
+        assertTrue(scheduler.getPendingEvents(rock).isEmpty());
+        assertTrue(world.getEntities().contains(stump));
+        // the changed background was written back when the chunk was evicted
+        streamer.flush();
+        ChunkStore store = ChunkStore.open(directory);
+        assertEquals("dirt", store.decode(store.read(0, 0), fixture.imageStore).cells[2 * 4 + 2].id);
+
+        scheduler.updateOnTime(2);
+        assertEquals("dirt", world.getBackgroundCell(new Point(2, 2)).id);
+
+        // thawed as it was, its animation put off by the two seconds it spent frozen
+        assertSame(rock, world.getOccupant(new Point(1, 1)).orElseThrow());
+        assertTrue(world.getEntities().contains(rock));
+        assertEquals(102.0, scheduler.getPendingEvents(rock).get(0).getTime());
+        assertFalse(world.getEntities().contains(stump));
+
+        // evicted and straight back, most likely before the writer has got to it
+        world.setBackgroundCell(new Point(3, 3), fixture.imageStore.getBackground("dirt"));
+        assertEquals(VirtualWorld.createDefaultBackground(fixture.imageStore), world.getBackgroundCell(new Point(4, 3)));
+        assertEquals("dirt", world.getBackgroundCell(new Point(3, 3)).id);
+        streamer.close();
+
+        WorldModel reopened = new WorldModel();
+        try (WorldStreamer again = WorldStreamer.open(directory, reopened, new EventScheduler(), fixture.imageStore, 1)) {
+            assertEquals("dirt", reopened.getBackgroundCell(new Point(2, 2)).id);
+            assertEquals("dirt", reopened.getBackgroundCell(new Point(3, 3)).id);
+            assertEquals("rock", reopened.getOccupant(new Point(1, 1)).orElseThrow().getId());
+            assertEquals("mystump", reopened.getOccupant(new Point(4, 0)).orElseThrow().getId());
+            assertEquals(1, again.getLoadedCount());
+        }
+    }
+
+    @Test
+    public void testFrameRecorderKeepsEveryFrame() throws IOException {
+        File output = new File(Files.createTempDirectory("frames").toFile(), "frames.raw");
+        int width = 8;
+        int height = 8;
+        int frames = 500;
+
+        FrameRecorder recorder = new FrameRecorder(output, width, height);
+        int[] pixels = new int[width * height];
+        for (int i = 0; i < frames; i++) {
+            Arrays.fill(pixels, i);
+            recorder.submit(pixels, i);
+        }
+        recorder.close();
+
+        assertEquals(frames, recorder.getFramesWritten());
+        assertEquals(0, recorder.getFramesDropped());
+        // magic, width and height, then a time and the pixels per frame
+        assertEquals(6 + 8 + frames * (8 + 4L * width * height), output.length());
+    }
+
+    @Test
+    public void testMappedLoaderLineEndings() throws IOException {
+        String sav = "Rows:\n2\nCols:\n3\nBackgrounds:\ngrass dirt grass\ndirt dirt grass\n"
+                + BUSY_SAVE.substring(BUSY_SAVE.indexOf("Entities:")).replace("house  4 1", "house  2 0");
+
+        assertSameLoad(sav);
+        assertSameLoad(sav.replace("\n", "\r\n"));
+        assertSameLoad(sav.replace("\n", "\r"));
+        assertSameLoad(sav.replace("\n", "\r\n").replace("Cols:\r\n", "Cols:\r"));
+        assertSameLoad(sav.strip());
+    }
+
+    @Test
+    public void testMappedLoaderBlankLines() throws IOException {
+        assertSameLoad("\n\nRows:\n2\nCols:\n2\n\nBackgrounds:\ngrass  dirt\n\n");
+        assertSameLoad("Rows:\n2\nCols:\n2\nBackgrounds:\n\ngrass grass\n");
+        assertSameLoad("Rows:\n\n2\nCols:\n2\n");
+        assertSameLoad(makeSave(2, 2, "stump a 0 0", "", "stump b 1 1"));
+        assertSameLoad(makeSave(2, 2, "stump a 0 0", "   \t", "stump b 1 1"));
+    }
+
+    @Test
+    public void testMappedLoaderBadInts() throws IOException {
+        assertSameLoad("Rows:\nabc\nCols:\n2\n");
+        assertSameLoad("Rows:\n2\nCols:\n99999999999\n");
+        assertSameLoad("Rows:\n2\nCols:\n2147483648\n");
+        assertSameLoad("Rows:\n+2\nCols:\n-\n");
+        assertSameLoad("Rows:\n2\nCols:\n2\nSeed:\n12x\n");
+        assertSameLoad(makeSave(2, 2, "stump a 1x 0"));
+        assertSameLoad(makeSave(2, 2, "stump a  0 0"));
+        assertSameLoad(makeSave(2, 2, "stump a +1 -0"));
+        assertSameLoad(makeSave(2, 2, "stump a 0 4294967297"));
+        assertSameLoad(makeSave(2, 2, "tree a 0 0 1.0 0.5 9999999999"));
+        assertSameLoad(makeSave(2, 2, "stump a 0"));
+        assertSameLoad(makeSave(2, 2, "rock a 0 0"));
+    }
+
+    @Test
+    public void testMappedLoaderRuns() throws IOException {
+        String header = "Rows:\n1\nCols:\n4\nBackgroundRuns:\n";
+
+        assertSameLoad(header + "grass*2 dirt*2\n");
+        assertSameLoad(header + "grass*9 dirt\n");
+        assertSameLoad(header + "a*b*2 *2\n");
+        assertSameLoad(header + "grass*0 dirt*4\n");
+        assertSameLoad(header + "grass*-1\n");
+        assertSameLoad(header + "grass* dirt\n");
+        assertSameLoad(header + "grass*2147483648\n");
+        assertSameLoad(header + "grass*2147483647\n");
+    }
+
+    @Test
+    public void testMappedLoaderOccupiedCell() throws IOException {
+        assertSameLoad(makeSave(2, 2, "stump a 0 0", "stump b 1 0", "house c 0 0"));
+    }
+
+    /*
+       Large enough to be split into chunks and parsed on several threads,
+       with and without a bad entity line halfway through.
+     */
+    @Test
+    public void testMappedLoaderLargeFile() throws IOException {
+        int size = 300;
+        StringBuilder sb = new StringBuilder(String.format("Rows:\r\n%d\r\nCols:\r\n%d\r\nBackgrounds:\r\n", size, size));
+        for (int row = 0; row < size; row++) {
+            for (int col = 0; col < size; col++) {
+                sb.append((row + col) % 3 == 0 ? "grass" : "dirt").append(col + 1 < size ? " " : "\r\n");
+            }
+        }
+        sb.append("Entities:\r\n");
+        int middle = -1;
+        for (int row = 0; row < size; row++) {
+            for (int col = 0; col < size; col++) {
+                if (row == size / 2 && col == 0) {
+                    middle = sb.length();
+                }
+                sb.append("stump s").append(row * size + col).append(' ').append(col).append(' ').append(row).append("\r\n");
+            }
+        }
+        String sav = sb.toString();
+        assertTrue(sav.length() > 2 << 20);
+
+        assertSameLoad(sav);
+        assertSameLoad(sav.substring(0, middle) + "stump bad 1x 0\r\n" + sav.substring(middle));
+        assertSameLoad(sav.substring(0, middle) + "stump dup 0 0\r\n" + sav.substring(middle));
+    }
+
+    @Test
+    public void testBinaryRoundTrip() throws IOException {
+        String sav = "Rows:\n3\nCols:\n5\nBackgrounds:\ngrass dirt grass grass grass\ndirt dirt grass dirt dirt\ngrass grass grass grass dirt\n"
+                + BUSY_SAVE.substring(BUSY_SAVE.indexOf("Entities:"));
+        File file = Files.createTempFile("world", BinaryWorldFormat.FILE_SUFFIX).toFile();
+        file.deleteOnExit();
+
+        List<String> expected = loadOutcome(fixture -> {
+            WorldLoader.load(fixture.world, new Scanner(sav), fixture.imageStore, VirtualWorld.createDefaultBackground(fixture.imageStore));
+            try {
+                BinaryWorldFormat.write(fixture.world, file);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        assertEquals(9, expected.size());
+        assertEquals(expected, loadBinary(file));
+    }
+
+    @Test
+    public void testBinaryPackedCells() throws IOException {
+        // wide enough at three bits a cell for some cells to straddle two words
+        int[][] cells = new int[2][30];
+        StringBuilder sav = new StringBuilder("Rows:\n2\nCols:\n30\nBackgrounds:\n");
+        for (int row = 0; row < 2; row++) {
+            for (int col = 0; col < 30; col++) {
+                cells[row][col] = 1 + (row + col) % 2;
+                sav.append(cells[row][col] == 1 ? "grass" : "dirt").append(col < 29 ? " " : "\n");
+            }
+        }
+        List<String> expected = loadOutcome(fixture -> WorldLoader.load(fixture.world, new Scanner(sav.toString()), fixture.imageStore, VirtualWorld.createDefaultBackground(fixture.imageStore)));
+        assertEquals(expected, loadBinary(packedWorld(cells, 3, 0)));
+        assertEquals(expected, loadBinary(packedWorld(cells, 32, 0)));
+
+        // a corrupt file is refused rather than read past the end of an array
+        List<String> badIndex = loadBinary(packedWorld(new int[][]{{1, 3}}, 2, 0));
+        assertEquals(List.of(IllegalArgumentException.class.getName(), "Background index is out of range"), badIndex);
+        List<String> wideCells = loadBinary(packedWorld(new int[][]{{1, 2}}, 33, 0));
+        assertEquals(List.of(IllegalArgumentException.class.getName(), "Background cell width is out of range"), wideCells);
+        List<String> missingWords = loadBinary(packedWorld(cells, 3, 1));
+        assertEquals(List.of(IllegalArgumentException.class.getName(), "Background cells do not cover the world"), missingWords);
+    }
+
+    private static List<String> loadBinary(File file) {
+        return loadOutcome(fixture -> {
+            try {
+                BinaryWorldFormat.load(fixture.world, file, fixture.imageStore, VirtualWorld.createDefaultBackground(fixture.imageStore));
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    /*
+       A version 1 binary world with no entities, which nothing writes any
+       more: background ids "grass" (1) and "dirt" (2), packed bits to a cell
+       row-major, less the last missingWords words.
+     */
+    private static File packedWorld(int[][] cells, int bits, int missingWords) throws IOException {
+        int rows = cells.length;
+        int cols = cells[0].length;
+        long[] words = new long[(int) (((long) rows * cols * bits + 63) / 64)];
+        for (int row = 0; row < rows; row++) {
+            for (int col = 0; col < cols; col++) {
+                long bit = ((long) row * cols + col) * Math.min(bits, 32);
+                int word = (int) (bit >>> 6);
+                int shift = (int) (bit & 63);
+                words[word] |= (long) cells[row][col] << shift;
+                if (shift > 0 && word + 1 < words.length) {
+                    words[word + 1] |= (long) cells[row][col] >>> (64 - shift);
+                }
+            }
+        }
+
+        File file = Files.createTempFile("packed", BinaryWorldFormat.FILE_SUFFIX).toFile();
+        file.deleteOnExit();
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+            out.writeInt(0x56574231); // "VWB1"
+            out.writeInt(1);
+            out.writeInt(rows);
+            out.writeInt(cols);
+            out.writeInt(3);
+            for (String id : new String[]{"", "grass", "dirt"}) {
+                out.writeInt(id.length());
+                out.writeBytes(id);
+            }
+            out.writeInt(bits);
+            out.writeInt(words.length - missingWords);
+            for (int i = 0; i < words.length - missingWords; i++) {
+                out.writeLong(words[i]);
+            }
+            out.writeInt(0);
+        }
+        return file;
+    }
+
+    @Test
+    public void testIncrementalSnapshot() {
+        Fixture fixture = loadWorld("Rows:\n3\nCols:\n4\nBackgrounds:\ngrass grass grass grass\ngrass grass grass grass\ngrass grass grass grass\n");
+        WorldModel world = fixture.world;
+        BackgroundChanges changes = new BackgroundChanges();
+        world.setBackgroundChanges(changes);
+        IdentityHashMap<Entity, Integer> handles = new IdentityHashMap<>();
+        int[] nextHandle = {0};
+
+        WorldSnapshot first = WorldSnapshot.capture(0, world, fixture.scheduler, handles, nextHandle, null, changes);
+        world.setBackgroundCell(new Point(1, 2), fixture.imageStore.getBackground("dirt"));
+        WorldSnapshot second = WorldSnapshot.capture(1, world, fixture.scheduler, handles, nextHandle, first, changes);
+        WorldSnapshot third = WorldSnapshot.capture(2, world, fixture.scheduler, handles, nextHandle, second, changes);
+
+        // only the changed row is copied, and the earlier snapshot keeps its own
+        assertTrue(second.sharesRow(first, 0));
+        assertTrue(second.sharesRow(first, 1));
+        assertFalse(second.sharesRow(first, 2));
+        assertEquals("grass", first.getCell(2, 1).id);
+        assertEquals("dirt", second.getCell(2, 1).id);
+        for (int row = 0; row < 3; row++) {
+            assertTrue(third.sharesRow(second, row));
+        }
+
+        world.setBackground(new Background[][]{
+                {null, null, null, null}, {null, null, null, null}, {null, null, null, null}});
+        WorldSnapshot replaced = WorldSnapshot.capture(3, world, fixture.scheduler, handles, nextHandle, third, changes);
+        for (int row = 0; row < 3; row++) {
+            assertFalse(replaced.sharesRow(third, row));
+            assertNull(replaced.getCell(row, 1));
+        }
+    }
+
+    @Test
+    public void testIncrementalCheckpoints() throws IOException {
+        File checkpoints = Files.createTempDirectory("checkpoints").toFile();
+        Fixture fixture = loadWorld("Rows:\n3\nCols:\n4\nBackgrounds:\ngrass grass grass grass\ngrass grass grass grass\ngrass grass grass grass\n");
+        WorldModel world = fixture.world;
+
+        Checkpointer checkpointer = new Checkpointer(checkpoints, 1);
+        checkpointer.checkpoint(world, fixture.scheduler);
+        world.setBackgroundCell(new Point(3, 0), fixture.imageStore.getBackground("dirt"));
+        checkpointer.checkpoint(world, fixture.scheduler);
+        world.setBackgroundCell(new Point(0, 2), fixture.imageStore.getBackground("dirt"));
+        world.setBackgroundCell(new Point(3, 0), fixture.imageStore.getBackground("grass"));
+        checkpointer.checkpoint(world, fixture.scheduler);
+        checkpointer.close();
+
+        WorldSnapshot latest = CheckpointFormat.read(checkpoints, CheckpointFormat.latestSequence(checkpoints), fixture.imageStore);
+        for (int row = 0; row < 3; row++) {
+            for (int col = 0; col < 4; col++) {
+                assertEquals(world.getBackgroundCell(new Point(col, row)).id, latest.getCell(row, col).id);
+            }
+        }
+        assertEquals("dirt", latest.getCell(2, 0).id);
+    }
+
+    @Test
+    public void testEntityTables() {
+        Fixture fixture = loadWorld(makeSave(1, 4, "stump a 0 0", "stump b 1 0", "stump c 2 0", "house d 3 0"));
+        WorldModel world = fixture.world;
+        EntityStore.Table stumps = world.getEntityTable(EntityKind.STUMP);
+        Entity a = world.getOccupant(new Point(0, 0)).get();
+        Entity b = world.getOccupant(new Point(1, 0)).get();
+        Entity c = world.getOccupant(new Point(2, 0)).get();
+        a.setImageIndex(5);
+        c.setImageIndex(7);
+        assertEquals(3, stumps.size);
+
+        // the last row fills the gap, and its entity follows it there
+        world.removeEntity(fixture.scheduler, a);
+        assertEquals(2, stumps.size);
+        assertEquals(Set.of(b, c), Set.of(stumps.entities[0], stumps.entities[1]));
+        assertNull(stumps.entities[2]);
+        assertEquals(new Point(2, 0), c.getPosition());
+        assertEquals(7, c.getImageIndex());
+        assertFalse(world.getEntities().contains(a));
+        assertNull(a.getTable().store);
+        assertEquals(1, a.getTable().size);
+        assertEquals(5, a.getImageIndex());
+
+        world.transition(b, EntityKind.TREE, EntityName.of("b"), fixture.imageStore.getImageList(WorldLoader.TREE_KEY), 0, 0, 1.0, 1.0, 3, 0);
+        assertEquals(1, stumps.size);
+        assertSame(c, stumps.entities[0]);
+        assertSame(world.getEntityTable(EntityKind.TREE), b.getTable());
+        assertEquals(new Point(1, 0), b.getPosition());
+        assertEquals(3, b.getHealth());
+        assertEquals(new Point(2, 0), c.getPosition());
+
+        // each removed entity keeps its state in a table of its own
+        world.removeEntity(fixture.scheduler, c);
+        assertNotSame(a.getTable(), c.getTable());
+        a.setPosition(new Point(0, 0));
+        world.addEntity(a);
+        assertSame(stumps, a.getTable());
+        assertEquals(5, a.getImageIndex());
+        assertEquals(7, c.getImageIndex());
+        assertEquals(new Point(-1, -1), c.getPosition());
+        assertEquals(3, world.getEntities().size());
+    }
+
+    @Test
+    public void testDetachedEntities() throws InterruptedException, ExecutionException {
+        int size = 32;
+        Fixture fixture = loadWorld(makeSave(size, size));
+        List<PImage> images = fixture.imageStore.getImageList("house");
+
+        // made on pool threads while this one adds them, as MappedWorldLoader does
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        List<Future<Entity>> made = new ArrayList<>();
+        for (int i = 0; i < size * size; i++) {
+            Point position = new Point(i % size, i / size);
+            made.add(pool.submit(() -> Factory.createHouse("h" + position.x + "_" + position.y, position, images)));
+        }
+        try {
+            for (Future<Entity> future : made) {
+                Entity house = future.get();
+                assertNull(house.getTable().store);
+                assertEquals(1, house.getTable().size);
+                fixture.world.addEntity(house);
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        assertEquals(size * size, fixture.world.getEntityTable(EntityKind.HOUSE).size);
+        for (int row = 0; row < size; row++) {
+            for (int col = 0; col < size; col++) {
+                Entity house = fixture.world.getOccupant(new Point(col, row)).orElseThrow();
+                assertEquals("h" + col + "_" + row, house.getId());
+                assertEquals(new Point(col, row), house.getPosition());
+            }
+        }
+    }
+
+    @Test
+    public void testSimulationThreadFailure() throws InterruptedException {
+        Fixture fixture = loadWorld(BUSY_SAVE);
+        SimulationThread simulation = new SimulationThread(fixture.world, fixture.scheduler, new Viewport(2, 2), 1);
+        simulation.checkFailure();
+        simulation.submit(() -> {
+            throw new IllegalArgumentException("bad click");
+        });
+        simulation.start(System.currentTimeMillis());
+        for (int i = 0; i < 1000 && simulation.isRunning(); i++) {
+            Thread.sleep(5);
+        }
+
+        // the thread stops, and the render thread gets told why
+        assertFalse(simulation.isRunning());
+        IllegalStateException stopped = assertThrows(IllegalStateException.class, simulation::checkFailure);
+        assertEquals("bad click", stopped.getCause().getMessage());
+    }
+
+    @Test
+    public void testEventQueueOrder() {
+        Random random = new Random(1);
+        List<Event> batch = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            batch.add(new Event(null, random.nextInt(100) / 10.0, null));
+        }
+        EventQueue single = new EventQueue(new EventComparator());
+        for (Event event : batch) {
+            single.add(event);
+        }
+        EventQueue rebuilt = new EventQueue(new EventComparator());
+        rebuilt.addAll(batch);
+        EventQueue rebuiltAgain = new EventQueue(new EventComparator());
+        rebuiltAgain.addAll(batch);
+        // a batch no larger than the queue is added one event at a time
+        EventQueue topped = new EventQueue(new EventComparator());
+        for (Event event : batch.subList(0, 600)) {
+            topped.add(event);
+        }
+        topped.addAll(batch.subList(600, batch.size()));
+
+        List<Event> one = drain(single);
+        List<Event> all = drain(rebuilt);
+        assertEquals(batch.size(), all.size());
+        for (int i = 0; i < one.size(); i++) {
+            assertEquals(one.get(i).getTime(), all.get(i).getTime());
+        }
+        assertEquals(all, drain(rebuiltAgain));
+        assertEquals(one, drain(topped));
+        // events due together are not kept in the order they were added
+        assertFalse(one.equals(all));
+    }
+
+    private static List<Event> drain(EventQueue queue) {
+        List<Event> events = new ArrayList<>();
+        for (Event event = queue.poll(); event != null; event = queue.poll()) {
+            events.add(event);
+        }
+        return events;
+    }
+}
@@ -1,8 +1,6 @@
 import processing.core.PApplet;
 import processing.core.PImage;
 
-import java.util.Optional;
-
 public final class WorldView {
     private final PApplet screen;
     private final WorldModel world;
@@ -21,10 +19,9 @@ public final class WorldView {
     public void drawBackground() {
         for (int row = 0; row < viewport.getNumRows(); row++) {
             for (int col = 0; col < viewport.getNumCols(); col++) {
-                Point worldPoint = viewport.viewportToWorld(col, row);
-                Optional<PImage> image = world.getBackgroundImage(worldPoint);
-                if (image.isPresent()) {
-                    screen.image(image.get(), col * tileWidth, row * tileHeight);
+                PImage image = world.getBackgroundImageAt(viewport.viewportToWorld(PackedPoint.of(col, row)));
+                if (image != null) {
+                    screen.image(image, col * tileWidth, row * tileHeight);
                 }
             }
         }
@@ -32,25 +29,128 @@ public final class WorldView {
 
     public void drawEntities() {
         for (Entity entity : world.getEntities()) {
-            Point pos = entity.getPosition();
+            long pos = entity.getCell();
 
             if (viewport.contains(pos)) {
-                Point viewPoint = viewport.worldToViewport(pos.x, pos.y);
-                screen.image(entity.getCurrentImage(), viewPoint.x * tileWidth, viewPoint.y * tileHeight);
+                long viewPoint = viewport.worldToViewport(pos);
+                screen.image(entity.getCurrentImage(), PackedPoint.x(viewPoint) * tileWidth, PackedPoint.y(viewPoint) * tileHeight);
+            }
+        }
+    }
+
+    /**
+     * Draws the world zoomed out, one scaled sprite per visible cell.
+     * Only used between the normal view and Viewport.SUMMARY_SCALE.
+     */
+    public void drawScaled() {
+        float cellWidth = (float) tileWidth / viewport.getScale();
+        float cellHeight = (float) tileHeight / viewport.getScale();
+
+        for (int row = 0; row < viewport.getVisibleRows(); row++) {
+            for (int col = 0; col < viewport.getVisibleCols(); col++) {
+                long worldPoint = viewport.viewportToWorld(PackedPoint.of(col, row));
+                PImage image = world.getBackgroundImageAt(worldPoint);
+                if (image != null) {
+                    screen.image(image, col * cellWidth, row * cellHeight, cellWidth, cellHeight);
+                }
+                Entity occupant = world.getOccupantAt(worldPoint);
+                if (occupant != null) {
+                    screen.image(occupant.getCurrentImage(), col * cellWidth, row * cellHeight, cellWidth, cellHeight);
+                }
             }
         }
     }
 
+    /**
+     * Draws the chunk summary image stretched over the visible region. A
+     * single draw call whatever the size of the world in view.
+     */
+    public void drawSummary() {
+        WorldSummary summary = world.getSummary();
+        float cellWidth = (float) tileWidth / viewport.getScale();
+        float cellHeight = (float) tileHeight / viewport.getScale();
+        float chunkWidth = cellWidth * WorldSummary.CHUNK_SIZE;
+        float chunkHeight = cellHeight * WorldSummary.CHUNK_SIZE;
+
+        screen.image(summary.getImage(),
+                -viewport.getCol() * cellWidth, -viewport.getRow() * cellHeight,
+                summary.getChunkCols() * chunkWidth, summary.getChunkRows() * chunkHeight);
+    }
+
     public void drawViewport() {
-        this.drawBackground();
-        this.drawEntities();
+        if (viewport.isSummarized()) {
+            this.drawSummary();
+        } else if (viewport.getScale() > 1) {
+            this.drawScaled();
+        } else {
+            this.drawBackground();
+            this.drawEntities();
+        }
+    }
+
+    /**
+     * Draws a snapshot published by the simulation thread instead of
+     * reading the live world, so rendering never waits on the simulation.
+     * @param snapshot - the latest snapshot of the visible region
+     */
+    public void drawSnapshot(RenderSnapshot snapshot) {
+        if (viewport.isSummarized()) {
+            this.drawSummary();
+            return;
+        }
+
+        // the snapshot may have been captured at a different zoom than the current one
+        float cellWidth = (float) tileWidth * viewport.getNumCols() / snapshot.getNumCols();
+        float cellHeight = (float) tileHeight * viewport.getNumRows() / snapshot.getNumRows();
+
+        for (int row = 0; row < snapshot.getNumRows(); row++) {
+            for (int col = 0; col < snapshot.getNumCols(); col++) {
+                Background background = snapshot.getBackground(col, row);
+                if (background != null) {
+                    screen.image(background.getCurrentImage(), col * cellWidth, row * cellHeight, cellWidth, cellHeight);
+                }
+            }
+        }
+
+        for (RenderSnapshot.Sprite sprite : snapshot.getSprites()) {
+            screen.image(sprite.getImage(), sprite.getViewCol() * cellWidth, sprite.getViewRow() * cellHeight, cellWidth, cellHeight);
+        }
     }
 
     public void shiftView(int colDelta, int rowDelta) {
-        int newCol = clamp(viewport.getCol() + colDelta, 0, world.getNumCols() - viewport.getNumCols());
-        int newRow = clamp(viewport.getRow() + rowDelta, 0, world.getNumRows() - viewport.getNumRows());
+        moveView(colDelta, rowDelta, viewport.getScale());
+    }
+
+    /*
+       Shifts by whole screen tiles at the given scale, clamped to the
+       world, and publishes the new origin and scale together.
+     */
+    private void moveView(int colDelta, int rowDelta, int scale) {
+        Viewport.Position at = viewport.getPosition();
+        int newCol = clamp(at.getCol() + colDelta * scale, 0, Math.max(0, world.getNumCols() - viewport.getNumCols() * scale));
+        int newRow = clamp(at.getRow() + rowDelta * scale, 0, Math.max(0, world.getNumRows() - viewport.getNumRows() * scale));
+
+        viewport.moveTo(newCol, newRow, scale);
+    }
+
+    /**
+     * Halves the size of each cell on screen, until the whole world fits.
+     * Streamed worlds have no summary, so stop short of the summary scale.
+     */
+    public void zoomOut() {
+        if (world.getSummary() == null && viewport.getScale() * 2 >= Viewport.SUMMARY_SCALE) {
+            return;
+        }
+        if (viewport.getVisibleCols() < world.getNumCols() || viewport.getVisibleRows() < world.getNumRows()) {
+            moveView(0, 0, viewport.getScale() * 2);
+        }
+    }
 
-        viewport.shift(newCol, newRow);
+    /**
+     * Doubles the size of each cell on screen, back to the normal view.
+     */
+    public void zoomIn() {
+        moveView(0, 0, Math.max(1, viewport.getScale() / 2));
     }
     private static int clamp(int value, int low, int high) {
         return Math.min(high, Math.max(value, low));
@@ -0,0 +1,86 @@
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * SIMD kernels on top of the JDK Vector API. Produces exactly the same
+ * pixels as ScalarPixelKernel; only loaded reflectively by PixelKernel so
+ * the rest of the program builds and runs without the incubator module.
+ * Kept out of the main source directory for the same reason; see
+ * PixelKernel for how to build it in.
+ */
+final class VectorPixelKernel implements PixelKernel {
+    private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+    private static final int COLOR_MASK = 0xffffff;
+
+    public void colorKey(int[] pixels, int maskColor, int alpha) {
+        int nonAlpha = maskColor & COLOR_MASK;
+        int replacement = (alpha << 24) | nonAlpha;
+        int bound = SPECIES.loopBound(pixels.length);
+        int i = 0;
+        for (; i < bound; i += SPECIES.length()) {
+            IntVector v = IntVector.fromArray(SPECIES, pixels, i);
+            VectorMask<Integer> keyed = v.and(COLOR_MASK).eq(nonAlpha);
+            v.blend(replacement, keyed).intoArray(pixels, i);
+        }
+        ScalarPixelKernel.colorKey(pixels, i, pixels.length, maskColor, alpha);
+    }
+
+    public void premultiplyAlpha(int[] pixels) {
+        int bound = SPECIES.loopBound(pixels.length);
+        int i = 0;
+        for (; i < bound; i += SPECIES.length()) {
+            IntVector v = IntVector.fromArray(SPECIES, pixels, i);
+            IntVector a = v.lanewise(VectorOperators.LSHR, 24);
+            IntVector r = div255(v.lanewise(VectorOperators.LSHR, 16).and(0xff).mul(a));
+            IntVector g = div255(v.lanewise(VectorOperators.LSHR, 8).and(0xff).mul(a));
+            IntVector b = div255(v.and(0xff).mul(a));
+            pack(a, r, g, b).intoArray(pixels, i);
+        }
+        ScalarPixelKernel.premultiplyAlpha(pixels, i, pixels.length);
+    }
+
+    public void composite(int[] dst, int dstWidth, int dstHeight, int dstX, int dstY,
+                          int[] src, int srcWidth, int srcHeight) {
+        int startCol = Math.max(0, -dstX);
+        int endCol = Math.min(srcWidth, dstWidth - dstX);
+        int startRow = Math.max(0, -dstY);
+        int endRow = Math.min(srcHeight, dstHeight - dstY);
+        int length = endCol - startCol;
+
+        for (int row = startRow; row < endRow; row++) {
+            int srcOffset = row * srcWidth + startCol;
+            int dstOffset = (row + dstY) * dstWidth + dstX + startCol;
+            int bound = SPECIES.loopBound(length);
+            int i = 0;
+            for (; i < bound; i += SPECIES.length()) {
+                IntVector s = IntVector.fromArray(SPECIES, src, srcOffset + i);
+                IntVector d = IntVector.fromArray(SPECIES, dst, dstOffset + i);
+                IntVector a = s.lanewise(VectorOperators.LSHR, 24);
+                IntVector na = a.neg().add(0xff);
+                IntVector r = div255(channel(s, 16).mul(a).add(channel(d, 16).mul(na)));
+                IntVector g = div255(channel(s, 8).mul(a).add(channel(d, 8).mul(na)));
+                IntVector b = div255(channel(s, 0).mul(a).add(channel(d, 0).mul(na)));
+                pack(IntVector.broadcast(SPECIES, 0xff), r, g, b).intoArray(dst, dstOffset + i);
+            }
+            ScalarPixelKernel.compositeRow(dst, dstOffset + i, src, srcOffset + i, length - i);
+        }
+    }
+
+    private static IntVector channel(IntVector v, int shift) {
+        return (shift == 0 ? v : v.lanewise(VectorOperators.LSHR, shift)).and(0xff);
+    }
+
+    private static IntVector div255(IntVector x) {
+        IntVector biased = x.add(128);
+        return biased.add(biased.lanewise(VectorOperators.ASHR, 8)).lanewise(VectorOperators.ASHR, 8);
+    }
+
+    private static IntVector pack(IntVector a, IntVector r, IntVector g, IntVector b) {
+        return a.lanewise(VectorOperators.LSHL, 24)
+                .or(r.lanewise(VectorOperators.LSHL, 16))
+                .or(g.lanewise(VectorOperators.LSHL, 8))
+                .or(b);
+    }
+}